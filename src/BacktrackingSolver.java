@@ -0,0 +1,1053 @@
+import java.util.List;
+
+/**
+ * This class is a backtracking solver engine that works on a single
+ * puzzle in place. Numbers placed during the search are pushed onto
+ * a trail and taken back off it when the search backtracks, so nothing
+ * is cloned per branch. An instance is meant to be reused, use
+ * forCurrentThread() to get the one that belongs to the calling thread.
+ * The candidates of the unfilled squares are kept up to date as numbers
+ * are placed and taken back, and the squares are kept in buckets by
+ * their candidate count, so the most constrained square is found
+ * without scanning or sorting.
+ * Before branching the search can apply naked singles, hidden singles
+ * and locked candidates until none of them changes anything, each rule
+ * can be switched off separately to measure its effect.
+ * Counting can use a TranspositionTable, which remembers the counts of
+ * the grids already searched under a Zobrist hash of the grid that is
+ * kept up to date as numbers are placed and taken back.
+ * Besides the recursive searches there is nextSolution(), which keeps
+ * its branches on an explicit stack so it can return a solution and carry
+ * on from there when called again, see SolutionIterator.
+ * Every search started from outside is reported to a MetricsListener,
+ * the default MetricsListener.NONE skips the reporting and the clock.
+ * @author Piotr Woloszyn
+ *
+ */
+public class BacktrackingSolver implements SudokuSolver {
+
+	// One solver per thread, so the working arrays are allocated only once
+	private static final ThreadLocal<BacktrackingSolver> THREAD_SOLVER = new ThreadLocal<BacktrackingSolver>() {
+		@Override
+		protected BacktrackingSolver initialValue() {
+			return new BacktrackingSolver();
+		}
+	};
+
+	// Index of the first bucket head in the linked list arrays
+	private static final int HEADS = 81;
+	// Trail entry flag marking a placed number, other entries are removed candidates
+	private static final int PLACED = 1 << 16;
+	// Propagation switches, locked candidates cost more than they save on typical grids
+	private boolean naked_singles = true;
+	private boolean hidden_singles = true;
+	private boolean locked_candidates = false;
+	// False when load() left empty squares out of the search, the unit rules
+	// would then take the squares left out for impossible and place wrong numbers
+	private boolean unit_rules;
+	// Counters since the last load(), for measuring the search
+	private long nodes;
+	private long naked_single_count;
+	private long hidden_single_count;
+	private long locked_candidate_count;
+	private long backtracks;
+	private int max_depth;
+	// Receives the measurements of every search, null for the one set on SolverModule
+	private MetricsListener metrics;
+	// The listener of the search being measured
+	private MetricsListener call_metrics = MetricsListener.NONE;
+	// The counters at the start of the search being measured
+	private long call_nodes;
+	private long call_backtracks;
+	private long call_propagations;
+
+	// The puzzle the search is done on
+	private final SudokuPuzzle working = new SudokuPuzzle();
+	// The puzzle solutions are written to for a SolutionListener
+	private final SudokuPuzzle solution = new SudokuPuzzle();
+	// Receives the solutions during enumerateSolutions()
+	private SolutionListener listener;
+	// Watched by the search, null if the search can't be cancelled
+	private CancellationToken cancellation_token;
+	// Set when the listener asks to stop, the token is cancelled or the budget runs out
+	private boolean stopped;
+	// True while a SearchBudget's limits are watched
+	private boolean budget_active;
+	// The node count and System.nanoTime() at which the budget runs out, 0 for no limit
+	private long node_limit;
+	private long deadline;
+	// Set when the search was stopped by the budget
+	private boolean budget_exhausted;
+	// Set to have count() write the first solution it finds
+	private boolean record_solution;
+	// Remembers the counts of searched grids, null for none
+	private TranspositionTable transposition_table;
+	// The Zobrist hash of the grid, only kept while there is a table
+	private long hash;
+	// The amount of squares the search still has to fill
+	private int num_of_unfilled;
+	// Candidate masks of the unfilled squares
+	private final int[] candidates = new int[81];
+	// Placed numbers and removed candidates in the order they happened, an entry is
+	// the square, the placed or removed candidate bits shifted by 7 and the PLACED flag
+	private final int[] trail = new int[81 + 81 * 9];
+	// The amount of entries on the trail
+	private int trail_size;
+	// The bucket (candidate count) of every unfilled square, -1 for the other squares
+	private final int[] bucket = new int[81];
+	// Circular doubly linked bucket lists, entries 81 - 90 are the heads of buckets 0 - 9
+	private final int[] next = new int[HEADS + 10];
+	private final int[] prev = new int[HEADS + 10];
+	// The branches of nextSolution() by depth: the square branched on, its
+	// candidates not tried yet and the trail size before the branch
+	private final int[] stack_square = new int[81];
+	private final int[] stack_mask = new int[81];
+	private final int[] stack_mark = new int[81];
+	private int stack_depth;
+	// Set when nextSolution() has to propagate the last number placed
+	private boolean descending;
+
+	/**
+	 * The constructor.
+	 */
+	public BacktrackingSolver() {
+		// Nothing here
+	}
+
+	/**
+	 * Switches the naked single rule on or off, it places the number
+	 * of every square that has only one candidate left.
+	 * @param naked_singles (boolean) true to use the rule
+	 */
+	public void setNakedSingles(boolean naked_singles) {
+		this.naked_singles = naked_singles;
+	}
+
+	/**
+	 * Switches the hidden single rule on or off, it places a number
+	 * that fits in only one square of a row, column or sub square.
+	 * @param hidden_singles (boolean) true to use the rule
+	 */
+	public void setHiddenSingles(boolean hidden_singles) {
+		this.hidden_singles = hidden_singles;
+	}
+
+	/**
+	 * Switches the locked candidates rule on or off. When a number's
+	 * candidates within a sub square all lie on one row or column it's
+	 * removed from the rest of that row or column (pointing), and when
+	 * they all lie in one sub square within a row or column it's removed
+	 * from the rest of the sub square (claiming).
+	 * @param locked_candidates (boolean) true to use the rule
+	 */
+	public void setLockedCandidates(boolean locked_candidates) {
+		this.locked_candidates = locked_candidates;
+	}
+
+	/**
+	 * Sets the token the search watches, once it's cancelled the search
+	 * returns as soon as possible with what it found so far.
+	 * @param cancellation_token (CancellationToken) the token, or null for none
+	 */
+	@Override
+	public void setCancellationToken(CancellationToken cancellation_token) {
+		this.cancellation_token = cancellation_token;
+	}
+
+	/**
+	 * Returns the token the search watches, so a caller borrowing the
+	 * solver can put it back afterwards.
+	 * @return (CancellationToken) the token, null for none
+	 */
+	public CancellationToken getCancellationToken() {
+		return cancellation_token;
+	}
+
+	/**
+	 * Sets the table countSolutions() remembers the counts of searched
+	 * grids in, it should only be changed between searches. The table
+	 * can be kept for many puzzles, but not shared with other solvers.
+	 * @param transposition_table (TranspositionTable) the table, or null for none
+	 */
+	public void setTranspositionTable(TranspositionTable transposition_table) {
+		this.transposition_table = transposition_table;
+		hash = gridHash();
+	}
+
+	/**
+	 * Returns the table countSolutions() remembers the counts of searched
+	 * grids in.
+	 * @return (TranspositionTable) the table, null for none
+	 */
+	public TranspositionTable getTranspositionTable() {
+		return transposition_table;
+	}
+
+	/**
+	 * Returns whether the last search was cut short by the cancellation
+	 * token or by a SolutionListener, its result is then incomplete.
+	 * @return (boolean) true if the search was stopped
+	 */
+	public boolean wasStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Returns the number of branches tried since the last load().
+	 * @return (long) the node count
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the number of naked singles placed since the last load().
+	 * @return (long) the naked single count
+	 */
+	public long getNakedSingleCount() {
+		return naked_single_count;
+	}
+
+	/**
+	 * Returns the number of hidden singles placed since the last load().
+	 * @return (long) the hidden single count
+	 */
+	public long getHiddenSingleCount() {
+		return hidden_single_count;
+	}
+
+	/**
+	 * Returns the number of candidates removed by locked candidates
+	 * since the last load().
+	 * @return (long) the locked candidate count
+	 */
+	public long getLockedCandidateCount() {
+		return locked_candidate_count;
+	}
+
+	/**
+	 * Returns the number of branches taken back since the last load().
+	 * @return (long) the backtrack count
+	 */
+	public long getBacktrackCount() {
+		return backtracks;
+	}
+
+	/**
+	 * Returns the most branches the search had on top of each other
+	 * since the last load().
+	 * @return (int) the maximum depth
+	 */
+	public int getMaxDepth() {
+		return max_depth;
+	}
+
+	/**
+	 * Returns the numbers placed and candidates removed by the rules
+	 * since the last load().
+	 * @return (long) the propagation count
+	 */
+	public long getPropagationCount() {
+		return naked_single_count + hidden_single_count + locked_candidate_count;
+	}
+
+	/**
+	 * Sets the listener every search of this solver is reported to,
+	 * instead of the one set by SolverModule.setMetricsListener().
+	 * @param metrics (MetricsListener) the listener, MetricsListener.NONE for none,
+	 * null to go back to SolverModule's
+	 */
+	public void setMetricsListener(MetricsListener metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the listener set on this solver.
+	 * @return (MetricsListener) the listener, null if SolverModule's is used
+	 */
+	public MetricsListener getMetricsListener() {
+		return metrics;
+	}
+
+	/**
+	 * Starts measuring a search, unless nobody listens.
+	 * @return (long) System.nanoTime() at the start, 0 if nobody listens
+	 */
+	private long startCall() {
+		call_metrics = (metrics != null) ? metrics : SolverModule.getMetricsListener();
+		if (call_metrics == MetricsListener.NONE)
+			return 0;
+		call_nodes = nodes;
+		call_backtracks = backtracks;
+		call_propagations = getPropagationCount();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Reports the search started by startCall() to the listener.
+	 * @param start (long) the value returned by startCall()
+	 */
+	private void endCall(long start) {
+		if (call_metrics != MetricsListener.NONE)
+			call_metrics.searchFinished(nodes - call_nodes, backtracks - call_backtracks, max_depth,
+					getPropagationCount() - call_propagations, System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the solver belonging to the calling thread.
+	 * @return (BacktrackingSolver) the thread's solver
+	 */
+	public static BacktrackingSolver forCurrentThread() {
+		return THREAD_SOLVER.get();
+	}
+
+	/**
+	 * Copies the passed puzzle into the solver, every empty square
+	 * is going to be filled by the search.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved, it's not modified
+	 */
+	public void load(SudokuPuzzle sudoku) {
+		reset(sudoku);
+		for (int i = 0; i < 81; i++) {
+			if (working.getNumberAt(i) == 0)
+				track(i);
+		}
+		hash = gridHash();
+	}
+
+	/**
+	 * Copies the passed puzzle into the solver, only the squares in the
+	 * passed list are going to be filled by the search. If the list
+	 * leaves out empty squares the hidden singles and locked candidates
+	 * rules are switched off for this puzzle, as they need every empty
+	 * square of a unit.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved, it's not modified
+	 * @param empty_squares (List<Integer>) the squares to fill
+	 */
+	public void load(SudokuPuzzle sudoku, List<Integer> empty_squares) {
+		reset(sudoku);
+		for (int i = 0; i < empty_squares.size(); i++) {
+			int square = empty_squares.get(i);
+			if (working.getNumberAt(square) == 0 && bucket[square] < 0)
+				track(square);
+		}
+		for (int i = 0; i < 81 && unit_rules; i++) {
+			if (working.getNumberAt(i) == 0 && bucket[i] < 0)
+				unit_rules = false;
+		}
+		hash = gridHash();
+	}
+
+	/**
+	 * Copies the passed puzzle into the solver and empties the buckets.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved
+	 */
+	private void reset(SudokuPuzzle sudoku) {
+		working.copyFrom(sudoku);
+		num_of_unfilled = 0;
+		trail_size = 0;
+		stopped = false;
+		unit_rules = true;
+		nodes = 0;
+		naked_single_count = 0;
+		hidden_single_count = 0;
+		locked_candidate_count = 0;
+		backtracks = 0;
+		max_depth = 0;
+		stack_depth = 0;
+		descending = true;
+		for (int i = 0; i < 81; i++)
+			bucket[i] = -1;
+		for (int i = HEADS; i < HEADS + 10; i++) {
+			next[i] = i;
+			prev[i] = i;
+		}
+	}
+
+	/**
+	 * Works out the Zobrist hash of the grid, the empty squares the
+	 * search doesn't fill are part of it, as they change the count.
+	 * @return (long) the hash, 0 if there is no table
+	 */
+	private long gridHash() {
+		long grid_hash = 0;
+		if (transposition_table == null)
+			return grid_hash;
+		for (int i = 0; i < 81; i++) {
+			int num = working.getNumberAt(i);
+			if (num != 0)
+				grid_hash ^= TranspositionTable.key(i, num);
+			else if (bucket[i] < 0)
+				grid_hash ^= TranspositionTable.key(i, 0);
+		}
+		for (int i = 0; i < trail_size; i++) {
+			int entry = trail[i];
+			if ((entry & PLACED) != 0)
+				grid_hash ^= TranspositionTable.key(entry & 0x7F, SudokuPuzzle.lowestCandidate(entry >>> 7));
+		}
+		return grid_hash;
+	}
+
+	/**
+	 * Adds a square to the set the search has to fill.
+	 * @param square (int) position on the grid
+	 */
+	private void track(int square) {
+		num_of_unfilled += 1;
+		candidates[square] = working.getCandidateMask(square);
+		link(square, SudokuPuzzle.countCandidates(candidates[square]));
+	}
+
+	@Override
+	public SudokuPuzzle solve(SudokuPuzzle sudoku) {
+		load(sudoku);
+		if (solve())
+			return working.clone();
+		return null;
+	}
+
+	@Override
+	public int countSolutions(SudokuPuzzle sudoku, int limit) {
+		load(sudoku);
+		return countSolutions(limit);
+	}
+
+	@Override
+	public long countAllSolutions(SudokuPuzzle sudoku, long limit) {
+		load(sudoku);
+		return countAllSolutions(limit);
+	}
+
+	@Override
+	public int enumerateSolutions(SudokuPuzzle sudoku, int limit, SolutionListener listener) {
+		load(sudoku);
+		long start = startCall();
+		this.listener = listener;
+		int solution_count = enumerate(limit, 0);
+		this.listener = null;
+		undo(0);
+		endCall(start);
+		return solution_count;
+	}
+
+	/**
+	 * Looks for a solution without the given number on the given square
+	 * by taking the number out of the square's candidates before the search.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param square (int) position on the grid
+	 * @param num (int) the number the solution mustn't have on the square
+	 * @return (boolean) true if there is such a solution
+	 */
+	@Override
+	public boolean hasOtherSolution(SudokuPuzzle sudoku, int square, int num) {
+		if (sudoku.getNumberAt(square) == num)
+			return false;
+		load(sudoku);
+		long start = startCall();
+		int bit = 1 << (num - 1);
+		if (bucket[square] >= 0 && (candidates[square] & bit) != 0)
+			eliminate(square, bit);
+		boolean found = search(0);
+		undo(0);
+		endCall(start);
+		return found;
+	}
+
+	/**
+	 * Looks for a solution of the passed puzzle within a budget.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved, it's not modified
+	 * @param budget (SearchBudget) the limits of the search
+	 * @return (SolveResult) SOLVED with the solution, UNSOLVABLE,
+	 *         BUDGET_EXHAUSTED or CANCELLED
+	 */
+	public SolveResult solve(SudokuPuzzle sudoku, SearchBudget budget) {
+		long start = System.nanoTime();
+		load(sudoku);
+		long call_start = startCall();
+		CancellationToken previous_token = startBudget(budget, start);
+		try {
+			if (search(0)) {
+				writeSolution(solution);
+				return new SolveResult(SolveResult.Status.SOLVED, solution.clone(), nodes, System.nanoTime() - start);
+			}
+			return new SolveResult(unfinishedStatus(SolveResult.Status.UNSOLVABLE), null, nodes, System.nanoTime() - start);
+		} finally {
+			undo(0);
+			endBudget(previous_token);
+			endCall(call_start);
+		}
+	}
+
+	/**
+	 * Checks whether the passed puzzle has exactly one solution within a budget.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be checked, it's not modified
+	 * @param budget (SearchBudget) the limits of the search
+	 * @return (SolveResult) UNIQUE with the solution, MULTIPLE, UNSOLVABLE,
+	 *         BUDGET_EXHAUSTED or CANCELLED
+	 */
+	public SolveResult checkUniqueness(SudokuPuzzle sudoku, SearchBudget budget) {
+		long start = System.nanoTime();
+		load(sudoku);
+		long call_start = startCall();
+		CancellationToken previous_token = startBudget(budget, start);
+		try {
+			record_solution = true;
+			long solution_count = count(2, 0);
+			record_solution = false;
+			SolveResult.Status status;
+			if (solution_count >= 2)
+				status = SolveResult.Status.MULTIPLE;
+			else if (stopped)
+				status = unfinishedStatus(null);
+			else
+				status = (solution_count == 1) ? SolveResult.Status.UNIQUE : SolveResult.Status.UNSOLVABLE;
+			SudokuPuzzle unique_solution = (status == SolveResult.Status.UNIQUE) ? solution.clone() : null;
+			return new SolveResult(status, unique_solution, nodes, System.nanoTime() - start);
+		} finally {
+			record_solution = false;
+			undo(0);
+			endBudget(previous_token);
+			endCall(call_start);
+		}
+	}
+
+	/**
+	 * Starts watching the limits of a budget.
+	 * @param budget (SearchBudget) the limits of the search
+	 * @param start (long) System.nanoTime() at the start of the search
+	 * @return (CancellationToken) the token that was set before, to be restored by endBudget()
+	 */
+	private CancellationToken startBudget(SearchBudget budget, long start) {
+		CancellationToken previous_token = cancellation_token;
+		if (budget.getCancellationToken() != null)
+			cancellation_token = budget.getCancellationToken();
+		node_limit = budget.getNodeLimit();
+		deadline = (budget.getTimeLimit() > 0) ? start + budget.getTimeLimit() : 0;
+		budget_exhausted = false;
+		budget_active = node_limit > 0 || deadline != 0;
+		return previous_token;
+	}
+
+	/**
+	 * Stops watching the budget and restores the token set before it.
+	 * @param previous_token (CancellationToken) the token returned by startBudget()
+	 */
+	private void endBudget(CancellationToken previous_token) {
+		budget_active = false;
+		cancellation_token = previous_token;
+	}
+
+	/**
+	 * Works out the status of a search that didn't reach an answer.
+	 * @param finished (SolveResult.Status) the status if the search wasn't stopped
+	 * @return (SolveResult.Status) BUDGET_EXHAUSTED, CANCELLED or the passed status
+	 */
+	private SolveResult.Status unfinishedStatus(SolveResult.Status finished) {
+		if (!stopped)
+			return finished;
+		return budget_exhausted ? SolveResult.Status.BUDGET_EXHAUSTED : SolveResult.Status.CANCELLED;
+	}
+
+	/**
+	 * Returns the puzzle the solver works on, after a successful solve()
+	 * it holds the solution.
+	 * @return (SudokuPuzzle) the working puzzle
+	 */
+	public SudokuPuzzle getWorkingPuzzle() {
+		return working;
+	}
+
+	/**
+	 * Looks for a solution of the loaded puzzle, if one is found it's
+	 * left in the working puzzle.
+	 * @return (boolean) true if the puzzle has a solution
+	 */
+	public boolean solve() {
+		long start = startCall();
+		boolean found = search(0);
+		if (found)
+			writeSolution(working);
+		endCall(start);
+		return found;
+	}
+
+	/**
+	 * The recursive part of solve(), the numbers of the solution are
+	 * left on the trail. On failure the changes made by the call are
+	 * left for the caller to undo.
+	 * @param depth (int) the branches the call is on top of
+	 * @return (boolean) true if a solution was found
+	 */
+	private boolean search(int depth) {
+		if (depth > max_depth)
+			max_depth = depth;
+		if (isStopped() || !propagate())
+			return false;
+		if (num_of_unfilled == 0)
+			return true;
+		int current_square = selectSquare();
+		if (current_square < 0)
+			return false;
+		int mark = trail_size;
+		for (int mask = candidates[current_square]; mask != 0; mask &= mask - 1) {
+			nodes += 1;
+			assign(current_square, mask & -mask);
+			if (search(depth + 1))
+				return true;
+			backtracks += 1;
+			undo(mark);
+			if (stopped)
+				break;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the solutions of the loaded puzzle, the search stops once
+	 * the limit is reached. The working puzzle is left as it was loaded.
+	 * @param limit (int) the number of solutions at which to stop
+	 * @return (int) the number of solutions found, at most limit
+	 */
+	public int countSolutions(int limit) {
+		return (int) countAllSolutions(limit);
+	}
+
+	/**
+	 * Counts the solutions of the loaded puzzle like countSolutions(int),
+	 * with a limit that can go past the int range. Nothing is written for
+	 * the solutions, they're only counted.
+	 * @param limit (long) the number of solutions at which to stop
+	 * @return (long) the number of solutions found, at most limit
+	 */
+	public long countAllSolutions(long limit) {
+		long start = startCall();
+		int mark = trail_size;
+		long solution_count = count(limit, 0);
+		undo(mark);
+		endCall(start);
+		return solution_count;
+	}
+
+	/**
+	 * The recursive part of countSolutions(), the changes made by the
+	 * call are left for the caller to undo. With a transposition table
+	 * the count of a grid already searched is taken from the table, and
+	 * the count of every grid searched to the end is stored in it. The
+	 * table only tells counts up to 2 apart, so it's passed a limit of
+	 * at most 3.
+	 * @param limit (long) the number of solutions at which to stop
+	 * @param depth (int) the branches the call is on top of
+	 * @return (long) the number of solutions found, at most limit
+	 */
+	private long count(long limit, int depth) {
+		if (depth > max_depth)
+			max_depth = depth;
+		if (isStopped() || !propagate())
+			return 0;
+		if (num_of_unfilled == 0) {
+			if (record_solution) {
+				writeSolution(solution);
+				record_solution = false;
+			}
+			return 1;
+		}
+		int current_square = selectSquare();
+		if (current_square < 0)
+			return 0;
+		int table_limit = (int) Math.min(limit, TranspositionTable.AT_LEAST_TWO + 1);
+		if (transposition_table != null && !record_solution) {
+			int known_count = transposition_table.probe(hash, table_limit);
+			if (known_count >= 0)
+				return known_count;
+		}
+		long start_nodes = nodes;
+		int mark = trail_size;
+		long solution_count = 0;
+		for (int mask = candidates[current_square]; mask != 0; mask &= mask - 1) {
+			nodes += 1;
+			assign(current_square, mask & -mask);
+			solution_count += count(limit - solution_count, depth + 1);
+			backtracks += 1;
+			undo(mark);
+			if (solution_count >= limit || stopped)
+				break;
+		}
+		if (transposition_table != null && !stopped) {
+			int table_count = (int) Math.min(solution_count, TranspositionTable.AT_LEAST_TWO);
+			transposition_table.store(hash, table_count, table_limit, nodes - start_nodes);
+		}
+		return solution_count;
+	}
+
+	/**
+	 * Finds the next solution of the loaded puzzle. The first call after
+	 * load() finds the first solution and every call after that carries
+	 * on from where the last one stopped, in the order enumerateSolutions()
+	 * finds them, so the solutions can be taken one at a time. The branches
+	 * are kept on an explicit stack instead of the call stack, and the
+	 * solver mustn't be used for anything else until the puzzle is done.
+	 * @param sudoku (SudokuPuzzle) the puzzle the solution is written to
+	 * @return (boolean) true if a solution was written, false once there are
+	 *         no more or the cancellation token stopped the search
+	 */
+	public boolean nextSolution(SudokuPuzzle sudoku) {
+		while (!stopped) {
+			if (descending) {
+				descending = false;
+				if (isStopped())
+					return false;
+				if (propagate()) {
+					if (num_of_unfilled == 0) {
+						writeSolution(sudoku);
+						return true;
+					}
+					int current_square = selectSquare();
+					if (current_square >= 0) {
+						stack_square[stack_depth] = current_square;
+						stack_mask[stack_depth] = candidates[current_square];
+						stack_mark[stack_depth] = trail_size;
+						stack_depth += 1;
+						if (stack_depth > max_depth)
+							max_depth = stack_depth;
+					}
+				}
+			}
+			if (stack_depth == 0)
+				return false;
+			int top = stack_depth - 1;
+			if (trail_size > stack_mark[top]) {
+				backtracks += 1;
+				undo(stack_mark[top]);
+			}
+			int mask = stack_mask[top];
+			if (mask == 0) {
+				stack_depth -= 1;
+				continue;
+			}
+			stack_mask[top] = mask & (mask - 1);
+			nodes += 1;
+			assign(stack_square[top], mask & -mask);
+			descending = true;
+		}
+		return false;
+	}
+
+	/**
+	 * The recursive part of enumerateSolutions(), the changes made by the
+	 * call are left for the caller to undo.
+	 * @param limit (int) the number of solutions at which to stop
+	 * @param depth (int) the branches the call is on top of
+	 * @return (int) the number of solutions found
+	 */
+	private int enumerate(int limit, int depth) {
+		if (depth > max_depth)
+			max_depth = depth;
+		if (isStopped() || !propagate())
+			return 0;
+		if (num_of_unfilled == 0) {
+			writeSolution(solution);
+			stopped = !listener.solutionFound(solution);
+			return 1;
+		}
+		int current_square = selectSquare();
+		if (current_square < 0)
+			return 0;
+		int mark = trail_size;
+		int solution_count = 0;
+		for (int mask = candidates[current_square]; mask != 0; mask &= mask - 1) {
+			nodes += 1;
+			assign(current_square, mask & -mask);
+			solution_count += enumerate(limit - solution_count, depth + 1);
+			backtracks += 1;
+			undo(mark);
+			if (solution_count >= limit || stopped)
+				break;
+		}
+		return solution_count;
+	}
+
+	/**
+	 * Writes the loaded puzzle with the numbers placed on the trail
+	 * into the passed puzzle.
+	 * @param sudoku (SudokuPuzzle) the puzzle to write to
+	 */
+	private void writeSolution(SudokuPuzzle sudoku) {
+		if (sudoku != working)
+			sudoku.copyFrom(working);
+		for (int i = 0; i < trail_size; i++) {
+			int entry = trail[i];
+			if ((entry & PLACED) != 0)
+				sudoku.setSquare(entry & 0x7F, SudokuPuzzle.lowestCandidate(entry >>> 7));
+		}
+	}
+
+	/**
+	 * Checks whether the search has to stop.
+	 * @return (boolean) true if the listener asked to stop, the token
+	 *         is cancelled or the budget has run out
+	 */
+	private boolean isStopped() {
+		if (!stopped) {
+			if (cancellation_token != null && cancellation_token.isCancelled())
+				stopped = true;
+			else if (budget_active && isBudgetExhausted())
+				stopped = budget_exhausted = true;
+		}
+		return stopped;
+	}
+
+	/**
+	 * Checks the budget limits, the clock is only read every 1024 nodes.
+	 * @return (boolean) true if the budget has run out
+	 */
+	private boolean isBudgetExhausted() {
+		if (node_limit > 0 && nodes >= node_limit)
+			return true;
+		return deadline != 0 && (nodes & 0x3FF) == 0 && System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * Applies the switched on rules until none of them changes anything.
+	 * @return (boolean) false if a contradiction was found
+	 */
+	private boolean propagate() {
+		while (next[HEADS] == HEADS) {
+			if (naked_singles && next[HEADS + 1] != HEADS + 1) {
+				int square = next[HEADS + 1];
+				naked_single_count += 1;
+				assign(square, candidates[square]);
+				continue;
+			}
+			int progress = 0;
+			if (hidden_singles && unit_rules)
+				progress = hiddenSingles();
+			if (progress == 0 && locked_candidates && unit_rules)
+				progress = lockedCandidates();
+			if (progress < 0)
+				return false;
+			if (progress == 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Places every number that fits in only one square of a unit.
+	 * @return (int) -1 if a unit can't be completed, 1 if anything was placed, 0 otherwise
+	 */
+	private int hiddenSingles() {
+		int progress = 0;
+		for (int u = 0; u < 27; u++) {
+			int[] unit = SudokuPuzzle.getUnit(u);
+			int once = 0;
+			int twice = 0;
+			int unfilled = 0;
+			for (int i = 0; i < 9; i++) {
+				int square = unit[i];
+				if (bucket[square] >= 0) {
+					int mask = candidates[square];
+					twice |= once & mask;
+					once |= mask;
+					unfilled += 1;
+				}
+			}
+			if (SudokuPuzzle.countCandidates(once) < unfilled)
+				return -1;
+			for (int singles = once & ~twice; singles != 0; singles &= singles - 1) {
+				int bit = singles & -singles;
+				for (int i = 0; i < 9; i++) {
+					int square = unit[i];
+					if (bucket[square] >= 0 && (candidates[square] & bit) != 0) {
+						if (candidates[square] != bit)
+							eliminate(square, candidates[square] & ~bit);
+						hidden_single_count += 1;
+						assign(square, bit);
+						progress = 1;
+						break;
+					}
+				}
+			}
+			if (next[HEADS] != HEADS)
+				return -1;
+		}
+		return progress;
+	}
+
+	/**
+	 * Removes candidates using pointing and claiming, for every sub square
+	 * and each of the three rows (and columns) crossing it, a number found
+	 * only on the crossing within one of the two units is removed from
+	 * the rest of the other one.
+	 * @return (int) -1 on a contradiction, 1 if anything was removed, 0 otherwise
+	 */
+	private int lockedCandidates() {
+		int progress = 0;
+		for (int box = 0; box < 9; box++) {
+			int first_row = (box / 3) * 3;
+			int first_col = (box % 3) * 3;
+			int[] box_unit = SudokuPuzzle.getUnit(SudokuPuzzle.BOX_UNITS + box);
+			for (int k = 0; k < 3; k++) {
+				int[] row_unit = SudokuPuzzle.getUnit(SudokuPuzzle.ROW_UNITS + first_row + k);
+				int[] col_unit = SudokuPuzzle.getUnit(SudokuPuzzle.COL_UNITS + first_col + k);
+				progress |= lockedCrossing(row_unit, box_unit, first_col, first_row + k, true);
+				progress |= lockedCrossing(col_unit, box_unit, first_row, first_col + k, false);
+			}
+		}
+		if (next[HEADS] != HEADS)
+			return -1;
+		return progress;
+	}
+
+	/**
+	 * Handles the three squares where a line (row or column) crosses a sub square.
+	 * @param line (int[]) the squares of the line
+	 * @param box (int[]) the squares of the sub square
+	 * @param start (int) position in the line where the crossing starts
+	 * @param line_index (int) the row or column number of the line
+	 * @param is_row (boolean) true if the line is a row
+	 * @return (int) 1 if anything was removed, 0 otherwise
+	 */
+	private int lockedCrossing(int[] line, int[] box, int start, int line_index, boolean is_row) {
+		int crossing = 0;
+		for (int i = start; i < start + 3; i++)
+			crossing |= unfilledCandidates(line[i]);
+		if (crossing == 0)
+			return 0;
+		int rest_of_line = 0;
+		for (int i = 0; i < 9; i++) {
+			if (i < start || i >= start + 3)
+				rest_of_line |= unfilledCandidates(line[i]);
+		}
+		int rest_of_box = 0;
+		for (int i = 0; i < 9; i++) {
+			int square = box[i];
+			if ((is_row ? square / 9 : square % 9) != line_index)
+				rest_of_box |= unfilledCandidates(square);
+		}
+		int progress = 0;
+		// Pointing: only on the crossing within the box, so remove from the rest of the line
+		int pointing = crossing & ~rest_of_box & rest_of_line;
+		if (pointing != 0) {
+			for (int i = 0; i < 9; i++) {
+				if ((i < start || i >= start + 3) && (unfilledCandidates(line[i]) & pointing) != 0) {
+					locked_candidate_count += 1;
+					eliminate(line[i], candidates[line[i]] & pointing);
+				}
+			}
+			progress = 1;
+		}
+		// Claiming: only on the crossing within the line, so remove from the rest of the box
+		int claiming = crossing & ~rest_of_line & rest_of_box;
+		if (claiming != 0) {
+			for (int i = 0; i < 9; i++) {
+				int square = box[i];
+				if ((is_row ? square / 9 : square % 9) != line_index && (unfilledCandidates(square) & claiming) != 0) {
+					locked_candidate_count += 1;
+					eliminate(square, candidates[square] & claiming);
+				}
+			}
+			progress = 1;
+		}
+		return progress;
+	}
+
+	/**
+	 * Returns the candidates of a square the search still has to fill.
+	 * @param square (int) position on the grid
+	 * @return (int) the candidate mask, 0 for the other squares
+	 */
+	private int unfilledCandidates(int square) {
+		return bucket[square] >= 0 ? candidates[square] : 0;
+	}
+
+	/**
+	 * Returns an unfilled square with the fewest candidates.
+	 * @return (int) the selected square, or -1 if a square has no candidates
+	 */
+	private int selectSquare() {
+		if (next[HEADS] != HEADS)
+			return -1;
+		for (int i = HEADS + 1; i < HEADS + 10; i++) {
+			if (next[i] != i)
+				return next[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Places a number, removes it from the candidates of the square's
+	 * peers and records all of it on the trail. The working puzzle
+	 * itself is only written once a solution is found.
+	 * @param square (int) position on the grid
+	 * @param bit (int) the mask bit of the number being placed
+	 */
+	private void assign(int square, int bit) {
+		unlink(square);
+		num_of_unfilled -= 1;
+		trail[trail_size++] = square | bit << 7 | PLACED;
+		if (transposition_table != null)
+			hash ^= TranspositionTable.key(square, SudokuPuzzle.lowestCandidate(bit));
+		int[] peers = SudokuPuzzle.getPeers(square);
+		for (int i = 0; i < 20; i++) {
+			int peer = peers[i];
+			if (bucket[peer] >= 0 && (candidates[peer] & bit) != 0)
+				eliminate(peer, bit);
+		}
+	}
+
+	/**
+	 * Removes candidates from an unfilled square and records it on the trail.
+	 * @param square (int) position on the grid
+	 * @param bits (int) mask of the candidates being removed
+	 */
+	private void eliminate(int square, int bits) {
+		candidates[square] &= ~bits;
+		trail[trail_size++] = square | bits << 7;
+		unlink(square);
+		link(square, SudokuPuzzle.countCandidates(candidates[square]));
+	}
+
+	/**
+	 * Takes back every change made since the trail had the given size.
+	 * @param mark (int) the trail size to go back to
+	 */
+	private void undo(int mark) {
+		while (trail_size > mark) {
+			int entry = trail[--trail_size];
+			int square = entry & 0x7F;
+			if ((entry & PLACED) != 0) {
+				num_of_unfilled += 1;
+				if (transposition_table != null)
+					hash ^= TranspositionTable.key(square, SudokuPuzzle.lowestCandidate(entry >>> 7));
+			} else {
+				candidates[square] |= entry >>> 7 & SudokuPuzzle.ALL_CANDIDATES;
+				unlink(square);
+			}
+			link(square, SudokuPuzzle.countCandidates(candidates[square]));
+		}
+	}
+
+	/**
+	 * Puts a square at the back of the bucket with the given count.
+	 * @param square (int) position on the grid
+	 * @param count (int) the bucket, which is the square's candidate count
+	 */
+	private void link(int square, int count) {
+		int head = HEADS + count;
+		bucket[square] = count;
+		prev[square] = prev[head];
+		next[square] = head;
+		next[prev[head]] = square;
+		prev[head] = square;
+	}
+
+	/**
+	 * Takes a square out of its bucket.
+	 * @param square (int) position on the grid
+	 */
+	private void unlink(int square) {
+		next[prev[square]] = next[square];
+		prev[next[square]] = prev[square];
+		bucket[square] = -1;
+	}
+}
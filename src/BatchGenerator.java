@@ -0,0 +1,272 @@
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class generates batches of puzzles on several threads. Every
+ * worker has its own SudokuGen and solver, and hands its puzzles over
+ * through a bounded queue as soon as they're made, so the caller can
+ * use them before the whole batch is done.
+ * A batch has a seed, and the puzzle at position i of the batch is
+ * generated from a seed worked out from the batch seed and i only, so
+ * a batch seed always gives the same set of puzzles whatever the thread
+ * count. The order the puzzles come out in still depends on the timing.
+ * @author Piotr Woloszyn
+ *
+ */
+public class BatchGenerator {
+
+	// Added to the batch seed for every position, the SplittableRandom golden gamma
+	private static final long SEED_GAMMA = 0x9E3779B97F4A7C15L;
+	// How often the waiting workers and iterator look for a cancelled batch or a failure
+	private static final long POLL_MILLIS = 100;
+	// Makes daemon workers, so a batch left running doesn't keep the JVM alive
+	private static final ThreadFactory WORKER_THREADS = new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BatchGenerator worker");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	// The amount of worker threads per batch
+	private final int thread_count;
+	// Gives the seeds of the batches started without one
+	private final SplittableRandom seed_source = new SplittableRandom();
+
+	/**
+	 * The constructor.
+	 * @param thread_count (int) the amount of worker threads per batch
+	 */
+	public BatchGenerator(int thread_count) {
+		this.thread_count = thread_count;
+	}
+
+	/**
+	 * Works out the seed of the puzzle at the given position of a batch.
+	 * @param batch_seed (long) the seed of the batch
+	 * @param index (int) the position in the batch
+	 * @return (long) the seed of the puzzle
+	 */
+	public static long puzzleSeed(long batch_seed, int index) {
+		return new SplittableRandom(batch_seed + index * SEED_GAMMA).nextLong();
+	}
+
+	/**
+	 * Starts generating a batch of puzzles into the passed queue, the
+	 * workers wait while the queue is full.
+	 * @param count (int) the amount of puzzles to generate
+	 * @param constraints (PuzzleConstraints) the requirements for every puzzle
+	 * @param batch_seed (long) the seed of the batch
+	 * @param queue (BlockingQueue<SudokuPuzzle>) receives the puzzles in the order they're made
+	 * @return (Batch) the running batch
+	 */
+	public Batch start(int count, PuzzleConstraints constraints, long batch_seed, BlockingQueue<SudokuPuzzle> queue) {
+		return new Batch(count, constraints, batch_seed, queue);
+	}
+
+	/**
+	 * Starts generating a batch of puzzles with a random seed into the
+	 * passed queue, the workers wait while the queue is full.
+	 * @param count (int) the amount of puzzles to generate
+	 * @param constraints (PuzzleConstraints) the requirements for every puzzle
+	 * @param queue (BlockingQueue<SudokuPuzzle>) receives the puzzles in the order they're made
+	 * @return (Batch) the running batch
+	 */
+	public Batch start(int count, PuzzleConstraints constraints, BlockingQueue<SudokuPuzzle> queue) {
+		return start(count, constraints, nextBatchSeed(), queue);
+	}
+
+	/**
+	 * Generates a batch of puzzles as a stream, the puzzles come out in
+	 * the order they're made. Close the stream to stop the workers early.
+	 * @param count (int) the amount of puzzles to generate
+	 * @param constraints (PuzzleConstraints) the requirements for every puzzle
+	 * @param batch_seed (long) the seed of the batch
+	 * @return (Stream<SudokuPuzzle>) the puzzles
+	 */
+	public Stream<SudokuPuzzle> stream(int count, PuzzleConstraints constraints, long batch_seed) {
+		Batch batch = start(count, constraints, batch_seed, new ArrayBlockingQueue<SudokuPuzzle>(thread_count * 2));
+		Spliterator<SudokuPuzzle> spliterator = Spliterators.spliterator(batch, count,
+				Spliterator.NONNULL | Spliterator.IMMUTABLE);
+		return StreamSupport.stream(spliterator, false).onClose(batch::cancel);
+	}
+
+	/**
+	 * Generates a batch of puzzles with a random seed as a stream.
+	 * @param count (int) the amount of puzzles to generate
+	 * @param constraints (PuzzleConstraints) the requirements for every puzzle
+	 * @return (Stream<SudokuPuzzle>) the puzzles
+	 */
+	public Stream<SudokuPuzzle> stream(int count, PuzzleConstraints constraints) {
+		return stream(count, constraints, nextBatchSeed());
+	}
+
+	/**
+	 * Returns a random batch seed.
+	 * @return (long) the seed
+	 */
+	private synchronized long nextBatchSeed() {
+		return seed_source.nextLong();
+	}
+
+	/**
+	 * A running batch, iterating over it takes the puzzles out of its queue.
+	 * The workers stop when the batch is cancelled, and also once nothing
+	 * refers to the batch any more, like a stream that is never closed.
+	 */
+	public class Batch implements Iterator<SudokuPuzzle> {
+
+		// The amount of puzzles in the batch
+		private final int count;
+		// The seed of the batch
+		private final long batch_seed;
+		// The queue the workers put the puzzles in
+		private final BlockingQueue<SudokuPuzzle> queue;
+		// The amount of puzzles taken by the iterator
+		private int taken;
+		// What the workers share, it doesn't refer to the batch
+		private final Workers workers;
+		// The worker threads
+		private final ExecutorService executor;
+
+		/**
+		 * The constructor, starts the workers.
+		 * @param count (int) the amount of puzzles to generate
+		 * @param constraints (PuzzleConstraints) the requirements for every puzzle
+		 * @param batch_seed (long) the seed of the batch
+		 * @param queue (BlockingQueue<SudokuPuzzle>) receives the puzzles
+		 */
+		Batch(int count, PuzzleConstraints constraints, long batch_seed, BlockingQueue<SudokuPuzzle> queue) {
+			this.count = count;
+			this.batch_seed = batch_seed;
+			this.queue = queue;
+			workers = new Workers(this, count, constraints, batch_seed, queue);
+			executor = Executors.newFixedThreadPool(thread_count, WORKER_THREADS);
+			for (int i = 0; i < thread_count; i++)
+				executor.execute(workers);
+			executor.shutdown();
+		}
+
+		/**
+		 * Returns the seed of the batch.
+		 * @return (long) the seed
+		 */
+		public long getBatchSeed() {
+			return batch_seed;
+		}
+
+		/**
+		 * Stops the workers, including the puzzles they're generating, the
+		 * puzzles already in the queue stay there.
+		 */
+		public void cancel() {
+			workers.token.cancel();
+			executor.shutdownNow();
+		}
+
+		/**
+		 * Waits for the workers to finish.
+		 * @param timeout (long) the longest time to wait
+		 * @param unit (TimeUnit) the unit of the timeout
+		 * @return (boolean) true if the workers finished
+		 * @throws InterruptedException if the waiting thread is interrupted
+		 */
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return executor.awaitTermination(timeout, unit);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return taken < count;
+		}
+
+		@Override
+		public SudokuPuzzle next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			try {
+				SudokuPuzzle sudoku;
+				while ((sudoku = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+					Throwable failure = workers.failure.get();
+					if (failure instanceof RuntimeException)
+						throw (RuntimeException) failure;
+					if (failure instanceof Error)
+						throw (Error) failure;
+					if (executor.isTerminated() && queue.isEmpty())
+						throw new IllegalStateException("The batch was cancelled");
+				}
+				taken += 1;
+				return sudoku;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for a puzzle", e);
+			}
+		}
+	}
+
+	/**
+	 * The work of a batch, run by every worker thread. It only refers to
+	 * its batch weakly, so a batch nobody uses any more can be collected,
+	 * and the workers waiting on its full queue then stop.
+	 */
+	private static class Workers implements Runnable {
+
+		// The batch, cleared once nothing else refers to it
+		final WeakReference<Batch> batch;
+		final int count;
+		final PuzzleConstraints constraints;
+		final long batch_seed;
+		final BlockingQueue<SudokuPuzzle> queue;
+		// The amount of puzzles the workers have started on
+		final AtomicInteger claimed = new AtomicInteger();
+		// The first exception or error thrown by a worker
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		// Cancelled by Batch.cancel(), stops the running generators too
+		final CancellationToken token = new CancellationToken();
+
+		Workers(Batch batch, int count, PuzzleConstraints constraints, long batch_seed,
+				BlockingQueue<SudokuPuzzle> queue) {
+			this.batch = new WeakReference<Batch>(batch);
+			this.count = count;
+			this.constraints = constraints;
+			this.batch_seed = batch_seed;
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			SudokuGen sudoku_generator = new SudokuGen(new BacktrackingSolver());
+			sudoku_generator.setCancellationToken(token);
+			try {
+				int index;
+				while ((index = claimed.getAndIncrement()) < count) {
+					SudokuPuzzle sudoku = sudoku_generator.generateSudokuPuzzle(constraints,
+							puzzleSeed(batch_seed, index));
+					while (!queue.offer(sudoku, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+						if (token.isCancelled() || batch.get() == null)
+							return;
+					}
+				}
+			} catch (InterruptedException e) {
+				// Cancelled, just stop
+			} catch (Throwable e) {
+				if (!token.isCancelled())
+					failure.compareAndSet(null, e);
+			}
+		}
+	}
+}
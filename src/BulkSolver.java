@@ -0,0 +1,319 @@
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class solves files of puzzles in the common one line format
+ * (81 characters, '.' or '0' for empty squares) without the window.
+ * The input is read in chunks of whole lines, the chunks are solved
+ * on worker threads straight from the bytes, and the solutions are
+ * written out in the order of the input. Only a fixed amount of chunks
+ * is in flight at a time, so the memory used doesn't depend on the
+ * size of the file.
+ * Every input line gives one output line: the 81 numbers of the
+ * solution, "No solution", or "Invalid puzzle" for a malformed line.
+ * Empty lines are copied through.
+ * Run it with: java BulkSolver input|- [output|-] [threads]
+ * @author Piotr Woloszyn
+ *
+ */
+public class BulkSolver {
+
+	// The size of the chunks the input is read in
+	private static final int CHUNK_SIZE = 1 << 20;
+	// The longest output line, 81 numbers and the line break
+	private static final int MAX_OUTPUT_LINE = 82;
+	private static final byte[] NO_SOLUTION = "No solution\n".getBytes();
+	private static final byte[] INVALID = "Invalid puzzle\n".getBytes();
+
+	// The amount of worker threads
+	private final int thread_count;
+	// The amount of chunks read ahead of the one being written
+	private final int chunks_in_flight;
+	// The statistics of the last run
+	private long puzzle_count;
+	private long solved_count;
+	private long unsolvable_count;
+	private long invalid_count;
+
+	/**
+	 * The constructor.
+	 * @param thread_count (int) the amount of worker threads
+	 */
+	public BulkSolver(int thread_count) {
+		this.thread_count = thread_count;
+		chunks_in_flight = thread_count * 4;
+	}
+
+	/**
+	 * Solves the puzzles of a file, or of the standard input for "-", into
+	 * a file or the standard output, and prints the statistics of the run
+	 * to the standard error.
+	 * @param args (String[]) the input, optionally the output and the amount of threads
+	 * @throws IOException if reading or writing fails
+	 * @throws InterruptedException if the main thread is interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: java BulkSolver input|- [output|-] [threads]");
+			System.exit(1);
+		}
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		ReadableByteChannel in = args[0].equals("-") ? Channels.newChannel(System.in)
+				: new FileInputStream(args[0]).getChannel();
+		OutputStream out = (args.length < 2 || args[1].equals("-")) ? System.out : new FileOutputStream(args[1]);
+		BulkSolver bulk_solver = new BulkSolver(threads);
+		long start = System.nanoTime();
+		try {
+			bulk_solver.solve(in, out);
+		} finally {
+			in.close();
+			if (out != System.out)
+				out.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d puzzles (%d solved, %d without a solution, %d invalid) in %.2f s, %.0f puzzles/s%n",
+				bulk_solver.getPuzzleCount(), bulk_solver.getSolvedCount(), bulk_solver.getUnsolvableCount(),
+				bulk_solver.getInvalidCount(), seconds, bulk_solver.getPuzzleCount() / seconds);
+	}
+
+	/**
+	 * Returns the amount of non-empty input lines in the last run, invalid ones included.
+	 * @return (long) the puzzle count
+	 */
+	public long getPuzzleCount() {
+		return puzzle_count;
+	}
+
+	/**
+	 * Returns the amount of puzzles solved in the last run.
+	 * @return (long) the solved count
+	 */
+	public long getSolvedCount() {
+		return solved_count;
+	}
+
+	/**
+	 * Returns the amount of puzzles without a solution in the last run.
+	 * @return (long) the unsolvable count
+	 */
+	public long getUnsolvableCount() {
+		return unsolvable_count;
+	}
+
+	/**
+	 * Returns the amount of malformed lines in the last run.
+	 * @return (long) the invalid count
+	 */
+	public long getInvalidCount() {
+		return invalid_count;
+	}
+
+	/**
+	 * Solves every puzzle of the input and writes the solutions to the
+	 * output in the same order, the streams are left open.
+	 * @param in (ReadableByteChannel) the puzzles, one per line
+	 * @param out (OutputStream) receives the solutions, one per line
+	 * @return (long) the amount of puzzles read
+	 * @throws IOException if reading or writing fails
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public long solve(ReadableByteChannel in, OutputStream out) throws IOException, InterruptedException {
+		puzzle_count = 0;
+		solved_count = 0;
+		unsolvable_count = 0;
+		invalid_count = 0;
+		OutputStream buffered_out = new BufferedOutputStream(out, CHUNK_SIZE);
+		ExecutorService executor = Executors.newFixedThreadPool(thread_count);
+		ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+			boolean end_of_input = false;
+			while (!end_of_input) {
+				end_of_input = in.read(buffer) < 0;
+				if (buffer.hasRemaining() && !end_of_input)
+					continue;
+				byte[] data = buffer.array();
+				// The chunk ends at the last line break, the rest goes to the next one
+				int end = buffer.position();
+				if (!end_of_input) {
+					while (end > 0 && data[end - 1] != '\n')
+						end -= 1;
+					if (end == 0) {
+						// No line break in a whole chunk, grow the buffer
+						buffer = ByteBuffer.wrap(Arrays.copyOf(data, data.length * 2));
+						buffer.position(data.length);
+						continue;
+					}
+				}
+				// The chunk takes over the buffer, the next one starts with the rest
+				ByteBuffer next = ByteBuffer.allocate(Math.max(CHUNK_SIZE, data.length));
+				next.put(data, end, buffer.position() - end);
+				buffer = next;
+				if (end > 0)
+					pending.add(executor.submit(new Chunk(data, end)));
+				while (pending.size() >= chunks_in_flight)
+					write(pending.poll(), buffered_out);
+			}
+			while (!pending.isEmpty())
+				write(pending.poll(), buffered_out);
+			buffered_out.flush();
+		} finally {
+			executor.shutdownNow();
+		}
+		return puzzle_count;
+	}
+
+	/**
+	 * Waits for a chunk to be solved and writes its output.
+	 * @param future (Future<Chunk>) the chunk being solved
+	 * @param out (OutputStream) the output
+	 * @throws IOException if writing fails
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	private void write(Future<Chunk> future, OutputStream out) throws IOException, InterruptedException {
+		Chunk chunk;
+		try {
+			chunk = future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		out.write(chunk.output, 0, chunk.output_size);
+		puzzle_count += chunk.solved + chunk.unsolvable + chunk.invalid;
+		solved_count += chunk.solved;
+		unsolvable_count += chunk.unsolvable;
+		invalid_count += chunk.invalid;
+	}
+
+	/**
+	 * Parses one line into the passed puzzle.
+	 * @param data (byte[]) the input
+	 * @param start (int) the start of the line
+	 * @param length (int) the length of the line without the line break
+	 * @param sudoku (SudokuPuzzle) receives the puzzle
+	 * @return (int) 1 if the puzzle was parsed, 0 if two clues clash
+	 *         and -1 if the line is malformed
+	 */
+	private static int parse(byte[] data, int start, int length, SudokuPuzzle sudoku) {
+		if (length != 81)
+			return -1;
+		sudoku.clear();
+		boolean clash = false;
+		for (int i = 0; i < 81; i++) {
+			int c = data[start + i];
+			if (c >= '1' && c <= '9') {
+				if (!sudoku.setSquare(i, c - '0'))
+					clash = true;
+			} else if (c != '.' && c != '0') {
+				return -1;
+			}
+		}
+		return clash ? 0 : 1;
+	}
+
+	/**
+	 * A chunk of whole input lines, solving it fills in its output.
+	 */
+	private static class Chunk implements Callable<Chunk> {
+
+		// The input lines and their length
+		private final byte[] input;
+		private final int input_size;
+		// The output lines and their length
+		private byte[] output;
+		private int output_size;
+		// The outcome counts of the chunk
+		private int solved;
+		private int unsolvable;
+		private int invalid;
+
+		/**
+		 * The constructor.
+		 * @param input (byte[]) whole lines of input, owned by the chunk
+		 * @param input_size (int) the amount of bytes used
+		 */
+		Chunk(byte[] input, int input_size) {
+			this.input = input;
+			this.input_size = input_size;
+		}
+
+		@Override
+		public Chunk call() {
+			int lines = 1;
+			for (int i = 0; i < input_size; i++) {
+				if (input[i] == '\n')
+					lines += 1;
+			}
+			output = new byte[lines * MAX_OUTPUT_LINE];
+			BacktrackingSolver engine = BacktrackingSolver.forCurrentThread();
+			SudokuPuzzle sudoku = new SudokuPuzzle();
+			int start = 0;
+			while (start < input_size) {
+				int end = start;
+				while (end < input_size && input[end] != '\n')
+					end += 1;
+				int length = end - start;
+				if (length > 0 && input[end - 1] == '\r')
+					length -= 1;
+				if (length > 0)
+					solveLine(engine, sudoku, start, length);
+				else if (end < input_size)
+					output[output_size++] = '\n';
+				start = end + 1;
+			}
+			return this;
+		}
+
+		/**
+		 * Solves one line and appends its output line.
+		 * @param engine (BacktrackingSolver) the worker thread's solver
+		 * @param sudoku (SudokuPuzzle) the puzzle the line is parsed into
+		 * @param start (int) the start of the line
+		 * @param length (int) the length of the line
+		 */
+		private void solveLine(BacktrackingSolver engine, SudokuPuzzle sudoku, int start, int length) {
+			int parsed = parse(input, start, length, sudoku);
+			if (parsed < 0) {
+				invalid += 1;
+				append(INVALID);
+				return;
+			}
+			if (parsed > 0) {
+				engine.load(sudoku);
+				if (engine.solve()) {
+					SudokuPuzzle solution = engine.getWorkingPuzzle();
+					for (int i = 0; i < 81; i++)
+						output[output_size++] = (byte) ('0' + solution.getNumberAt(i));
+					output[output_size++] = '\n';
+					solved += 1;
+					return;
+				}
+			}
+			unsolvable += 1;
+			append(NO_SOLUTION);
+		}
+
+		/**
+		 * Appends a message line to the output.
+		 * @param line (byte[]) the message with its line break
+		 */
+		private void append(byte[] line) {
+			System.arraycopy(line, 0, output, output_size, line.length);
+			output_size += line.length;
+		}
+	}
+}
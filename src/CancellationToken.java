@@ -0,0 +1,45 @@
+/**
+ * This class is a flag that one thread sets to ask the searches
+ * watching it, on any thread, to stop as soon as they can.
+ * @author Piotr Woloszyn
+ *
+ */
+public class CancellationToken {
+
+	// Set once cancel() is called
+	private volatile boolean cancelled;
+	// Cancelling the parent cancels this token too
+	private final CancellationToken parent;
+
+	/**
+	 * The constructor.
+	 */
+	public CancellationToken() {
+		this(null);
+	}
+
+	/**
+	 * The constructor for a token that is also cancelled with its parent,
+	 * so one part of a search can be stopped on its own or together with
+	 * the whole.
+	 * @param parent (CancellationToken) the parent token, or null for none
+	 */
+	public CancellationToken(CancellationToken parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Asks the searches watching this token to stop.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether cancel() was called on this token or its parent.
+	 * @return (boolean) true if the token is cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled || (parent != null && parent.isCancelled());
+	}
+}
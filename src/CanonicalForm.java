@@ -0,0 +1,454 @@
+import java.util.Arrays;
+
+/**
+ * This class works out the canonical form of a puzzle, which is the same
+ * for every puzzle that can be turned into another by relabeling the
+ * numbers, swapping rows within a band, columns within a stack, whole
+ * bands, whole stacks, or transposing.
+ * The canonical form is the smallest grid over all those changes, read
+ * row by row with empty squares as 0 and the numbers relabeled 1, 2, 3...
+ * in the order they're first met, where grids are compared by their clue
+ * pattern first. The pattern is found with bit masks: for both orientations
+ * and all 1296 column orders the rows are masks of their clues, and the
+ * smallest pattern of a column order just sorts the rows within the bands
+ * and the bands. The column orders are built one stack at a time and
+ * dropped as soon as even the smallest masks they can still give make a
+ * bigger pattern. Only the column and row orders giving the smallest
+ * pattern are searched for the smallest labeling, with a branch and bound
+ * search over the rows.
+ * Sparse or symmetric grids can tie on thousands of column orders with
+ * nothing to prune the row search, so a caller with a time limit can
+ * give compute() a deadline, a token and the most ties to search.
+ * The change that gave the canonical form is kept, so grids can be moved
+ * between the puzzle's orientation and the canonical one. An object keeps
+ * its working arrays between calls, so every thread needs its own.
+ * @author Piotr Woloszyn
+ *
+ */
+public class CanonicalForm {
+
+	// The row choices between two looks at the clock and the token
+	private static final int CHECK_INTERVAL = 256;
+
+	// The 6 orders of 3 things
+	private static final int[][] ORDERS = { { 0, 1, 2 }, { 0, 2, 1 }, { 1, 0, 2 }, { 1, 2, 0 }, { 2, 0, 1 }, { 2, 1, 0 } };
+	// Every 3 bit mask reordered by every order, the first column is the top bit
+	private static final int[][] REORDERED = new int[6][8];
+
+	static {
+		for (int order = 0; order < 6; order++) {
+			for (int mask = 0; mask < 8; mask++) {
+				int out = 0;
+				for (int i = 0; i < 3; i++) {
+					if ((mask & (4 >> ORDERS[order][i])) != 0)
+						out |= 4 >> i;
+				}
+				REORDERED[order][mask] = out;
+			}
+		}
+	}
+
+	// The puzzle as it is and transposed
+	private final int[][] grids = new int[2][81];
+	// The clue masks of the 3 columns of every row in every stack, for both orientations
+	private final int[][][] chunks = new int[2][9][3];
+	// The smallest pattern found, the sorted band keys of 27 bits
+	private final int[] best_pattern = new int[3];
+	// The column orders giving the smallest pattern, coded by columnCode()
+	private final int[] ties = new int[2 * 1296];
+	private int num_of_ties;
+	// The pattern last worked out by comparePattern()
+	private final int[] pattern = new int[3];
+	// The smallest row masks left with 0, 1 and 2 stacks' columns ordered
+	private final int[][] lower = new int[3][9];
+	// The row masks of the column order being searched
+	private final int[] row_masks = new int[9];
+	// The grid of the orientation being searched
+	private int[] src;
+	private int transpose;
+	// The grid being built and the smallest one found
+	private final int[] current = new int[81];
+	private final int[] best = new int[81];
+	// The first square at which current is smaller than best, 81 if it isn't
+	private int less_at;
+	// The source row of every row and the source column of every column being built
+	private final int[] row_order = new int[9];
+	private final int[] col_order = new int[9];
+	// The labels given to the numbers so far, and the number of every label
+	private final int[] label = new int[10];
+	private final int[] labeled = new int[10];
+	private int num_of_labels;
+	// The change that gives the best grid
+	private int best_transpose;
+	private final int[] best_rows = new int[9];
+	private final int[] best_cols = new int[9];
+	// Label of every number and number of every label, completed to cover all 9
+	private final int[] to_canonical = new int[10];
+	private final int[] from_canonical = new int[10];
+	// The System.nanoTime() at which compute() gives up, 0 for no limit
+	private long deadline;
+	// Makes compute() give up when cancelled, null for none
+	private CancellationToken cancellation_token;
+	// Row choices left until the next look at the clock and the token
+	private int until_check;
+	// Set once compute() gives up
+	private boolean stopped;
+
+	/**
+	 * Works out the canonical form of a puzzle and keeps the change
+	 * that gives it, for toCanonical() and fromCanonical().
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @return (String) the canonical grid, 81 characters with 0 for empty squares
+	 */
+	public String compute(SudokuPuzzle sudoku) {
+		return compute(sudoku, ties.length, 0, null);
+	}
+
+	/**
+	 * Works out the canonical form of a puzzle like compute(SudokuPuzzle),
+	 * unless it would take too long.
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @param max_ties (int) the most column orders giving the smallest pattern that are searched
+	 * @param deadline (long) the System.nanoTime() at which to give up, 0 for no limit
+	 * @param cancellation_token (CancellationToken) gives up when cancelled, or null for none
+	 * @return (String) the canonical grid, null if there were more ties than
+	 *         max_ties, the deadline passed or the token was cancelled
+	 */
+	public String compute(SudokuPuzzle sudoku, int max_ties, long deadline, CancellationToken cancellation_token) {
+		this.deadline = deadline;
+		this.cancellation_token = cancellation_token;
+		stopped = false;
+		if (isStopped())
+			return null;
+		for (int t = 0; t < 2; t++) {
+			for (int row = 0; row < 9; row++)
+				Arrays.fill(chunks[t][row], 0);
+		}
+		for (int i = 0; i < 81; i++) {
+			int num = sudoku.getNumberAt(i);
+			int y = i / 9;
+			int x = i % 9;
+			grids[0][i] = num;
+			grids[1][x * 9 + y] = num;
+			if (num != 0) {
+				chunks[0][y][x / 3] |= 4 >> (x % 3);
+				chunks[1][x][y / 3] |= 4 >> (y % 3);
+			}
+		}
+		findSmallestPattern();
+		if (num_of_ties > max_ties)
+			return null;
+		Arrays.fill(best, 10);
+		less_at = 81;
+		for (int i = 0; i < num_of_ties && !stopped; i++) {
+			decodeColumns(ties[i]);
+			src = grids[transpose];
+			num_of_labels = 0;
+			Arrays.fill(label, 0);
+			chooseRow(0, 0);
+		}
+		if (stopped)
+			return null;
+		completeLabels();
+		char[] form = new char[81];
+		for (int i = 0; i < 81; i++)
+			form[i] = (char) ('0' + best[i]);
+		return new String(form);
+	}
+
+	/**
+	 * Moves a grid of the last computed puzzle into the canonical orientation
+	 * and labels.
+	 * @param sudoku (SudokuPuzzle) a grid in the puzzle's orientation, like its solution
+	 * @return (int[]) the grid in the canonical orientation
+	 */
+	public int[] toCanonical(SudokuPuzzle sudoku) {
+		int[] out = new int[81];
+		for (int i = 0; i < 81; i++)
+			out[i] = to_canonical[sudoku.getNumberAt(sourceSquare(i))];
+		return out;
+	}
+
+	/**
+	 * Moves a grid in the canonical orientation back into the orientation
+	 * and numbers of the last computed puzzle.
+	 * @param canonical (int[]) the grid in the canonical orientation
+	 * @param sudoku (SudokuPuzzle) receives the grid, its old contents are cleared
+	 */
+	public void fromCanonical(int[] canonical, SudokuPuzzle sudoku) {
+		sudoku.clear();
+		for (int i = 0; i < 81; i++) {
+			if (canonical[i] != 0)
+				sudoku.setSquare(sourceSquare(i), from_canonical[canonical[i]]);
+		}
+	}
+
+	/**
+	 * Returns the square of the puzzle a square of the canonical grid comes from.
+	 * @param index (int) the square of the canonical grid
+	 * @return (int) the square of the puzzle
+	 */
+	private int sourceSquare(int index) {
+		int square = best_rows[index / 9] * 9 + best_cols[index % 9];
+		return (best_transpose == 0) ? square : (square % 9) * 9 + square / 9;
+	}
+
+	/**
+	 * Finds the column orders that give the smallest clue pattern, fixing
+	 * the stack order and then the columns of one stack at a time. The
+	 * pattern only grows with the row masks, so the pattern of the smallest
+	 * masks the rows can still get is a lower bound, and a branch is left
+	 * as soon as that bound is above the best pattern.
+	 */
+	private void findSmallestPattern() {
+		best_pattern[0] = Integer.MAX_VALUE;
+		best_pattern[1] = Integer.MAX_VALUE;
+		best_pattern[2] = Integer.MAX_VALUE;
+		num_of_ties = 0;
+		for (int t = 0; t < 2; t++) {
+			int[][] rows = chunks[t];
+			for (int stacks = 0; stacks < 6; stacks++) {
+				int[] stack = ORDERS[stacks];
+				for (int row = 0; row < 9; row++) {
+					lower[0][row] = packed(rows[row][stack[0]]) << 6 | packed(rows[row][stack[1]]) << 3
+							| packed(rows[row][stack[2]]);
+				}
+				if (comparePattern(lower[0]) > 0)
+					continue;
+				for (int p0 = 0; p0 < 6; p0++) {
+					for (int row = 0; row < 9; row++)
+						lower[1][row] = REORDERED[p0][rows[row][stack[0]]] << 6 | (lower[0][row] & 0x3F);
+					if (comparePattern(lower[1]) > 0)
+						continue;
+					for (int p1 = 0; p1 < 6; p1++) {
+						for (int row = 0; row < 9; row++)
+							lower[2][row] = REORDERED[p1][rows[row][stack[1]]] << 3 | (lower[1][row] & 0x1C7);
+						if (comparePattern(lower[2]) > 0)
+							continue;
+						for (int p2 = 0; p2 < 6; p2++) {
+							for (int row = 0; row < 9; row++)
+								row_masks[row] = REORDERED[p2][rows[row][stack[2]]] | (lower[2][row] & 0x1F8);
+							int compared = comparePattern(row_masks);
+							if (compared > 0)
+								continue;
+							if (compared < 0) {
+								best_pattern[0] = pattern[0];
+								best_pattern[1] = pattern[1];
+								best_pattern[2] = pattern[2];
+								num_of_ties = 0;
+							}
+							ties[num_of_ties++] = columnCode(t, stacks, p0, p1, p2);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a 3 bit mask with its bits moved to the end, its smallest order.
+	 * @param mask (int) the mask
+	 * @return (int) the packed mask
+	 */
+	private static int packed(int mask) {
+		return (1 << Integer.bitCount(mask)) - 1;
+	}
+
+	/**
+	 * Works out the smallest pattern of the passed row masks into pattern
+	 * and compares it with the best one, the first row of a pattern is its
+	 * top 9 bits.
+	 * @param masks (int[]) the row masks
+	 * @return (int) below 0 if the pattern is smaller, 0 if equal, above 0 if bigger
+	 */
+	private int comparePattern(int[] masks) {
+		int band0 = bandKey(masks, 0);
+		int band1 = bandKey(masks, 3);
+		int band2 = bandKey(masks, 6);
+		int tmp;
+		if (band0 > band1) { tmp = band0; band0 = band1; band1 = tmp; }
+		if (band1 > band2) { tmp = band1; band1 = band2; band2 = tmp; }
+		if (band0 > band1) { tmp = band0; band0 = band1; band1 = tmp; }
+		pattern[0] = band0;
+		pattern[1] = band1;
+		pattern[2] = band2;
+		int compared = Integer.compare(band0, best_pattern[0]);
+		if (compared == 0)
+			compared = Integer.compare(band1, best_pattern[1]);
+		if (compared == 0)
+			compared = Integer.compare(band2, best_pattern[2]);
+		return compared;
+	}
+
+	/**
+	 * Returns the row masks of a band sorted and packed into 27 bits.
+	 * @param masks (int[]) the row masks
+	 * @param first (int) the first row of the band
+	 * @return (int) the band key
+	 */
+	private static int bandKey(int[] masks, int first) {
+		int a = masks[first];
+		int b = masks[first + 1];
+		int c = masks[first + 2];
+		int tmp;
+		if (a > b) { tmp = a; a = b; b = tmp; }
+		if (b > c) { tmp = b; b = c; c = tmp; }
+		if (a > b) { tmp = a; a = b; b = tmp; }
+		return a << 18 | b << 9 | c;
+	}
+
+	/**
+	 * Packs an orientation and column order into one number.
+	 * @param t (int) 1 if transposed
+	 * @param stacks (int) the order of the stacks
+	 * @param p0 (int) the order of the columns in the first stack
+	 * @param p1 (int) the order of the columns in the second stack
+	 * @param p2 (int) the order of the columns in the third stack
+	 * @return (int) the code
+	 */
+	private static int columnCode(int t, int stacks, int p0, int p1, int p2) {
+		return (((t * 6 + stacks) * 6 + p0) * 6 + p1) * 6 + p2;
+	}
+
+	/**
+	 * Sets transpose, col_order and row_masks from a column code.
+	 * @param code (int) the code made by columnCode()
+	 */
+	private void decodeColumns(int code) {
+		int[] within = new int[3];
+		for (int i = 2; i >= 0; i--) {
+			within[i] = code % 6;
+			code /= 6;
+		}
+		int[] stack = ORDERS[code % 6];
+		transpose = code / 6;
+		for (int i = 0; i < 9; i++)
+			col_order[i] = stack[i / 3] * 3 + ORDERS[within[i / 3]][i % 3];
+		int[][] rows = chunks[transpose];
+		for (int row = 0; row < 9; row++) {
+			int mask = 0;
+			for (int i = 0; i < 3; i++)
+				mask = mask << 3 | REORDERED[within[i]][rows[row][stack[i]]];
+			row_masks[row] = mask;
+		}
+	}
+
+	/**
+	 * Picks the source row of every row, keeping to the smallest pattern
+	 * and the rows of a band together.
+	 * @param position (int) the row being chosen
+	 * @param used (int) mask of the source rows already chosen
+	 */
+	private void chooseRow(int position, int used) {
+		if (stopped || (--until_check == 0 && isStopped()))
+			return;
+		if (position == 9) {
+			if (less_at < 81)
+				recordBest();
+			return;
+		}
+		int band_key = best_pattern[position / 3];
+		int row_mask = (band_key >>> (18 - (position % 3) * 9)) & 0x1FF;
+		int first = 0;
+		int last = 9;
+		if (position % 3 != 0) {
+			first = (row_order[position - 1] / 3) * 3;
+			last = first + 3;
+		}
+		for (int row = first; row < last; row++) {
+			if ((used & (1 << row)) != 0 || row_masks[row] != row_mask)
+				continue;
+			if (position % 3 == 0 && ((used & (7 << (row / 3) * 3)) != 0 || bandKey(row_masks, (row / 3) * 3) != band_key))
+				continue;
+			int saved_labels = num_of_labels;
+			boolean smaller_or_equal = true;
+			for (int k = 0; k < 9 && smaller_or_equal; k++)
+				smaller_or_equal = place(position * 9 + k, relabel(src[row * 9 + col_order[k]]));
+			if (smaller_or_equal) {
+				row_order[position] = row;
+				chooseRow(position + 1, used | 1 << row);
+			}
+			unlabel(saved_labels);
+		}
+	}
+
+	/**
+	 * Looks at the clock and the token, the caller counts down until_check.
+	 * @return (boolean) true if compute() has to give up
+	 */
+	private boolean isStopped() {
+		until_check = CHECK_INTERVAL;
+		if (cancellation_token != null && cancellation_token.isCancelled())
+			stopped = true;
+		else if (deadline != 0 && System.nanoTime() - deadline >= 0)
+			stopped = true;
+		return stopped;
+	}
+
+	/**
+	 * Puts a value into the grid being built and compares it with the best grid.
+	 * @param index (int) the square
+	 * @param value (int) the relabeled number, 0 for empty
+	 * @return (boolean) false if the grid now reads larger than the best one
+	 */
+	private boolean place(int index, int value) {
+		current[index] = value;
+		if (less_at < index)
+			return true;
+		if (value > best[index])
+			return false;
+		less_at = (value < best[index]) ? index : 81;
+		return true;
+	}
+
+	/**
+	 * Makes the grid being built the best one.
+	 */
+	private void recordBest() {
+		System.arraycopy(current, 0, best, 0, 81);
+		less_at = 81;
+		best_transpose = transpose;
+		System.arraycopy(row_order, 0, best_rows, 0, 9);
+		System.arraycopy(col_order, 0, best_cols, 0, 9);
+		System.arraycopy(label, 0, to_canonical, 0, 10);
+	}
+
+	/**
+	 * Returns the label of a number, giving it the next one if it has none.
+	 * @param num (int) the number, 0 for empty
+	 * @return (int) the label, 0 for empty
+	 */
+	private int relabel(int num) {
+		if (num != 0 && label[num] == 0) {
+			label[num] = ++num_of_labels;
+			labeled[num_of_labels] = num;
+		}
+		return label[num];
+	}
+
+	/**
+	 * Takes back the labels given after the passed amount.
+	 * @param saved_labels (int) the amount of labels to keep
+	 */
+	private void unlabel(int saved_labels) {
+		while (num_of_labels > saved_labels)
+			label[labeled[num_of_labels--]] = 0;
+	}
+
+	/**
+	 * Gives the numbers missing from the puzzle the labels left over, so
+	 * whole solutions can be moved between the orientations.
+	 */
+	private void completeLabels() {
+		int next_label = 0;
+		for (int num = 1; num <= 9; num++)
+			next_label = Math.max(next_label, to_canonical[num]);
+		for (int num = 1; num <= 9; num++) {
+			if (to_canonical[num] == 0)
+				to_canonical[num] = ++next_label;
+			from_canonical[to_canonical[num]] = num;
+		}
+		to_canonical[0] = 0;
+		from_canonical[0] = 0;
+	}
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a group of squares that must all hold different numbers,
+ * optionally adding up to a sum. Variants are made by adding groups to a
+ * GridShape, see GridShape.withGroups(): a group with as many squares as
+ * the side length is a house like a row, so every number goes into it
+ * once, a smaller one with a sum is a killer cage. The static methods
+ * make the groups of the common variants.
+ * @author Piotr Woloszyn
+ *
+ */
+public class ConstraintGroup {
+
+	// The squares of the group
+	private final int[] squares;
+	// The sum of the numbers of the group, 0 for none
+	private final int sum;
+
+	/**
+	 * The constructor, a group without a sum.
+	 * @param squares (int[]) the squares of the group
+	 */
+	public ConstraintGroup(int[] squares) {
+		this(squares, 0);
+	}
+
+	/**
+	 * The constructor.
+	 * @param squares (int[]) the squares of the group, all different
+	 * @param sum (int) the sum of the numbers of the group, 0 for none
+	 * @throws IllegalArgumentException if the group is empty, has a square twice
+	 * or the sum is negative
+	 */
+	public ConstraintGroup(int[] squares, int sum) {
+		if (squares.length == 0)
+			throw new IllegalArgumentException("A group needs at least one square");
+		if (sum < 0)
+			throw new IllegalArgumentException("A group can't add up to " + sum);
+		for (int i = 0; i < squares.length; i++) {
+			for (int j = 0; j < i; j++) {
+				if (squares[i] == squares[j])
+					throw new IllegalArgumentException("Square " + squares[i] + " is in the group twice");
+			}
+		}
+		this.squares = squares.clone();
+		this.sum = sum;
+	}
+
+	/**
+	 * Makes a killer cage.
+	 * @param sum (int) the sum of the numbers of the cage
+	 * @param squares (int...) the squares of the cage
+	 * @return (ConstraintGroup) the cage
+	 */
+	public static ConstraintGroup cage(int sum, int... squares) {
+		if (sum < 1)
+			throw new IllegalArgumentException("A cage has to add up to at least 1, not " + sum);
+		return new ConstraintGroup(squares, sum);
+	}
+
+	/**
+	 * Makes the two long diagonals of a grid.
+	 * @param shape (GridShape) the grid
+	 * @return (List<ConstraintGroup>) the diagonal from the top left and the one from the top right
+	 */
+	public static List<ConstraintGroup> diagonals(GridShape shape) {
+		int side = shape.getSide();
+		int[] main = new int[side];
+		int[] anti = new int[side];
+		for (int i = 0; i < side; i++) {
+			main[i] = i * side + i;
+			anti[i] = i * side + side - 1 - i;
+		}
+		List<ConstraintGroup> groups = new ArrayList<ConstraintGroup>();
+		groups.add(new ConstraintGroup(main));
+		groups.add(new ConstraintGroup(anti));
+		return groups;
+	}
+
+	/**
+	 * Makes the windows of a windoku grid, boxes shifted one square down
+	 * and right of every box but those on the right and bottom edges,
+	 * with one line between them. On a 9 x 9 grid these are the four
+	 * windows at rows and columns 2 - 4 and 6 - 8.
+	 * @param shape (GridShape) the grid
+	 * @return (List<ConstraintGroup>) the windows
+	 */
+	public static List<ConstraintGroup> windows(GridShape shape) {
+		int box_size = shape.getBoxSize();
+		int side = shape.getSide();
+		List<ConstraintGroup> groups = new ArrayList<ConstraintGroup>();
+		for (int window_row = 0; window_row < box_size - 1; window_row++) {
+			for (int window_col = 0; window_col < box_size - 1; window_col++) {
+				int first = (1 + window_row * (box_size + 1)) * side + 1 + window_col * (box_size + 1);
+				int[] squares = new int[side];
+				for (int i = 0; i < side; i++)
+					squares[i] = first + (i / box_size) * side + i % box_size;
+				groups.add(new ConstraintGroup(squares));
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * Returns the squares of the group.
+	 * @return (int[]) a copy of the squares
+	 */
+	public int[] getSquares() {
+		return squares.clone();
+	}
+
+	/**
+	 * Returns the amount of squares in the group.
+	 * @return (int) the size
+	 */
+	public int getSize() {
+		return squares.length;
+	}
+
+	/**
+	 * Returns the sum of the numbers of the group.
+	 * @return (int) the sum, 0 if the group has none
+	 */
+	public int getSum() {
+		return sum;
+	}
+
+	/**
+	 * Returns the square at a position in the group.
+	 * @param i (int) the position
+	 * @return (int) the square
+	 */
+	public int getSquare(int i) {
+		return squares[i];
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * This class is a solver engine based on Knuth's Dancing Links version of
+ * Algorithm X. Sudoku is set up as an exact cover problem with 729 rows,
+ * one for every number in every square, and 324 constraint columns: every
+ * square holds a number, and every row, column and sub square holds
+ * every number once. The node arrays are built once per object, and the
+ * clues of a puzzle are covered before the search and uncovered after it,
+ * so solving many puzzles with one object doesn't allocate anything.
+ * @author Piotr Woloszyn
+ *
+ */
+public class DancingLinksSolver implements SudokuSolver {
+
+	// One solver per thread, so the node arrays are allocated only once
+	private static final ThreadLocal<DancingLinksSolver> THREAD_SOLVER = new ThreadLocal<DancingLinksSolver>() {
+		@Override
+		protected DancingLinksSolver initialValue() {
+			return new DancingLinksSolver();
+		}
+	};
+
+	// Number of constraint columns and matrix rows
+	private static final int COLUMNS = 324;
+	private static final int ROWS = 729;
+	// Index of the first row node, node 0 is the root and 1 - 324 are the column headers
+	private static final int FIRST_NODE = COLUMNS + 1;
+
+	// The links of every node
+	private final int[] left = new int[FIRST_NODE + ROWS * 4];
+	private final int[] right = new int[FIRST_NODE + ROWS * 4];
+	private final int[] up = new int[FIRST_NODE + ROWS * 4];
+	private final int[] down = new int[FIRST_NODE + ROWS * 4];
+	// The column header of every node
+	private final int[] column = new int[FIRST_NODE + ROWS * 4];
+	// The number of nodes left in every column
+	private final int[] size = new int[FIRST_NODE];
+	// The rows chosen by the search, a row is square * 9 + number - 1
+	private final int[] chosen = new int[81];
+	// The rows of the clues covered before the search
+	private final int[] clue_rows = new int[81];
+	// The amount of clues covered
+	private int num_of_clues;
+	// The puzzle the clues were taken from
+	private SudokuPuzzle loaded;
+	// The puzzle solutions are written to
+	private final SudokuPuzzle solution = new SudokuPuzzle();
+	// True if the search has to write out the solutions it finds
+	private boolean record;
+	// Receives the solutions during enumerateSolutions()
+	private SolutionListener listener;
+	// Set when the listener asks to stop or the token is cancelled
+	private boolean stopped;
+	// The token the search watches, null for none
+	private CancellationToken cancellation_token;
+
+	/**
+	 * The constructor, builds the exact cover matrix.
+	 */
+	public DancingLinksSolver() {
+		for (int c = 0; c <= COLUMNS; c++) {
+			left[c] = c - 1;
+			right[c] = c + 1;
+			up[c] = c;
+			down[c] = c;
+		}
+		left[0] = COLUMNS;
+		right[COLUMNS] = 0;
+		int node = FIRST_NODE;
+		for (int row = 0; row < ROWS; row++) {
+			int square = row / 9;
+			int num = row % 9;
+			int first = node;
+			addNode(node++, 1 + square);
+			for (int k = 0; k < 3; k++)
+				addNode(node++, 1 + 81 + SudokuPuzzle.unitOf(square, k) * 9 + num);
+			for (int i = first; i < node; i++) {
+				left[i] = (i == first) ? node - 1 : i - 1;
+				right[i] = (i == node - 1) ? first : i + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the solver belonging to the calling thread.
+	 * @return (DancingLinksSolver) the thread's solver
+	 */
+	public static DancingLinksSolver forCurrentThread() {
+		return THREAD_SOLVER.get();
+	}
+
+	@Override
+	public void setCancellationToken(CancellationToken cancellation_token) {
+		this.cancellation_token = cancellation_token;
+	}
+
+	/**
+	 * Adds a node to the bottom of a column.
+	 * @param node (int) the node
+	 * @param col (int) the column header
+	 */
+	private void addNode(int node, int col) {
+		column[node] = col;
+		down[node] = col;
+		up[node] = up[col];
+		down[up[col]] = node;
+		up[col] = node;
+		size[col] += 1;
+	}
+
+	@Override
+	public SudokuPuzzle solve(SudokuPuzzle sudoku) {
+		SudokuPuzzle out = null;
+		if (load(sudoku)) {
+			stopped = false;
+			record = true;
+			if (search(0, 1) > 0) {
+				out = new SudokuPuzzle();
+				out.copyFrom(solution);
+			}
+		}
+		unload();
+		return out;
+	}
+
+	@Override
+	public int countSolutions(SudokuPuzzle sudoku, int limit) {
+		int solution_count = 0;
+		if (load(sudoku)) {
+			stopped = false;
+			record = false;
+			solution_count = search(0, limit);
+		}
+		unload();
+		return solution_count;
+	}
+
+	@Override
+	public int enumerateSolutions(SudokuPuzzle sudoku, int limit, SolutionListener listener) {
+		int solution_count = 0;
+		if (load(sudoku)) {
+			stopped = false;
+			record = true;
+			this.listener = listener;
+			solution_count = search(0, limit);
+			this.listener = null;
+		}
+		unload();
+		return solution_count;
+	}
+
+	/**
+	 * Covers the rows of the puzzle's clues.
+	 * @param sudoku (SudokuPuzzle) the puzzle being solved
+	 * @return (boolean) false if two clues clash
+	 */
+	private boolean load(SudokuPuzzle sudoku) {
+		loaded = sudoku;
+		num_of_clues = 0;
+		for (int square = 0; square < 81; square++) {
+			int num = sudoku.getNumberAt(square);
+			if (num == 0)
+				continue;
+			int row_node = FIRST_NODE + (square * 9 + num - 1) * 4;
+			// A clash shows up as a column that was already covered by another clue
+			int node = row_node;
+			do {
+				int col = column[node];
+				if (right[left[col]] != col)
+					return false;
+				node = right[node];
+			} while (node != row_node);
+			node = row_node;
+			do {
+				cover(column[node]);
+				node = right[node];
+			} while (node != row_node);
+			clue_rows[num_of_clues++] = row_node;
+		}
+		return true;
+	}
+
+	/**
+	 * Uncovers the clues covered by load(), which restores the matrix.
+	 */
+	private void unload() {
+		while (num_of_clues > 0) {
+			int row_node = clue_rows[--num_of_clues];
+			int node = left[row_node];
+			do {
+				uncover(column[node]);
+				node = left[node];
+			} while (node != left[row_node]);
+		}
+		loaded = null;
+	}
+
+	/**
+	 * The recursive search, it always leaves the matrix as it found it.
+	 * @param depth (int) the amount of rows chosen so far
+	 * @param limit (int) the number of solutions at which to stop
+	 * @return (int) the number of solutions found, at most limit
+	 */
+	private int search(int depth, int limit) {
+		if (cancellation_token != null && cancellation_token.isCancelled()) {
+			stopped = true;
+			return 0;
+		}
+		if (right[0] == 0) {
+			if (record)
+				writeSolution(depth);
+			if (listener != null)
+				stopped = !listener.solutionFound(solution);
+			return 1;
+		}
+		// Choose the column with the fewest rows
+		int col = right[0];
+		for (int c = right[col]; c != 0; c = right[c]) {
+			if (size[c] < size[col])
+				col = c;
+		}
+		if (size[col] == 0)
+			return 0;
+		cover(col);
+		int solution_count = 0;
+		for (int row_node = down[col]; row_node != col; row_node = down[row_node]) {
+			chosen[depth] = (row_node - FIRST_NODE) >> 2;
+			for (int node = right[row_node]; node != row_node; node = right[node])
+				cover(column[node]);
+			solution_count += search(depth + 1, limit - solution_count);
+			for (int node = left[row_node]; node != row_node; node = left[node])
+				uncover(column[node]);
+			if (solution_count >= limit || stopped)
+				break;
+		}
+		uncover(col);
+		return solution_count;
+	}
+
+	/**
+	 * Writes the loaded puzzle with the chosen rows into the solution puzzle.
+	 * @param depth (int) the amount of rows chosen
+	 */
+	private void writeSolution(int depth) {
+		solution.copyFrom(loaded);
+		for (int i = 0; i < depth; i++)
+			solution.setSquare(chosen[i] / 9, chosen[i] % 9 + 1);
+	}
+
+	/**
+	 * Takes a column out of the header list and its rows out of the other columns.
+	 * @param col (int) the column header
+	 */
+	private void cover(int col) {
+		right[left[col]] = right[col];
+		left[right[col]] = left[col];
+		for (int i = down[col]; i != col; i = down[i]) {
+			for (int j = right[i]; j != i; j = right[j]) {
+				down[up[j]] = down[j];
+				up[down[j]] = up[j];
+				size[column[j]] -= 1;
+			}
+		}
+	}
+
+	/**
+	 * Undoes cover(), in exactly the reverse order.
+	 * @param col (int) the column header
+	 */
+	private void uncover(int col) {
+		for (int i = up[col]; i != col; i = up[i]) {
+			for (int j = left[i]; j != i; j = left[j]) {
+				size[column[j]] += 1;
+				down[up[j]] = j;
+				up[down[j]] = j;
+			}
+		}
+		right[left[col]] = col;
+		left[right[col]] = col;
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * The difficulty levels puzzles are generated for. A level is set by how
+ * far the generator may trim the clues and the range of DifficultyGrader
+ * scores accepted: easy puzzles only need hidden singles, medium ones
+ * need at most subsets and fish, hard ones need chains. ANY takes any
+ * unique puzzle trimmed as far as it goes without grading it, like
+ * SudokuGen without constraints.
+ * @author Piotr Woloszyn
+ *
+ */
+public enum Difficulty {
+
+	EASY(36, 0, 1.5),
+	MEDIUM(24, 2.3, 4.0),
+	HARD(17, 5.0, Double.MAX_VALUE),
+	ANY(17, 0, Double.MAX_VALUE);
+
+	// Clues aren't removed below this number
+	private final int min_clues;
+	// The range of scores accepted
+	private final double min_score;
+	private final double max_score;
+
+	/**
+	 * The constructor.
+	 * @param min_clues (int) clues aren't removed below this number
+	 * @param min_score (double) the lowest DifficultyGrader score accepted
+	 * @param max_score (double) the highest DifficultyGrader score accepted
+	 */
+	Difficulty(int min_clues, double min_score, double max_score) {
+		this.min_clues = min_clues;
+		this.min_score = min_score;
+		this.max_score = max_score;
+	}
+
+	/**
+	 * Returns the generator requirements for this level.
+	 * @return (PuzzleConstraints) a new constraints object
+	 */
+	public PuzzleConstraints getConstraints() {
+		PuzzleConstraints constraints = new PuzzleConstraints(min_clues, 81);
+		constraints.setScoreRange(min_score, max_score);
+		return constraints;
+	}
+}
@@ -0,0 +1,558 @@
+import java.util.Arrays;
+
+/**
+ * This class grades puzzles by solving them the way a person would,
+ * with a ladder of techniques from the easiest to the hardest. Every step
+ * uses the easiest technique that gets anywhere, and the grade is the
+ * hardest technique the puzzle needed, with its rating as the score.
+ * The ratings follow the usual scale of human solvers, from 1.5 for a
+ * hidden single to 7.0 for forcing chains, a puzzle the ladder can't
+ * finish gets 10.0.
+ * The candidates are kept as 9 bit masks, like in SudokuPuzzle, so a
+ * typical puzzle is graded in well under a millisecond. A grader keeps
+ * its working arrays between calls, so every thread needs its own.
+ * @author Piotr Woloszyn
+ *
+ */
+public class DifficultyGrader {
+
+	/**
+	 * The techniques of the ladder, from the easiest to the hardest.
+	 */
+	public enum Technique {
+		HIDDEN_SINGLE(1.5),
+		NAKED_SINGLE(2.3),
+		POINTING(2.6),
+		CLAIMING(2.8),
+		NAKED_PAIR(3.0),
+		X_WING(3.2),
+		HIDDEN_PAIR(3.4),
+		NAKED_TRIPLE(3.6),
+		SWORDFISH(3.8),
+		HIDDEN_TRIPLE(4.0),
+		XY_CHAIN(5.0),
+		FORCING_CHAIN(7.0),
+		// The ladder got stuck, the rest needs guessing
+		BACKTRACKING(10.0);
+
+		// How hard the technique is
+		private final double rating;
+
+		/**
+		 * The constructor.
+		 * @param rating (double) how hard the technique is
+		 */
+		Technique(double rating) {
+			this.rating = rating;
+		}
+
+		public double getRating() {
+			return rating;
+		}
+	}
+
+	// All 9 candidates
+	private static final int ALL = 0x1FF;
+	// The SudokuPuzzle units of the 9 sub squares, 9 rows and 9 columns, in
+	// that order, as hidden singles are easiest to spot in a sub square
+	private static final int[][] UNITS = new int[27][];
+	// The squares of the rows and columns, used by the fish
+	private static final int[][] LINES = new int[18][];
+
+	static {
+		for (int i = 0; i < 9; i++) {
+			UNITS[i] = SudokuPuzzle.getUnit(SudokuPuzzle.BOX_UNITS + i);
+			UNITS[9 + i] = SudokuPuzzle.getUnit(SudokuPuzzle.ROW_UNITS + i);
+			UNITS[18 + i] = SudokuPuzzle.getUnit(SudokuPuzzle.COL_UNITS + i);
+		}
+		for (int i = 0; i < 18; i++)
+			LINES[i] = UNITS[9 + i];
+	}
+
+	// The numbers on the grid, 0 for empty
+	private final int[] values = new int[81];
+	// The candidates of the empty squares, 0 for the filled ones
+	private final int[] candidates = new int[81];
+	private int num_of_unfilled;
+	// Copies of the grid made by the forcing chains
+	private final int[] saved_values = new int[81];
+	private final int[] saved_candidates = new int[81];
+	// Working arrays of the XY chains, the bivalue squares reached and the value they take
+	private final int[] chain_queue = new int[81 * 9];
+	private final boolean[] reached = new boolean[81 * 9];
+	// The amount of steps every technique made in the last grading
+	private final int[] step_counts = new int[Technique.values().length];
+
+	/**
+	 * Grades a puzzle, which should have a single solution.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @return (Grade) the hardest technique needed, the score and the steps
+	 */
+	public Grade grade(SudokuPuzzle sudoku) {
+		num_of_unfilled = 0;
+		for (int i = 0; i < 81; i++) {
+			values[i] = sudoku.getNumberAt(i);
+			candidates[i] = (values[i] == 0) ? sudoku.getCandidateMask(i) : 0;
+			if (values[i] == 0)
+				num_of_unfilled += 1;
+		}
+		Arrays.fill(step_counts, 0);
+		Technique hardest = null;
+		while (num_of_unfilled > 0) {
+			Technique technique = step();
+			if (technique == null)
+				technique = Technique.BACKTRACKING;
+			step_counts[technique.ordinal()] += 1;
+			if (hardest == null || technique.compareTo(hardest) > 0)
+				hardest = technique;
+			if (technique == Technique.BACKTRACKING)
+				break;
+		}
+		return new Grade(hardest, step_counts.clone());
+	}
+
+	/**
+	 * Makes one step with the easiest technique that gets anywhere.
+	 * @return (Technique) the technique used, null if none got anywhere
+	 */
+	private Technique step() {
+		int progress = hiddenSingles();
+		if (progress < 0)
+			return null;
+		if (progress > 0)
+			return Technique.HIDDEN_SINGLE;
+		progress = nakedSingles();
+		if (progress < 0)
+			return null;
+		if (progress > 0)
+			return Technique.NAKED_SINGLE;
+		if (lockedCandidates(true))
+			return Technique.POINTING;
+		if (lockedCandidates(false))
+			return Technique.CLAIMING;
+		if (nakedSubsets(2))
+			return Technique.NAKED_PAIR;
+		if (fish(2))
+			return Technique.X_WING;
+		if (hiddenSubsets(2))
+			return Technique.HIDDEN_PAIR;
+		if (nakedSubsets(3))
+			return Technique.NAKED_TRIPLE;
+		if (fish(3))
+			return Technique.SWORDFISH;
+		if (hiddenSubsets(3))
+			return Technique.HIDDEN_TRIPLE;
+		if (xyChains())
+			return Technique.XY_CHAIN;
+		if (forcingChains())
+			return Technique.FORCING_CHAIN;
+		return null;
+	}
+
+	/**
+	 * Places a number and removes it from the candidates of its peers.
+	 * @param square (int) position on the grid
+	 * @param num (int) the number
+	 */
+	private void place(int square, int num) {
+		values[square] = num;
+		candidates[square] = 0;
+		num_of_unfilled -= 1;
+		int bit = 1 << (num - 1);
+		int[] peers = SudokuPuzzle.getPeers(square);
+		for (int i = 0; i < 20; i++)
+			candidates[peers[i]] &= ~bit;
+	}
+
+	/**
+	 * Removes candidates from a square.
+	 * @param square (int) position on the grid
+	 * @param bits (int) the candidates to remove
+	 * @return (boolean) true if any of them was there
+	 */
+	private boolean eliminate(int square, int bits) {
+		if ((candidates[square] & bits) == 0)
+			return false;
+		candidates[square] &= ~bits;
+		return true;
+	}
+
+	/**
+	 * Places every number that fits in only one square of a unit.
+	 * @return (int) -1 if a number has no place left in a unit, 1 if anything was placed, 0 otherwise
+	 */
+	private int hiddenSingles() {
+		int progress = 0;
+		for (int u = 0; u < 27; u++) {
+			int[] unit = UNITS[u];
+			int once = 0;
+			int twice = 0;
+			int placed = 0;
+			for (int i = 0; i < 9; i++) {
+				int square = unit[i];
+				if (values[square] != 0) {
+					placed |= 1 << (values[square] - 1);
+				} else {
+					twice |= once & candidates[square];
+					once |= candidates[square];
+				}
+			}
+			if ((once | placed) != ALL)
+				return -1;
+			for (int singles = once & ~twice; singles != 0; singles &= singles - 1) {
+				int bit = singles & -singles;
+				for (int i = 0; i < 9; i++) {
+					int square = unit[i];
+					if ((candidates[square] & bit) != 0) {
+						place(square, SudokuPuzzle.lowestCandidate(bit));
+						progress = 1;
+						break;
+					}
+				}
+			}
+		}
+		return progress;
+	}
+
+	/**
+	 * Places the number of every square that has only one candidate left.
+	 * @return (int) -1 if a square has no candidates left, 1 if anything was placed, 0 otherwise
+	 */
+	private int nakedSingles() {
+		int progress = 0;
+		for (int i = 0; i < 81; i++) {
+			if (values[i] != 0)
+				continue;
+			int mask = candidates[i];
+			if (mask == 0)
+				return -1;
+			if ((mask & (mask - 1)) == 0) {
+				place(i, SudokuPuzzle.lowestCandidate(mask));
+				progress = 1;
+			}
+		}
+		return progress;
+	}
+
+	/**
+	 * Removes candidates locked into the crossing of a sub square and a
+	 * row or column. Pointing: a number whose candidates in a sub square all
+	 * lie on one line is removed from the rest of the line. Claiming: a
+	 * number whose candidates in a line all lie in one sub square is removed
+	 * from the rest of the sub square.
+	 * @param pointing (boolean) true for pointing, false for claiming
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean lockedCandidates(boolean pointing) {
+		boolean progress = false;
+		for (int box = 0; box < 9; box++) {
+			for (int k = 0; k < 3; k++) {
+				int row = (box / 3) * 3 + k;
+				int col = (box % 3) * 3 + k;
+				progress |= lockedCrossing(UNITS[box], UNITS[9 + row], pointing);
+				progress |= lockedCrossing(UNITS[box], UNITS[18 + col], pointing);
+			}
+		}
+		return progress;
+	}
+
+	/**
+	 * Handles the three squares where a line crosses a sub square.
+	 * @param box (int[]) the squares of the sub square
+	 * @param line (int[]) the squares of the line
+	 * @param pointing (boolean) true for pointing, false for claiming
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean lockedCrossing(int[] box, int[] line, boolean pointing) {
+		int crossing = 0;
+		int rest_of_box = 0;
+		int rest_of_line = 0;
+		for (int i = 0; i < 9; i++) {
+			if (contains(line, box[i]))
+				crossing |= candidates[box[i]];
+			else
+				rest_of_box |= candidates[box[i]];
+			if (!contains(box, line[i]))
+				rest_of_line |= candidates[line[i]];
+		}
+		int locked = pointing ? crossing & ~rest_of_box & rest_of_line : crossing & ~rest_of_line & rest_of_box;
+		if (locked == 0)
+			return false;
+		int[] rest = pointing ? line : box;
+		int[] other = pointing ? box : line;
+		for (int i = 0; i < 9; i++) {
+			if (!contains(other, rest[i]))
+				eliminate(rest[i], locked);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether a unit holds a square.
+	 * @param unit (int[]) the squares of the unit
+	 * @param square (int) position on the grid
+	 * @return (boolean) true if the square is in the unit
+	 */
+	private static boolean contains(int[] unit, int square) {
+		for (int i = 0; i < 9; i++) {
+			if (unit[i] == square)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Looks for n squares of a unit with only n candidates between them,
+	 * those candidates are removed from the rest of the unit.
+	 * @param n (int) the size of the subset, 2 or 3
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean nakedSubsets(int n) {
+		for (int u = 0; u < 27; u++) {
+			int[] unit = UNITS[u];
+			// The positions in the unit of the squares that can be part of a subset
+			int open = 0;
+			for (int i = 0; i < 9; i++) {
+				int count = SudokuPuzzle.countCandidates(candidates[unit[i]]);
+				if (count >= 2 && count <= n)
+					open |= 1 << i;
+			}
+			if (Integer.bitCount(open) < n)
+				continue;
+			for (int subset = open; subset != 0; subset = (subset - 1) & open) {
+				if (Integer.bitCount(subset) != n)
+					continue;
+				int union = 0;
+				for (int i = 0; i < 9; i++) {
+					if ((subset & (1 << i)) != 0)
+						union |= candidates[unit[i]];
+				}
+				if (SudokuPuzzle.countCandidates(union) != n)
+					continue;
+				boolean progress = false;
+				for (int i = 0; i < 9; i++) {
+					if ((subset & (1 << i)) == 0 && values[unit[i]] == 0)
+						progress |= eliminate(unit[i], union);
+				}
+				if (progress)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Looks for n numbers that fit in only n squares of a unit, the other
+	 * candidates are removed from those squares.
+	 * @param n (int) the size of the subset, 2 or 3
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean hiddenSubsets(int n) {
+		int[] places = new int[9];
+		for (int u = 0; u < 27; u++) {
+			int[] unit = UNITS[u];
+			// The numbers that fit in 2 to n squares
+			int open = 0;
+			for (int num = 0; num < 9; num++) {
+				int mask = 0;
+				for (int i = 0; i < 9; i++) {
+					if ((candidates[unit[i]] & (1 << num)) != 0)
+						mask |= 1 << i;
+				}
+				places[num] = mask;
+				int count = Integer.bitCount(mask);
+				if (count >= 2 && count <= n)
+					open |= 1 << num;
+			}
+			if (Integer.bitCount(open) < n)
+				continue;
+			for (int subset = open; subset != 0; subset = (subset - 1) & open) {
+				if (Integer.bitCount(subset) != n)
+					continue;
+				int union = 0;
+				for (int num = 0; num < 9; num++) {
+					if ((subset & (1 << num)) != 0)
+						union |= places[num];
+				}
+				if (Integer.bitCount(union) != n)
+					continue;
+				boolean progress = false;
+				for (int i = 0; i < 9; i++) {
+					if ((union & (1 << i)) != 0)
+						progress |= eliminate(unit[i], ALL & ~subset);
+				}
+				if (progress)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Looks for a number whose candidates in n rows all lie in the same n
+	 * columns, it's then removed from the rest of those columns, and the
+	 * same with rows and columns swapped. With n = 2 that's an X-Wing,
+	 * with n = 3 a Swordfish.
+	 * @param n (int) the size of the fish, 2 or 3
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean fish(int n) {
+		int[] places = new int[9];
+		for (int num = 0; num < 9; num++) {
+			int bit = 1 << num;
+			for (int base = 0; base < 18; base += 9) {
+				// The base lines where the number fits in 2 to n squares
+				int open = 0;
+				for (int line = 0; line < 9; line++) {
+					int mask = 0;
+					int[] squares = LINES[base + line];
+					for (int i = 0; i < 9; i++) {
+						if ((candidates[squares[i]] & bit) != 0)
+							mask |= 1 << i;
+					}
+					places[line] = mask;
+					int count = Integer.bitCount(mask);
+					if (count >= 2 && count <= n)
+						open |= 1 << line;
+				}
+				if (Integer.bitCount(open) < n)
+					continue;
+				int cover_base = 9 - base;
+				for (int subset = open; subset != 0; subset = (subset - 1) & open) {
+					if (Integer.bitCount(subset) != n)
+						continue;
+					int union = 0;
+					for (int line = 0; line < 9; line++) {
+						if ((subset & (1 << line)) != 0)
+							union |= places[line];
+					}
+					if (Integer.bitCount(union) != n)
+						continue;
+					boolean progress = false;
+					for (int cover = 0; cover < 9; cover++) {
+						if ((union & (1 << cover)) == 0)
+							continue;
+						int[] squares = LINES[cover_base + cover];
+						for (int i = 0; i < 9; i++) {
+							if ((subset & (1 << i)) == 0)
+								progress |= eliminate(squares[i], bit);
+						}
+					}
+					if (progress)
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Looks for chains of squares with two candidates each, where every
+	 * square sees the next and shares a candidate with it. If the first
+	 * square isn't x, the next one has to be its shared candidate's
+	 * partner and so on, so when the chain ends on a square that then has
+	 * to be x, one of the ends is x and x is removed from the squares
+	 * seeing both ends.
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean xyChains() {
+		for (int start = 0; start < 81; start++) {
+			if (SudokuPuzzle.countCandidates(candidates[start]) != 2)
+				continue;
+			for (int x = candidates[start]; x != 0; x &= x - 1) {
+				int off = x & -x;
+				Arrays.fill(reached, false);
+				int head = 0;
+				int tail = 0;
+				// A state is a square and the candidate it has to take
+				int first = start * 9 + Integer.numberOfTrailingZeros(candidates[start] & ~off);
+				chain_queue[tail++] = first;
+				reached[first] = true;
+				while (head < tail) {
+					int state = chain_queue[head++];
+					int square = state / 9;
+					int on = 1 << (state % 9);
+					int[] peers = SudokuPuzzle.getPeers(square);
+					for (int i = 0; i < 20; i++) {
+						int peer = peers[i];
+						if (SudokuPuzzle.countCandidates(candidates[peer]) != 2 || (candidates[peer] & on) == 0)
+							continue;
+						int next_on = candidates[peer] & ~on;
+						int next = peer * 9 + Integer.numberOfTrailingZeros(next_on);
+						if (reached[next])
+							continue;
+						reached[next] = true;
+						chain_queue[tail++] = next;
+						if (next_on == off && peer != start && removeSeenByBoth(start, peer, off))
+							return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes a candidate from the squares that see both passed squares.
+	 * @param first (int) a square
+	 * @param second (int) another square
+	 * @param bit (int) the candidate
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean removeSeenByBoth(int first, int second, int bit) {
+		boolean progress = false;
+		int[] peers = SudokuPuzzle.getPeers(first);
+		for (int i = 0; i < 20; i++) {
+			int square = peers[i];
+			if (square != second && (candidates[square] & bit) != 0 && SudokuPuzzle.sees(square, second))
+				progress |= eliminate(square, bit);
+		}
+		return progress;
+	}
+
+	/**
+	 * Tries the candidates of the squares with the fewest candidates first,
+	 * and removes a candidate if placing it and following the singles
+	 * leads to a contradiction.
+	 * @return (boolean) true if anything was removed
+	 */
+	private boolean forcingChains() {
+		for (int count = 2; count <= 9; count++) {
+			for (int square = 0; square < 81; square++) {
+				if (SudokuPuzzle.countCandidates(candidates[square]) != count)
+					continue;
+				for (int mask = candidates[square]; mask != 0; mask &= mask - 1) {
+					int bit = mask & -mask;
+					if (leadsToContradiction(square, bit)) {
+						eliminate(square, bit);
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Places a candidate and follows the singles, then puts the grid back.
+	 * @param square (int) position on the grid
+	 * @param bit (int) the candidate
+	 * @return (boolean) true if the singles ran into a contradiction
+	 */
+	private boolean leadsToContradiction(int square, int bit) {
+		System.arraycopy(values, 0, saved_values, 0, 81);
+		System.arraycopy(candidates, 0, saved_candidates, 0, 81);
+		int saved_unfilled = num_of_unfilled;
+		place(square, SudokuPuzzle.lowestCandidate(bit));
+		int progress = 1;
+		while (progress > 0 && num_of_unfilled > 0) {
+			progress = hiddenSingles();
+			if (progress == 0)
+				progress = nakedSingles();
+		}
+		System.arraycopy(saved_values, 0, values, 0, 81);
+		System.arraycopy(saved_candidates, 0, candidates, 0, 81);
+		num_of_unfilled = saved_unfilled;
+		return progress < 0;
+	}
+}
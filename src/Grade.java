@@ -0,0 +1,65 @@
+/**
+ * This class is the outcome of DifficultyGrader.grade(): the hardest
+ * technique the puzzle needed, its score and how many steps every
+ * technique made.
+ * @author Piotr Woloszyn
+ *
+ */
+public class Grade {
+
+	// The hardest technique needed, null if the puzzle had no empty squares
+	private final DifficultyGrader.Technique hardest;
+	// The steps made by every technique, by ordinal
+	private final int[] step_counts;
+
+	/**
+	 * The constructor.
+	 * @param hardest (DifficultyGrader.Technique) the hardest technique needed,
+	 * null if the puzzle had no empty squares
+	 * @param step_counts (int[]) the steps made by every technique, by ordinal
+	 */
+	public Grade(DifficultyGrader.Technique hardest, int[] step_counts) {
+		this.hardest = hardest;
+		this.step_counts = step_counts;
+	}
+
+	public DifficultyGrader.Technique getHardestTechnique() {
+		return hardest;
+	}
+
+	/**
+	 * Returns the score, the rating of the hardest technique needed.
+	 * @return (double) the score, 0 if the puzzle had no empty squares
+	 */
+	public double getScore() {
+		return (hardest != null) ? hardest.getRating() : 0;
+	}
+
+	/**
+	 * Returns whether the techniques solved the whole puzzle.
+	 * @return (boolean) false if the grading got stuck
+	 */
+	public boolean isSolved() {
+		return hardest != DifficultyGrader.Technique.BACKTRACKING;
+	}
+
+	/**
+	 * Returns how many steps a technique made.
+	 * @param technique (DifficultyGrader.Technique) the technique
+	 * @return (int) the step count
+	 */
+	public int getStepCount(DifficultyGrader.Technique technique) {
+		return step_counts[technique.ordinal()];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("%.1f %s", getScore(), hardest));
+		for (DifficultyGrader.Technique technique : DifficultyGrader.Technique.values()) {
+			if (step_counts[technique.ordinal()] > 0)
+				text.append(String.format(", %s x%d", technique, step_counts[technique.ordinal()]));
+		}
+		return text.toString();
+	}
+}
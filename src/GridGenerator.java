@@ -0,0 +1,373 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * This class generates puzzles of any GridShape the way SudokuGen does
+ * for 9 x 9 grids: a completed grid is made and trimmed of clues in
+ * random order, and a clue stays whenever taking it away would give the
+ * puzzle another solution.
+ * The completed grid of a plain shape starts with random permutations in
+ * the boxes on the diagonal, which don't share any rows or columns, and is
+ * finished by the GridSolver trying candidates in random order. Variant
+ * shapes only start with the first box, or its jigsaw region, filled. On large grids that
+ * search now and then wanders into a hopeless branch, so it's restarted
+ * from a new diagonal after a node limit.
+ * Every removal is checked with a GridSolver search for a solution without
+ * the removed number, which can take long on sparse 16 x 16 and 25 x 25
+ * puzzles, so the checks have a node limit as well and a check that runs
+ * out keeps its clue. The puzzle is always unique, but may keep a few
+ * clues it could do without.
+ * Killer puzzles are made by cutting a completed grid into random cages,
+ * their sums taken from the grid, and trimming the clues of the cage shape.
+ * Like SudokuGen a generator keeps its state in fields, so every thread
+ * needs its own, and the same seed always gives the same puzzle.
+ * @author Piotr Woloszyn
+ *
+ */
+public class GridGenerator {
+
+	// The nodes the completing search may take, per square of the grid
+	private static final int FILL_NODES_PER_SQUARE = 4;
+	// The nodes a uniqueness check may take if none is set, most checks
+	// take a few dozen and the ones that don't seldom end in a removal
+	public static final long DEFAULT_CHECK_NODE_LIMIT = 128;
+
+	// The geometry of the puzzles
+	private final GridShape shape;
+	// The solver engine used to complete grids and for the uniqueness checks
+	private final GridSolver solver;
+	// The random number generator object, seeded for each puzzle
+	private SplittableRandom rnd;
+	// Gives the seeds of the puzzles generated without one
+	private final SplittableRandom seed_source;
+	// The nodes a uniqueness check may take before the clue is kept
+	private long check_node_limit;
+	// The number of clues in the generated puzzle
+	private int num_of_clues;
+	// The squares in the order they're trimmed
+	private final int[] order;
+	// The numbers shuffled into a box on the diagonal
+	private final int[] box_numbers;
+	// The completed grid being trimmed, the checks try its numbers first
+	private final GridPuzzle completed;
+	// The cage of every square while cages are cut, -1 for none
+	private final int[] cage_of;
+	// The boxes on the diagonal seeded with random numbers before a grid is
+	// completed, any numbering of one box fits a grid without sums and the
+	// boxes on the diagonal of a plain grid are independent of each other
+	private final int seeded_boxes;
+
+	/**
+	 * The constructor.
+	 * @param shape (GridShape) the geometry of the puzzles
+	 */
+	public GridGenerator(GridShape shape) {
+		this(shape, new SplittableRandom());
+	}
+
+	/**
+	 * The constructor.
+	 * @param shape (GridShape) the geometry of the puzzles
+	 * @param seed_source (SplittableRandom) gives the seeds of the puzzles
+	 * generated without one, owned by the generator
+	 */
+	public GridGenerator(GridShape shape, SplittableRandom seed_source) {
+		this.shape = shape;
+		this.seed_source = seed_source;
+		solver = new GridSolver(shape);
+		check_node_limit = DEFAULT_CHECK_NODE_LIMIT;
+		order = new int[shape.getSize()];
+		box_numbers = new int[shape.getSide()];
+		completed = new GridPuzzle(shape);
+		cage_of = new int[shape.getSize()];
+		boolean has_sums = false;
+		for (int g = 0; g < shape.getNumOfGroups(); g++)
+			has_sums |= shape.getSum(g) > 0;
+		seeded_boxes = shape.isPlain() ? shape.getBoxSize() : has_sums ? 0 : 1;
+	}
+
+	public GridShape getShape() {
+		return shape;
+	}
+
+	/**
+	 * Sets the nodes a uniqueness check may take, a check that runs out
+	 * keeps its clue.
+	 * @param check_node_limit (long) the node limit, 0 for no limit
+	 */
+	public void setCheckNodeLimit(long check_node_limit) {
+		this.check_node_limit = check_node_limit;
+	}
+
+	public long getCheckNodeLimit() {
+		return check_node_limit;
+	}
+
+	/**
+	 * Generates a puzzle from the next seed.
+	 * @return (GridPuzzle) A ready puzzle
+	 */
+	public GridPuzzle generatePuzzle() {
+		return generatePuzzle(0, seed_source.nextLong());
+	}
+
+	/**
+	 * Generates the puzzle belonging to the passed seed, trimmed as far as
+	 * the checks allow.
+	 * @param seed (long) the seed of the puzzle
+	 * @return (GridPuzzle) A ready puzzle
+	 */
+	public GridPuzzle generatePuzzle(long seed) {
+		return generatePuzzle(0, seed);
+	}
+
+	/**
+	 * Generates the puzzle belonging to the passed seed and clue floor.
+	 * @param min_clues (int) clues aren't removed below this number
+	 * @param seed (long) the seed of the puzzle
+	 * @return (GridPuzzle) A ready puzzle
+	 */
+	public GridPuzzle generatePuzzle(int min_clues, long seed) {
+		rnd = new SplittableRandom(seed);
+		GridPuzzle puzzle = new GridPuzzle(shape);
+		generateCompletedGrid(puzzle);
+		completed.copyFrom(puzzle);
+		trimPuzzle(puzzle, completed, solver, min_clues);
+		puzzle.setNumOfClues(num_of_clues);
+		puzzle.setSeed(seed);
+		return puzzle;
+	}
+
+	/**
+	 * Generates the killer puzzle belonging to the passed seed. A completed
+	 * grid is cut into cages of up to the given size, every cage a random
+	 * connected group of squares with different numbers, and the clues are
+	 * trimmed as far as the checks allow with the cages in place. The
+	 * puzzle's shape is this generator's with the cages added.
+	 * @param max_cage_size (int) the most squares a cage may have, 1 - side length
+	 * @param seed (long) the seed of the puzzle
+	 * @return (GridPuzzle) A ready puzzle, often without any clues
+	 */
+	public GridPuzzle generateKillerPuzzle(int max_cage_size, long seed) {
+		if (max_cage_size < 1 || max_cage_size > shape.getSide())
+			throw new IllegalArgumentException("Cages have 1 - " + shape.getSide() + " squares, not " + max_cage_size);
+		rnd = new SplittableRandom(seed);
+		GridPuzzle grid = new GridPuzzle(shape);
+		generateCompletedGrid(grid);
+		GridShape killer_shape = shape.withGroups(cutCages(grid, max_cage_size));
+		GridPuzzle puzzle = new GridPuzzle(killer_shape);
+		for (int i = 0; i < shape.getSize(); i++)
+			puzzle.setSquare(i, grid.getNumberAt(i));
+		trimPuzzle(puzzle, grid, new GridSolver(killer_shape), 0);
+		puzzle.setNumOfClues(num_of_clues);
+		puzzle.setSeed(seed);
+		return puzzle;
+	}
+
+	/**
+	 * Creates the completed grid belonging to the passed seed.
+	 * @param seed (long) the seed of the grid
+	 * @return (GridPuzzle) a completed grid
+	 */
+	public GridPuzzle generateCompletedGrid(long seed) {
+		rnd = new SplittableRandom(seed);
+		GridPuzzle puzzle = new GridPuzzle(shape);
+		generateCompletedGrid(puzzle);
+		puzzle.setNumOfClues(shape.getSize());
+		puzzle.setSeed(seed);
+		return puzzle;
+	}
+
+	/**
+	 * Fills the passed puzzle with a random completed grid.
+	 * @param puzzle (GridPuzzle) the puzzle object being worked on
+	 */
+	private void generateCompletedGrid(GridPuzzle puzzle) {
+		int box_size = shape.getBoxSize();
+		int side = shape.getSide();
+		solver.setNodeLimit((long) FILL_NODES_PER_SQUARE * shape.getSize());
+		do {
+			puzzle.clear();
+			for (int box = 0; box < seeded_boxes; box++) {
+				shuffleNumbers();
+				int[] squares = shape.getGroup(2 * side + box * box_size + box);
+				for (int i = 0; i < side; i++)
+					puzzle.setSquare(squares[i], box_numbers[i]);
+			}
+		} while (!solver.fillRandomly(puzzle, rnd));
+	}
+
+	/**
+	 * Puts the numbers 1 to side length in random order into box_numbers.
+	 */
+	private void shuffleNumbers() {
+		for (int i = 0; i < box_numbers.length; i++)
+			box_numbers[i] = i + 1;
+		for (int i = box_numbers.length - 1; i > 0; i--) {
+			int random_num = rnd.nextInt(i + 1);
+			int tmp = box_numbers[i];
+			box_numbers[i] = box_numbers[random_num];
+			box_numbers[random_num] = tmp;
+		}
+	}
+
+	/**
+	 * Cuts a completed grid into cages. Every cage grows from a random
+	 * square not in a cage yet, adding random neighbouring squares whose
+	 * numbers aren't in the cage until it has its random size or can't
+	 * grow any more.
+	 * @param grid (GridPuzzle) the completed grid
+	 * @param max_cage_size (int) the most squares a cage may have
+	 * @return (List<ConstraintGroup>) the cages with their sums, covering the grid
+	 */
+	private List<ConstraintGroup> cutCages(GridPuzzle grid, int max_cage_size) {
+		int size = shape.getSize();
+		int side = shape.getSide();
+		shuffleOrder();
+		Arrays.fill(cage_of, -1);
+		List<ConstraintGroup> cages = new ArrayList<ConstraintGroup>();
+		int[] cage = new int[max_cage_size];
+		int[] frontier = new int[4 * max_cage_size];
+		for (int i = 0; i < size; i++) {
+			if (cage_of[order[i]] >= 0)
+				continue;
+			int target_size = 1 + rnd.nextInt(max_cage_size);
+			int cage_size = 0;
+			long used = 0;
+			int sum = 0;
+			int square = order[i];
+			while (true) {
+				cage_of[square] = cages.size();
+				cage[cage_size++] = square;
+				used |= 1L << (grid.getNumberAt(square) - 1);
+				sum += grid.getNumberAt(square);
+				if (cage_size == target_size)
+					break;
+				int frontier_size = 0;
+				for (int k = 0; k < cage_size; k++) {
+					int row = shape.rowOf(cage[k]);
+					int col = shape.colOf(cage[k]);
+					if (row > 0)
+						frontier_size = addNeighbour(grid, cage[k] - side, used, frontier, frontier_size);
+					if (row < side - 1)
+						frontier_size = addNeighbour(grid, cage[k] + side, used, frontier, frontier_size);
+					if (col > 0)
+						frontier_size = addNeighbour(grid, cage[k] - 1, used, frontier, frontier_size);
+					if (col < side - 1)
+						frontier_size = addNeighbour(grid, cage[k] + 1, used, frontier, frontier_size);
+				}
+				if (frontier_size == 0)
+					break;
+				square = frontier[rnd.nextInt(frontier_size)];
+			}
+			cages.add(ConstraintGroup.cage(sum, Arrays.copyOf(cage, cage_size)));
+		}
+		return cages;
+	}
+
+	/**
+	 * Adds a square to the squares a cage could grow into if it's not in a
+	 * cage yet and its number isn't used in the growing cage.
+	 * @param grid (GridPuzzle) the completed grid
+	 * @param square (int) the neighbouring square
+	 * @param used (long) mask of the numbers in the growing cage
+	 * @param frontier (int[]) the squares the cage could grow into
+	 * @param frontier_size (int) the amount of squares in frontier
+	 * @return (int) the new amount of squares in frontier
+	 */
+	private int addNeighbour(GridPuzzle grid, int square, long used, int[] frontier, int frontier_size) {
+		if (cage_of[square] < 0 && (used & 1L << (grid.getNumberAt(square) - 1)) == 0)
+			frontier[frontier_size++] = square;
+		return frontier_size;
+	}
+
+	/**
+	 * Puts the squares in random order into order.
+	 */
+	private void shuffleOrder() {
+		int size = shape.getSize();
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		for (int i = size - 1; i > 0; i--) {
+			int random_num = rnd.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[random_num];
+			order[random_num] = tmp;
+		}
+	}
+
+	/**
+	 * Removes clues in random order, a removed number is put back if the
+	 * puzzle could have another solution without it. The checks try the
+	 * numbers of the completed grid first, as the other solutions mostly
+	 * differ from it on a few squares.
+	 * @param puzzle (GridPuzzle) the completed grid being worked on
+	 * @param solution (GridPuzzle) a copy of the completed grid
+	 * @param check_solver (GridSolver) the solver for the puzzle's shape
+	 * @param min_clues (int) clues aren't removed below this number
+	 */
+	private void trimPuzzle(GridPuzzle puzzle, GridPuzzle solution, GridSolver check_solver, int min_clues) {
+		int size = shape.getSize();
+		shuffleOrder();
+		num_of_clues = size;
+		check_solver.setPreferredSolution(solution);
+		check_solver.setNodeLimit(check_node_limit);
+		for (int i = 0; i < size && num_of_clues > min_clues; i++) {
+			int square = order[i];
+			int num = puzzle.clearSquare(square);
+			if (isStillUnique(puzzle, check_solver, square, num))
+				num_of_clues -= 1;
+			else
+				puzzle.setSquare(square, num);
+		}
+		check_solver.setPreferredSolution(null);
+	}
+
+	/**
+	 * Checks whether the puzzle is still unique after a number was removed.
+	 * It was unique before, so it stays unique unless it has a solution
+	 * without the number on its square. That can't be if the square is
+	 * left with that number as its only candidate or is the only place for
+	 * the number in one of its houses, otherwise such a solution is
+	 * searched for.
+	 * @param puzzle (GridPuzzle) the puzzle with the number removed
+	 * @param check_solver (GridSolver) the solver for the puzzle's shape
+	 * @param square (int) the square the number was removed from
+	 * @param num (int) the removed number
+	 * @return (boolean) true if the puzzle is known to still have a unique solution
+	 */
+	private boolean isStillUnique(GridPuzzle puzzle, GridSolver check_solver, int square, int num) {
+		long bit = 1L << (num - 1);
+		if (puzzle.getCandidateMask(square) == bit || isOnlyPlace(puzzle, square, bit))
+			return true;
+		return !check_solver.hasOtherSolution(puzzle, square, num) && !check_solver.wasStopped();
+	}
+
+	/**
+	 * Checks whether a square is the only place left for a number in one
+	 * of its houses.
+	 * @param puzzle (GridPuzzle) the puzzle
+	 * @param square (int) position on the grid
+	 * @param bit (long) the mask bit of the number
+	 * @return (boolean) true if no other empty square of one of the houses can take the number
+	 */
+	private boolean isOnlyPlace(GridPuzzle puzzle, int square, long bit) {
+		GridShape puzzle_shape = puzzle.getShape();
+		int side = shape.getSide();
+		int[] groups = puzzle_shape.getGroupsOf(square);
+		for (int k = 0; k < groups.length && groups[k] < puzzle_shape.getNumOfHouses(); k++) {
+			int[] unit = puzzle_shape.getGroup(groups[k]);
+			boolean only = true;
+			for (int i = 0; i < side && only; i++) {
+				int other = unit[i];
+				if (other != square && puzzle.getNumberAt(other) == 0 && (puzzle.getCandidateMask(other) & bit) != 0)
+					only = false;
+			}
+			if (only)
+				return true;
+		}
+		return false;
+	}
+}
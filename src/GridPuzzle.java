@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+/**
+ * This class is a sudoku puzzle of any GridShape, from 4 x 4 to 25 x 25.
+ * Like SudokuPuzzle it keeps which numbers are used in each group (the
+ * rows, columns, boxes and whatever groups a variant adds) as a mask,
+ * here a long (bit n - 1 stands for the number n), so the candidates of
+ * any square are available without allocating anything, see
+ * getCandidateMask(). Sums of cages aren't checked here, only by the
+ * GridSolver.
+ * @author Piotr Woloszyn
+ *
+ */
+public class GridPuzzle {
+
+	// The geometry of the grid
+	private final GridShape shape;
+	// The numbers on the grid, 0 for empty squares
+	private final int[] grid;
+	// Masks of the numbers used in each group
+	private final long[] group_masks;
+	// The amount of clues in the puzzle
+	private int number_of_clues;
+	// The seed the puzzle was generated from
+	private long seed;
+
+	/**
+	 * The constructor, creates an empty grid.
+	 * @param shape (GridShape) the geometry of the grid
+	 */
+	public GridPuzzle(GridShape shape) {
+		this.shape = shape;
+		grid = new int[shape.getSize()];
+		group_masks = new long[shape.getNumOfGroups()];
+	}
+
+	/**
+	 * Creates a puzzle from one line of text, the squares row by row with
+	 * the characters of GridShape.SYMBOLS for clues and '.' or '0' for
+	 * empty squares. The box size is worked out from the length.
+	 * @param line (CharSequence) the puzzle line
+	 * @return (GridPuzzle) the puzzle
+	 * @throws IllegalArgumentException if the line is malformed or two clues clash
+	 */
+	public static GridPuzzle fromString(CharSequence line) {
+		GridShape shape = null;
+		for (int box_size = GridShape.MIN_BOX_SIZE; box_size <= GridShape.MAX_BOX_SIZE; box_size++) {
+			if (GridShape.of(box_size).getSize() == line.length())
+				shape = GridShape.of(box_size);
+		}
+		if (shape == null)
+			throw new IllegalArgumentException("No grid has " + line.length() + " squares");
+		return fromString(shape, line);
+	}
+
+	/**
+	 * Creates a puzzle of the given shape from one line of text, in the
+	 * format of fromString(CharSequence).
+	 * @param shape (GridShape) the geometry and rules of the grid
+	 * @param line (CharSequence) the puzzle line
+	 * @return (GridPuzzle) the puzzle
+	 * @throws IllegalArgumentException if the line is malformed or two clues clash
+	 */
+	public static GridPuzzle fromString(GridShape shape, CharSequence line) {
+		if (line.length() != shape.getSize())
+			throw new IllegalArgumentException("A " + shape + " grid has " + shape.getSize() + " squares, not "
+					+ line.length());
+		GridPuzzle puzzle = new GridPuzzle(shape);
+		int clues = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '.' || c == '0')
+				continue;
+			int num = GridShape.SYMBOLS.indexOf(Character.toUpperCase(c)) + 1;
+			if (num < 1 || num > shape.getSide())
+				throw new IllegalArgumentException("Unexpected character " + c + " at square " + i);
+			if (!puzzle.setSquare(i, num))
+				throw new IllegalArgumentException("Clue " + c + " at square " + i + " clashes");
+			clues += 1;
+		}
+		puzzle.setNumOfClues(clues);
+		return puzzle;
+	}
+
+	public GridShape getShape() {
+		return shape;
+	}
+
+	public void setNumOfClues(int number_of_clues) {
+		this.number_of_clues = number_of_clues;
+	}
+
+	public int getNumOfClues() {
+		return number_of_clues;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Attempts to add the passed number to the grid at the specified
+	 * position, the square has to be empty and the number can't already
+	 * be used in any of its groups.
+	 * @param index (int) position on the grid (x + y * side)
+	 * @param val (int) the number that is being added
+	 * @return (boolean) returns true if the number is successfully added
+	 *         returns false if it isn't
+	 */
+	public boolean setSquare(int index, int val) {
+		long bit = 1L << (val - 1);
+		if (grid[index] == 0 && (getCandidateMask(index) & bit) != 0) {
+			grid[index] = val;
+			for (int g : shape.getGroupsOf(index))
+				group_masks[g] |= bit;
+			return true;
+		} else
+			return false;
+	}
+
+	/**
+	 * Removes and returns the number at the specified position.
+	 * @param index (int) position on the grid (x + y * side)
+	 * @return (int) the number at the given position
+	 */
+	public int clearSquare(int index) {
+		int out = grid[index];
+		if (out > 0) {
+			long bit = 1L << (out - 1);
+			for (int g : shape.getGroupsOf(index))
+				group_masks[g] &= ~bit;
+			grid[index] = 0;
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the number at the specified position.
+	 * @param index (int) position on the grid (x + y * side)
+	 * @return (int) the number at the given position, 0 if empty
+	 */
+	public int getNumberAt(int index) {
+		return grid[index];
+	}
+
+	/**
+	 * Returns the mask of numbers that can be placed at the given position,
+	 * bit n - 1 is set when the number n isn't used in any of the square's
+	 * groups.
+	 * @param index (int) position on the grid (x + y * side)
+	 * @return (long) the candidate mask
+	 */
+	public long getCandidateMask(int index) {
+		long used = 0;
+		for (int g : shape.getGroupsOf(index))
+			used |= group_masks[g];
+		return ~used & shape.getAllCandidates();
+	}
+
+	/**
+	 * Returns the amount of numbers in a candidate mask.
+	 * @param mask (long) a candidate mask
+	 * @return (int) the number of candidates in the mask
+	 */
+	public static int countCandidates(long mask) {
+		return Long.bitCount(mask);
+	}
+
+	/**
+	 * Returns the smallest number in a candidate mask.
+	 * @param mask (long) a non empty candidate mask
+	 * @return (int) the smallest number in the mask
+	 */
+	public static int lowestCandidate(long mask) {
+		return Long.numberOfTrailingZeros(mask) + 1;
+	}
+
+	/**
+	 * Returns the amount of empty squares.
+	 * @return (int) the empty square count
+	 */
+	public int countEmptySquares() {
+		int empty = 0;
+		for (int i = 0; i < grid.length; i++) {
+			if (grid[i] == 0)
+				empty += 1;
+		}
+		return empty;
+	}
+
+	/**
+	 * Empties the entire puzzle of numbers.
+	 */
+	public void clear() {
+		Arrays.fill(grid, 0);
+		Arrays.fill(group_masks, 0);
+	}
+
+	/**
+	 * Overwrites this puzzle with the contents of the passed one, which
+	 * has to be of the same shape, unlike clone() it doesn't allocate
+	 * anything.
+	 * @param puzzle (GridPuzzle) the puzzle being copied
+	 */
+	public void copyFrom(GridPuzzle puzzle) {
+		if (puzzle.shape != shape)
+			throw new IllegalArgumentException("Can't copy a " + puzzle.shape + " grid into a " + shape + " one");
+		System.arraycopy(puzzle.grid, 0, grid, 0, grid.length);
+		System.arraycopy(puzzle.group_masks, 0, group_masks, 0, group_masks.length);
+		number_of_clues = puzzle.number_of_clues;
+		seed = puzzle.seed;
+	}
+
+	/**
+	 * The clone method, returns a copy of this puzzle object.
+	 */
+	public GridPuzzle clone() {
+		GridPuzzle puzzle = new GridPuzzle(shape);
+		puzzle.copyFrom(this);
+		return puzzle;
+	}
+
+	/**
+	 * Returns the puzzle in the one line format read by fromString().
+	 */
+	@Override
+	public String toString() {
+		StringBuilder line = new StringBuilder(grid.length);
+		for (int i = 0; i < grid.length; i++)
+			line.append((grid[i] == 0) ? '.' : GridShape.SYMBOLS.charAt(grid[i] - 1));
+		return line.toString();
+	}
+}
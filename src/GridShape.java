@@ -0,0 +1,332 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds the geometry and rules of a sudoku grid with boxes of
+ * any size from 2 x 2 to 5 x 5, which gives grids from 4 x 4 to 25 x 25.
+ * The rules are groups of squares that must hold different numbers: the
+ * rows, columns and boxes, or the irregular regions of a jigsaw grid,
+ * and any groups a variant adds, see ConstraintGroup. Groups with as many
+ * squares as the side length are houses, every number goes into each of
+ * them once, the others are cages that may also have a sum.
+ * The groups of every square and its peers are worked out once into flat
+ * tables, so GridPuzzle, GridSolver and GridGenerator only ever look up
+ * the groups a square is in and a variant costs nothing on the squares it
+ * doesn't touch. A shape is never modified, the variants are new shapes.
+ * The numbers of a grid go from 1 to the side length, in text they're
+ * written with the characters of SYMBOLS, '.' or '0' is an empty square.
+ * @author Piotr Woloszyn
+ *
+ */
+public class GridShape {
+
+	// The smallest and largest box sizes
+	public static final int MIN_BOX_SIZE = 2;
+	public static final int MAX_BOX_SIZE = 5;
+	// The characters of the numbers 1 - 25 in text
+	public static final String SYMBOLS = "123456789ABCDEFGHIJKLMNOP";
+
+	// One plain shape per box size, indexed by the box size
+	private static final GridShape[] SHAPES = new GridShape[MAX_BOX_SIZE + 1];
+
+	static {
+		for (int box_size = MIN_BOX_SIZE; box_size <= MAX_BOX_SIZE; box_size++)
+			SHAPES[box_size] = new GridShape(box_size, null, Collections.<ConstraintGroup>emptyList());
+	}
+
+	// The side length of a box
+	private final int box_size;
+	// The side length of the grid, also the amount of numbers
+	private final int side;
+	// The amount of squares
+	private final int size;
+	// The row, column and box (or jigsaw region) of every square
+	private final int[] row_of;
+	private final int[] col_of;
+	private final int[] box_of;
+	// True if the regions are the regular boxes
+	private final boolean regular_boxes;
+	// The groups added to the rows, columns and boxes
+	private final List<ConstraintGroup> extra_groups;
+	// The squares of every group, the rows, columns and boxes come first,
+	// then the other houses and then the cages
+	private final int[][] groups;
+	// The amount of houses, the groups before it
+	private final int num_of_houses;
+	// The sum of every group, 0 for none
+	private final int[] sums;
+	// The groups of every square, in ascending order
+	private final int[][] groups_of;
+	// The squares sharing a group with each square, in ascending order
+	private final int[][] peers;
+
+	/**
+	 * The constructor, the tables are worked out here.
+	 * @param box_size (int) the side length of a box
+	 * @param region_of (int[]) the jigsaw region of every square, null for regular boxes
+	 * @param extra_groups (List<ConstraintGroup>) the groups added to the rows, columns and boxes
+	 */
+	private GridShape(int box_size, int[] region_of, List<ConstraintGroup> extra_groups) {
+		this.box_size = box_size;
+		side = box_size * box_size;
+		size = side * side;
+		row_of = new int[size];
+		col_of = new int[size];
+		box_of = new int[size];
+		regular_boxes = region_of == null;
+		for (int i = 0; i < size; i++) {
+			row_of[i] = i / side;
+			col_of[i] = i % side;
+			box_of[i] = regular_boxes ? (row_of[i] / box_size) * box_size + col_of[i] / box_size : region_of[i];
+		}
+		this.extra_groups = Collections.unmodifiableList(new ArrayList<ConstraintGroup>(extra_groups));
+		// The houses go before the cages
+		List<ConstraintGroup> ordered = new ArrayList<ConstraintGroup>();
+		for (ConstraintGroup group : extra_groups) {
+			if (group.getSize() == side)
+				ordered.add(group);
+		}
+		num_of_houses = 3 * side + ordered.size();
+		for (ConstraintGroup group : extra_groups) {
+			if (group.getSize() != side)
+				ordered.add(group);
+		}
+		groups = new int[3 * side + ordered.size()][];
+		sums = new int[groups.length];
+		for (int g = 0; g < 3 * side; g++)
+			groups[g] = new int[side];
+		int[] filled = new int[side];
+		for (int i = 0; i < size; i++) {
+			groups[row_of[i]][col_of[i]] = i;
+			groups[side + col_of[i]][row_of[i]] = i;
+			groups[2 * side + box_of[i]][filled[box_of[i]]++] = i;
+		}
+		for (int k = 0; k < ordered.size(); k++) {
+			ConstraintGroup group = ordered.get(k);
+			if (group.getSize() > side)
+				throw new IllegalArgumentException("A group can't have more than " + side + " squares");
+			groups[3 * side + k] = group.getSquares();
+			sums[3 * side + k] = group.getSum();
+			for (int square : groups[3 * side + k]) {
+				if (square < 0 || square >= size)
+					throw new IllegalArgumentException("Square " + square + " isn't on a " + this + " grid");
+			}
+		}
+		int[] group_counts = new int[size];
+		for (int[] group : groups) {
+			for (int square : group)
+				group_counts[square] += 1;
+		}
+		groups_of = new int[size][];
+		for (int i = 0; i < size; i++)
+			groups_of[i] = new int[group_counts[i]];
+		int[] found = new int[size];
+		for (int g = 0; g < groups.length; g++) {
+			for (int square : groups[g])
+				groups_of[square][found[square]++] = g;
+		}
+		peers = new int[size][];
+		int[] seen = new int[size];
+		int[] peer_list = new int[size];
+		for (int i = 0; i < size; i++) {
+			int peer_count = 0;
+			for (int g : groups_of[i]) {
+				for (int square : groups[g]) {
+					if (square != i && seen[square] != i + 1) {
+						seen[square] = i + 1;
+						peer_list[peer_count++] = square;
+					}
+				}
+			}
+			peers[i] = Arrays.copyOf(peer_list, peer_count);
+			Arrays.sort(peers[i]);
+		}
+	}
+
+	/**
+	 * Returns the plain shape of the grids with the given box size.
+	 * @param box_size (int) the side length of a box, 2 - 5
+	 * @return (GridShape) the shared shape
+	 * @throws IllegalArgumentException if the box size isn't supported
+	 */
+	public static GridShape of(int box_size) {
+		checkBoxSize(box_size);
+		return SHAPES[box_size];
+	}
+
+	/**
+	 * Returns the shape of a jigsaw grid, irregular regions take the place
+	 * of the boxes.
+	 * @param box_size (int) the side length a box would have, 2 - 5
+	 * @param region_of (int[]) the region (0 to side length - 1) of every square,
+	 * every region needs as many squares as the side length
+	 * @return (GridShape) a new shape
+	 * @throws IllegalArgumentException if the box size isn't supported or a region has the wrong size
+	 */
+	public static GridShape jigsaw(int box_size, int[] region_of) {
+		checkBoxSize(box_size);
+		int side = box_size * box_size;
+		if (region_of.length != side * side)
+			throw new IllegalArgumentException("A " + side + "x" + side + " grid needs the regions of " + side * side
+					+ " squares, not " + region_of.length);
+		int[] region_sizes = new int[side];
+		for (int region : region_of) {
+			if (region < 0 || region >= side)
+				throw new IllegalArgumentException("There is no region " + region + " on a " + side + "x" + side + " grid");
+			region_sizes[region] += 1;
+		}
+		for (int region = 0; region < side; region++) {
+			if (region_sizes[region] != side)
+				throw new IllegalArgumentException("Region " + region + " has " + region_sizes[region] + " squares, not "
+						+ side);
+		}
+		return new GridShape(box_size, region_of.clone(), Collections.<ConstraintGroup>emptyList());
+	}
+
+	/**
+	 * Returns a shape with more groups than this one.
+	 * @param added_groups (List<ConstraintGroup>) the groups to add
+	 * @return (GridShape) a new shape
+	 * @throws IllegalArgumentException if a group doesn't fit on the grid
+	 */
+	public GridShape withGroups(List<ConstraintGroup> added_groups) {
+		List<ConstraintGroup> all_groups = new ArrayList<ConstraintGroup>(extra_groups);
+		all_groups.addAll(added_groups);
+		return new GridShape(box_size, regular_boxes ? null : box_of, all_groups);
+	}
+
+	/**
+	 * Throws if the box size isn't supported.
+	 * @param box_size (int) the side length of a box
+	 */
+	private static void checkBoxSize(int box_size) {
+		if (box_size < MIN_BOX_SIZE || box_size > MAX_BOX_SIZE)
+			throw new IllegalArgumentException("Box sizes go from " + MIN_BOX_SIZE + " to " + MAX_BOX_SIZE + ", not "
+					+ box_size);
+	}
+
+	public int getBoxSize() {
+		return box_size;
+	}
+
+	/**
+	 * Returns the side length of the grid, which is also the largest number.
+	 * @return (int) the side length
+	 */
+	public int getSide() {
+		return side;
+	}
+
+	/**
+	 * Returns the amount of squares of the grid.
+	 * @return (int) the side length squared
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the mask with a candidate bit for every number.
+	 * @return (long) the full candidate mask
+	 */
+	public long getAllCandidates() {
+		return (1L << side) - 1;
+	}
+
+	/**
+	 * Returns whether the grid has only the rows, columns and regular
+	 * boxes, without any variant rules.
+	 * @return (boolean) true for a plain grid
+	 */
+	public boolean isPlain() {
+		return regular_boxes && extra_groups.isEmpty();
+	}
+
+	public int rowOf(int square) {
+		return row_of[square];
+	}
+
+	public int colOf(int square) {
+		return col_of[square];
+	}
+
+	/**
+	 * Returns the box of a square, or its region on a jigsaw grid.
+	 * @param square (int) position on the grid
+	 * @return (int) the box
+	 */
+	public int boxOf(int square) {
+		return box_of[square];
+	}
+
+	/**
+	 * Returns the squares sharing a group with a square, the array is
+	 * shared and mustn't be modified.
+	 * @param square (int) position on the grid
+	 * @return (int[]) the peers
+	 */
+	public int[] getPeers(int square) {
+		return peers[square];
+	}
+
+	/**
+	 * Returns the amount of groups, the houses and the cages.
+	 * @return (int) the group count
+	 */
+	public int getNumOfGroups() {
+		return groups.length;
+	}
+
+	/**
+	 * Returns the amount of houses, they're the groups 0 to this - 1.
+	 * @return (int) the house count
+	 */
+	public int getNumOfHouses() {
+		return num_of_houses;
+	}
+
+	/**
+	 * Returns the squares of a group, the array is shared and mustn't
+	 * be modified.
+	 * @param group (int) the rows come first, then the columns, the boxes,
+	 * the other houses and the cages
+	 * @return (int[]) the squares
+	 */
+	public int[] getGroup(int group) {
+		return groups[group];
+	}
+
+	/**
+	 * Returns the sum a group has to add up to.
+	 * @param group (int) the group
+	 * @return (int) the sum, 0 for none
+	 */
+	public int getSum(int group) {
+		return sums[group];
+	}
+
+	/**
+	 * Returns the groups a square is in, in ascending order so the houses
+	 * come first, the array is shared and mustn't be modified.
+	 * @param square (int) position on the grid
+	 * @return (int[]) the groups
+	 */
+	public int[] getGroupsOf(int square) {
+		return groups_of[square];
+	}
+
+	/**
+	 * Returns the groups added to the rows, columns and boxes.
+	 * @return (List<ConstraintGroup>) the groups, unmodifiable
+	 */
+	public List<ConstraintGroup> getExtraGroups() {
+		return extra_groups;
+	}
+
+	@Override
+	public String toString() {
+		return side + "x" + side;
+	}
+}
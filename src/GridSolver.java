@@ -0,0 +1,685 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * This class is the solver engine for puzzles of any GridShape, it works
+ * like BacktrackingSolver: numbers placed during the search are pushed
+ * onto a trail and taken back off it when the search backtracks, the
+ * candidates of the unfilled squares are kept as long masks and the
+ * squares are kept in buckets by their candidate count. Naked and hidden
+ * singles are applied before branching. Sweeping every unit for hidden
+ * singles after each placement costs too much on large grids, so the
+ * solver counts the places every number has left in every unit as
+ * candidates are removed and put back, a count dropping to 1 queues a
+ * hidden single and one dropping to 0 is a contradiction.
+ * Every group of the shape is kept distinct through the peers, the place
+ * counts are kept for the houses only. A group with a sum, a killer cage,
+ * keeps the sum its unfilled squares still have to make, and whenever a
+ * number is placed in it the candidates of its other squares are cut down
+ * to the numbers found in some combination making that sum.
+ * Once constructed the solver doesn't allocate anything while searching,
+ * so it's meant to be reused for puzzles of its shape.
+ * @author Piotr Woloszyn
+ *
+ */
+public class GridSolver {
+
+	// Trail entry flag marking a placed number, other entries are removed candidates
+	private static final long PLACED = 1L << 62;
+	// The candidate bits of a trail entry start above the square
+	private static final int BITS_SHIFT = 10;
+	private static final int SQUARE_MASK = (1 << BITS_SHIFT) - 1;
+
+	// The geometry of the puzzles
+	private final GridShape shape;
+	// Index of the first bucket head in the linked list arrays
+	private final int heads;
+	// Counters since the last load(), for measuring the search
+	private long nodes;
+
+	// The puzzle the search is done on
+	private final GridPuzzle working;
+	// Watched by the search, null if the search can't be cancelled
+	private CancellationToken cancellation_token;
+	// The node count at which the search gives up, 0 for no limit
+	private long node_limit;
+	// Set when the token is cancelled or the node limit is reached
+	private boolean stopped;
+	// Picks the order the candidates are tried in, null to try them lowest first
+	private SplittableRandom random;
+	// The numbers tried first on every square, null for none
+	private GridPuzzle preferred;
+	// The amount of squares the search still has to fill
+	private int num_of_unfilled;
+	// Candidate masks of the unfilled squares
+	private final long[] candidates;
+	// Placed numbers and removed candidates in the order they happened, an entry is
+	// the square, the placed or removed candidate bits shifted by BITS_SHIFT and the PLACED flag
+	private final long[] trail;
+	// The amount of entries on the trail
+	private int trail_size;
+	// The bucket (candidate count) of every unfilled square, -1 for the other squares
+	private final int[] bucket;
+	// Circular doubly linked bucket lists, the entries from heads on are the heads of the buckets
+	private final int[] next;
+	private final int[] prev;
+	// The amount of houses, the groups 0 to this - 1
+	private final int num_of_houses;
+	// The unfilled squares of every house that have a number as a candidate,
+	// entry house * side + number - 1
+	private final int[] place_counts;
+	// Masks of the numbers placed in each house, by the puzzle or the search
+	private final long[] placed_in_unit;
+	// Hidden singles found since the last propagate(), entry house * side + number - 1
+	private final int[] single_queue;
+	private int queue_size;
+	// Set when a number has no place left in a house or a cage can't make its sum
+	private boolean contradiction;
+	// The groups with a sum each square is in
+	private final int[][] cages_of;
+	// The sum the unfilled squares of every cage still have to make, and their amount
+	private final int[] cage_remaining;
+	private final int[] cage_unfilled;
+	// Cages a number was placed in since the last propagate(), with a flag per cage
+	private final int[] cage_queue;
+	private int cage_queue_size;
+	private final boolean[] cage_queued;
+	// The numbers found in the combinations making a cage's sum, filled by collectCombinations()
+	private long combination_union;
+
+	/**
+	 * The constructor.
+	 * @param shape (GridShape) the geometry of the puzzles solved
+	 */
+	public GridSolver(GridShape shape) {
+		this.shape = shape;
+		int size = shape.getSize();
+		heads = size;
+		working = new GridPuzzle(shape);
+		candidates = new long[size];
+		trail = new long[size + size * shape.getSide()];
+		bucket = new int[size];
+		next = new int[size + shape.getSide() + 1];
+		prev = new int[size + shape.getSide() + 1];
+		num_of_houses = shape.getNumOfHouses();
+		place_counts = new int[num_of_houses * shape.getSide()];
+		placed_in_unit = new long[num_of_houses];
+		single_queue = new int[place_counts.length];
+		cages_of = new int[size][];
+		int[] cage_list = new int[shape.getNumOfGroups()];
+		for (int i = 0; i < size; i++) {
+			int cage_count = 0;
+			for (int g : shape.getGroupsOf(i)) {
+				if (shape.getSum(g) > 0)
+					cage_list[cage_count++] = g;
+			}
+			cages_of[i] = Arrays.copyOf(cage_list, cage_count);
+		}
+		cage_remaining = new int[shape.getNumOfGroups()];
+		cage_unfilled = new int[shape.getNumOfGroups()];
+		cage_queue = new int[shape.getNumOfGroups()];
+		cage_queued = new boolean[shape.getNumOfGroups()];
+	}
+
+	public GridShape getShape() {
+		return shape;
+	}
+
+	/**
+	 * Sets the token the searches watch, once it's cancelled a search
+	 * returns as soon as possible with what it found so far.
+	 * @param cancellation_token (CancellationToken) the token, or null for none
+	 */
+	public void setCancellationToken(CancellationToken cancellation_token) {
+		this.cancellation_token = cancellation_token;
+	}
+
+	/**
+	 * Sets the amount of nodes after which a search gives up.
+	 * @param node_limit (long) the node limit, 0 for no limit
+	 */
+	public void setNodeLimit(long node_limit) {
+		this.node_limit = node_limit;
+	}
+
+	/**
+	 * Returns whether the last search gave up before it was finished,
+	 * its answer can't be trusted then.
+	 * @return (boolean) true if the token was cancelled or the node limit reached
+	 */
+	public boolean wasStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Returns the number of search nodes since the last load().
+	 * @return (long) the node count
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Copies the passed puzzle into the solver, every empty square
+	 * is going to be filled by the search.
+	 * @param puzzle (GridPuzzle) the puzzle to be solved, it's not modified
+	 */
+	public void load(GridPuzzle puzzle) {
+		if (puzzle.getShape() != shape)
+			throw new IllegalArgumentException("A " + shape + " solver can't load a " + puzzle.getShape() + " grid");
+		working.copyFrom(puzzle);
+		num_of_unfilled = 0;
+		trail_size = 0;
+		stopped = false;
+		nodes = 0;
+		for (int i = heads; i < next.length; i++) {
+			next[i] = i;
+			prev[i] = i;
+		}
+		Arrays.fill(place_counts, 0);
+		Arrays.fill(placed_in_unit, 0);
+		queue_size = 0;
+		contradiction = false;
+		cage_queue_size = 0;
+		int side = shape.getSide();
+		for (int g = 0; g < cage_remaining.length; g++) {
+			cage_remaining[g] = shape.getSum(g);
+			cage_unfilled[g] = 0;
+			cage_queued[g] = false;
+		}
+		for (int i = 0; i < shape.getSize(); i++) {
+			bucket[i] = -1;
+			int num = working.getNumberAt(i);
+			int[] groups = shape.getGroupsOf(i);
+			if (num != 0) {
+				for (int k = 0; k < groups.length && groups[k] < num_of_houses; k++)
+					placed_in_unit[groups[k]] |= 1L << (num - 1);
+				for (int g : cages_of[i])
+					cage_remaining[g] -= num;
+			} else {
+				num_of_unfilled += 1;
+				candidates[i] = working.getCandidateMask(i);
+				link(i, GridPuzzle.countCandidates(candidates[i]));
+				for (long mask = candidates[i]; mask != 0; mask &= mask - 1) {
+					int number = Long.numberOfTrailingZeros(mask);
+					for (int k = 0; k < groups.length && groups[k] < num_of_houses; k++)
+						place_counts[groups[k] * side + number] += 1;
+				}
+				for (int g : cages_of[i])
+					cage_unfilled[g] += 1;
+			}
+		}
+		for (int u = 0; u < num_of_houses; u++) {
+			for (int number = 0; number < side; number++) {
+				if ((placed_in_unit[u] >>> number & 1) == 0)
+					checkPlaces(u, number);
+			}
+		}
+		for (int g = 0; g < cage_remaining.length; g++) {
+			if (shape.getSum(g) == 0)
+				continue;
+			// A cage the givens fill is never restricted, so its sum is checked here
+			if (cage_unfilled[g] == 0 && cage_remaining[g] != 0)
+				contradiction = true;
+			queueCage(g);
+		}
+	}
+
+	/**
+	 * Sets a completed grid whose numbers the searches for a solution try
+	 * first. Looking for another solution of a puzzle made from the grid
+	 * this keeps the search close to the grid, and the other solutions
+	 * that differ from it on few squares are found first.
+	 * @param preferred (GridPuzzle) the completed grid, null to try the lowest numbers first
+	 */
+	public void setPreferredSolution(GridPuzzle preferred) {
+		this.preferred = preferred;
+	}
+
+	/**
+	 * Solves the passed puzzle.
+	 * @param puzzle (GridPuzzle) the puzzle to be solved, it's not modified
+	 * @return (GridPuzzle) a solution, or null if there is none
+	 */
+	public GridPuzzle solve(GridPuzzle puzzle) {
+		load(puzzle);
+		if (!search())
+			return null;
+		GridPuzzle solution = puzzle.clone();
+		writeSolution(solution);
+		undo(0);
+		return solution;
+	}
+
+	/**
+	 * Counts the solutions of the passed puzzle up to a limit.
+	 * @param puzzle (GridPuzzle) the puzzle to be solved, it's not modified
+	 * @param limit (int) the number of solutions at which to stop
+	 * @return (int) the number of solutions found, at most limit
+	 */
+	public int countSolutions(GridPuzzle puzzle, int limit) {
+		load(puzzle);
+		int solution_count = count(limit);
+		undo(0);
+		return solution_count;
+	}
+
+	/**
+	 * Checks whether the passed puzzle has a solution that doesn't have the
+	 * given number on the given square, by taking the number out of the
+	 * square's candidates before the search.
+	 * @param puzzle (GridPuzzle) the puzzle, it's not modified
+	 * @param square (int) position on the grid
+	 * @param num (int) the number the solution mustn't have on the square
+	 * @return (boolean) true if there is such a solution
+	 */
+	public boolean hasOtherSolution(GridPuzzle puzzle, int square, int num) {
+		if (puzzle.getNumberAt(square) == num)
+			return false;
+		load(puzzle);
+		long bit = 1L << (num - 1);
+		if (bucket[square] >= 0 && (candidates[square] & bit) != 0)
+			eliminate(square, bit);
+		boolean found = search();
+		undo(0);
+		return found;
+	}
+
+	/**
+	 * Fills the empty squares of the passed puzzle with a solution, trying
+	 * the candidates in random order.
+	 * @param puzzle (GridPuzzle) the puzzle, filled in place if a solution is found
+	 * @param random (SplittableRandom) picks the order of the candidates
+	 * @return (boolean) true if the puzzle was filled
+	 */
+	public boolean fillRandomly(GridPuzzle puzzle, SplittableRandom random) {
+		load(puzzle);
+		this.random = random;
+		boolean found = search();
+		this.random = null;
+		if (found)
+			writeSolution(puzzle);
+		undo(0);
+		return found;
+	}
+
+	/**
+	 * The recursive part of the searches for one solution, the numbers of
+	 * the solution are left on the trail. On failure the changes made by
+	 * the call are left for the caller to undo.
+	 * @return (boolean) true if a solution was found
+	 */
+	private boolean search() {
+		if (isStopped() || !propagate())
+			return false;
+		if (num_of_unfilled == 0)
+			return true;
+		int current_square = selectSquare();
+		if (current_square < 0)
+			return false;
+		int mark = trail_size;
+		for (long mask = candidates[current_square]; mask != 0; ) {
+			long bit = pickCandidate(current_square, mask);
+			mask &= ~bit;
+			nodes += 1;
+			assign(current_square, bit);
+			if (search())
+				return true;
+			undo(mark);
+			if (stopped)
+				break;
+		}
+		return false;
+	}
+
+	/**
+	 * The recursive part of countSolutions(), the changes made by the
+	 * call are left for the caller to undo.
+	 * @param limit (int) the number of solutions at which to stop
+	 * @return (int) the number of solutions found, at most limit
+	 */
+	private int count(int limit) {
+		if (isStopped() || !propagate())
+			return 0;
+		if (num_of_unfilled == 0)
+			return 1;
+		int current_square = selectSquare();
+		if (current_square < 0)
+			return 0;
+		int mark = trail_size;
+		int solution_count = 0;
+		for (long mask = candidates[current_square]; mask != 0; mask &= mask - 1) {
+			nodes += 1;
+			assign(current_square, mask & -mask);
+			solution_count += count(limit - solution_count);
+			undo(mark);
+			if (solution_count >= limit || stopped)
+				break;
+		}
+		return solution_count;
+	}
+
+	/**
+	 * Picks the candidate to try next, the number of the preferred
+	 * solution if it's left, otherwise the lowest one or a random one.
+	 * @param square (int) the square being branched on
+	 * @param mask (long) the candidates not tried yet
+	 * @return (long) the mask bit of the candidate
+	 */
+	private long pickCandidate(int square, long mask) {
+		if (preferred != null) {
+			long bit = 1L << (preferred.getNumberAt(square) - 1);
+			if ((mask & bit) != 0)
+				return bit;
+		}
+		if (random == null)
+			return mask & -mask;
+		for (int k = random.nextInt(GridPuzzle.countCandidates(mask)); k > 0; k--)
+			mask &= mask - 1;
+		return mask & -mask;
+	}
+
+	/**
+	 * Writes the loaded puzzle with the numbers placed on the trail
+	 * into the passed puzzle.
+	 * @param puzzle (GridPuzzle) the puzzle to write to
+	 */
+	private void writeSolution(GridPuzzle puzzle) {
+		if (puzzle != working)
+			puzzle.copyFrom(working);
+		for (int i = 0; i < trail_size; i++) {
+			long entry = trail[i];
+			if ((entry & PLACED) != 0)
+				puzzle.setSquare((int) entry & SQUARE_MASK, GridPuzzle.lowestCandidate(entry >>> BITS_SHIFT));
+		}
+	}
+
+	/**
+	 * Checks whether the search has to stop.
+	 * @return (boolean) true if the token is cancelled or the node limit reached
+	 */
+	private boolean isStopped() {
+		if (!stopped) {
+			if (cancellation_token != null && cancellation_token.isCancelled())
+				stopped = true;
+			else if (node_limit > 0 && nodes >= node_limit)
+				stopped = true;
+		}
+		return stopped;
+	}
+
+	/**
+	 * Applies naked and hidden singles and the cage sums until none of
+	 * them changes anything.
+	 * @return (boolean) false if a contradiction was found
+	 */
+	private boolean propagate() {
+		while (!contradiction && next[heads] == heads) {
+			if (next[heads + 1] != heads + 1) {
+				int square = next[heads + 1];
+				assign(square, candidates[square]);
+			} else if (queue_size > 0) {
+				hiddenSingle(single_queue[--queue_size]);
+			} else if (cage_queue_size > 0) {
+				int g = cage_queue[--cage_queue_size];
+				cage_queued[g] = false;
+				restrictCage(g);
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Queues a cage whose candidates have to be checked against its sum.
+	 * @param g (int) the cage
+	 */
+	private void queueCage(int g) {
+		if (!cage_queued[g]) {
+			cage_queued[g] = true;
+			cage_queue[cage_queue_size++] = g;
+		}
+	}
+
+	/**
+	 * Removes the candidates of a cage's unfilled squares that aren't in any
+	 * combination of different numbers making the sum the cage still needs.
+	 * No combination at all is a contradiction.
+	 * @param g (int) the cage
+	 */
+	private void restrictCage(int g) {
+		if (cage_unfilled[g] == 0)
+			return;
+		int[] squares = shape.getGroup(g);
+		long available = 0;
+		for (int square : squares) {
+			if (bucket[square] >= 0)
+				available |= candidates[square];
+		}
+		combination_union = 0;
+		collectCombinations(available, cage_unfilled[g], cage_remaining[g], 0);
+		if (combination_union == 0) {
+			contradiction = true;
+			return;
+		}
+		for (int square : squares) {
+			if (bucket[square] >= 0 && (candidates[square] & ~combination_union) != 0)
+				eliminate(square, candidates[square] & ~combination_union);
+		}
+	}
+
+	/**
+	 * Adds the numbers of every combination of count different numbers from
+	 * a mask that add up to a sum to combination_union. The numbers are
+	 * picked in ascending order, so the search stops once the smallest
+	 * number left times the count is over the sum.
+	 * @param available (long) the numbers that may still be picked
+	 * @param count (int) the amount of numbers still to pick
+	 * @param sum (int) the sum they have to make
+	 * @param picked (long) the numbers picked so far
+	 */
+	private void collectCombinations(long available, int count, int sum, long picked) {
+		if (count == 0) {
+			if (sum == 0)
+				combination_union |= picked;
+			return;
+		}
+		for (long mask = available; mask != 0; mask &= mask - 1) {
+			long bit = mask & -mask;
+			int num = Long.numberOfTrailingZeros(mask) + 1;
+			if (num * count > sum)
+				return;
+			collectCombinations(mask & ~bit, count - 1, sum - num, picked | bit);
+		}
+	}
+
+	/**
+	 * Places a number in the only square of a house that can take it, if
+	 * that's still the case.
+	 * @param entry (int) the house times the side length plus the number - 1
+	 */
+	private void hiddenSingle(int entry) {
+		int side = shape.getSide();
+		int u = entry / side;
+		long bit = 1L << (entry - u * side);
+		if (place_counts[entry] != 1 || (placed_in_unit[u] & bit) != 0)
+			return;
+		int[] unit = shape.getGroup(u);
+		for (int i = 0; i < side; i++) {
+			int square = unit[i];
+			if (bucket[square] >= 0 && (candidates[square] & bit) != 0) {
+				if (candidates[square] != bit)
+					eliminate(square, candidates[square] & ~bit);
+				assign(square, bit);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Looks at the places a number has left in a house it isn't placed in,
+	 * a single place is queued as a hidden single and none is a contradiction.
+	 * @param u (int) the house
+	 * @param number (int) the number - 1
+	 */
+	private void checkPlaces(int u, int number) {
+		int entry = u * shape.getSide() + number;
+		if (place_counts[entry] == 1)
+			single_queue[queue_size++] = entry;
+		else if (place_counts[entry] == 0)
+			contradiction = true;
+	}
+
+	/**
+	 * Takes candidates of a square off the place counts of its houses.
+	 * @param square (int) position on the grid
+	 * @param bits (long) the candidates
+	 */
+	private void removePlaces(int square, long bits) {
+		int side = shape.getSide();
+		int[] groups = shape.getGroupsOf(square);
+		for (int k = 0; k < groups.length && groups[k] < num_of_houses; k++) {
+			int u = groups[k];
+			for (long mask = bits; mask != 0; mask &= mask - 1) {
+				int number = Long.numberOfTrailingZeros(mask);
+				place_counts[u * side + number] -= 1;
+				if (place_counts[u * side + number] <= 1 && (placed_in_unit[u] >>> number & 1) == 0)
+					checkPlaces(u, number);
+			}
+		}
+	}
+
+	/**
+	 * Puts candidates of a square back on the place counts of its houses.
+	 * @param square (int) position on the grid
+	 * @param bits (long) the candidates
+	 */
+	private void restorePlaces(int square, long bits) {
+		int side = shape.getSide();
+		int[] groups = shape.getGroupsOf(square);
+		for (int k = 0; k < groups.length && groups[k] < num_of_houses; k++) {
+			int u = groups[k];
+			for (long mask = bits; mask != 0; mask &= mask - 1)
+				place_counts[u * side + Long.numberOfTrailingZeros(mask)] += 1;
+		}
+	}
+
+	/**
+	 * Returns an unfilled square with the fewest candidates.
+	 * @return (int) the selected square, or -1 if a square has no candidates
+	 */
+	private int selectSquare() {
+		if (next[heads] != heads)
+			return -1;
+		for (int i = heads + 1; i < next.length; i++) {
+			if (next[i] != i)
+				return next[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Places a number, removes it from the candidates of the square's
+	 * peers and records all of it on the trail. The working puzzle
+	 * itself is only written once a solution is found. A cage filled
+	 * without making its sum is a contradiction, the others are queued.
+	 * @param square (int) position on the grid
+	 * @param bit (long) the mask bit of the number being placed
+	 */
+	private void assign(int square, long bit) {
+		unlink(square);
+		num_of_unfilled -= 1;
+		trail[trail_size++] = square | bit << BITS_SHIFT | PLACED;
+		int[] groups = shape.getGroupsOf(square);
+		for (int k = 0; k < groups.length && groups[k] < num_of_houses; k++)
+			placed_in_unit[groups[k]] |= bit;
+		int num = GridPuzzle.lowestCandidate(bit);
+		for (int g : cages_of[square]) {
+			cage_remaining[g] -= num;
+			cage_unfilled[g] -= 1;
+			if (cage_unfilled[g] == 0 && cage_remaining[g] != 0)
+				contradiction = true;
+			else
+				queueCage(g);
+		}
+		removePlaces(square, candidates[square]);
+		int[] peers = shape.getPeers(square);
+		for (int i = 0; i < peers.length; i++) {
+			int peer = peers[i];
+			if (bucket[peer] >= 0 && (candidates[peer] & bit) != 0)
+				eliminate(peer, bit);
+		}
+	}
+
+	/**
+	 * Removes candidates from an unfilled square and records it on the trail.
+	 * @param square (int) position on the grid
+	 * @param bits (long) mask of the candidates being removed
+	 */
+	private void eliminate(int square, long bits) {
+		candidates[square] &= ~bits;
+		trail[trail_size++] = square | bits << BITS_SHIFT;
+		removePlaces(square, bits);
+		unlink(square);
+		link(square, GridPuzzle.countCandidates(candidates[square]));
+	}
+
+	/**
+	 * Takes back every change made since the trail had the given size,
+	 * the queued hidden singles and cages belonged to the state taken back.
+	 * @param mark (int) the trail size to go back to
+	 */
+	private void undo(int mark) {
+		queue_size = 0;
+		contradiction = false;
+		while (cage_queue_size > 0)
+			cage_queued[cage_queue[--cage_queue_size]] = false;
+		while (trail_size > mark) {
+			long entry = trail[--trail_size];
+			int square = (int) entry & SQUARE_MASK;
+			long bits = (entry & ~PLACED) >>> BITS_SHIFT;
+			if ((entry & PLACED) != 0) {
+				num_of_unfilled += 1;
+				int[] groups = shape.getGroupsOf(square);
+				for (int k = 0; k < groups.length && groups[k] < num_of_houses; k++)
+					placed_in_unit[groups[k]] &= ~bits;
+				int num = GridPuzzle.lowestCandidate(bits);
+				for (int g : cages_of[square]) {
+					cage_remaining[g] += num;
+					cage_unfilled[g] += 1;
+				}
+				restorePlaces(square, candidates[square]);
+			} else {
+				candidates[square] |= bits;
+				restorePlaces(square, bits);
+				unlink(square);
+			}
+			link(square, GridPuzzle.countCandidates(candidates[square]));
+		}
+	}
+
+	/**
+	 * Puts a square at the back of the bucket with the given count.
+	 * @param square (int) position on the grid
+	 * @param count (int) the bucket, which is the square's candidate count
+	 */
+	private void link(int square, int count) {
+		int head = heads + count;
+		bucket[square] = count;
+		prev[square] = prev[head];
+		next[square] = head;
+		next[prev[head]] = square;
+		prev[head] = square;
+	}
+
+	/**
+	 * Takes a square out of its bucket.
+	 * @param square (int) position on the grid
+	 */
+	private void unlink(int square) {
+		next[prev[square]] = next[square];
+		prev[next[square]] = prev[square];
+		bucket[square] = -1;
+	}
+}
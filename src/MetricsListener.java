@@ -0,0 +1,46 @@
+/**
+ * This interface receives the measurements of the BacktrackingSolver
+ * searches and the SudokuGen puzzles, once per call so nothing is added
+ * to the search loops. Everything is passed as numbers, a call allocates
+ * nothing. NONE is the default of every solver and generator, they don't
+ * read the clock while it's set, so measuring costs nothing until a
+ * listener like MetricsRecorder is set, see SolverModule.setMetricsListener().
+ * A listener can be called by several threads at once.
+ * @author Piotr Woloszyn
+ *
+ */
+public interface MetricsListener {
+
+	// The listener that ignores everything
+	public static final MetricsListener NONE = new MetricsListener() {
+		@Override
+		public void searchFinished(long nodes, long backtracks, int max_depth, long propagations, long nanos) {
+			// Nothing here
+		}
+
+		@Override
+		public void puzzleGenerated(long trim_attempts, long removals, long searches, long nanos) {
+			// Nothing here
+		}
+	};
+
+	/**
+	 * Called at the end of every search of a solver.
+	 * @param nodes (long) the branches tried, each searched in place instead of on a clone
+	 * @param backtracks (long) the branches taken back
+	 * @param max_depth (int) the most branches on top of each other since the puzzle was loaded
+	 * @param propagations (long) the numbers placed and candidates removed by the rules
+	 * @param nanos (long) how long the search took
+	 */
+	public void searchFinished(long nodes, long backtracks, int max_depth, long propagations, long nanos);
+
+	/**
+	 * Called for every puzzle a generator returns, the counts include the
+	 * puzzles thrown away on the way.
+	 * @param trim_attempts (long) the squares, or symmetric pairs, the trimming tried to remove
+	 * @param removals (long) the attempts that kept the puzzle unique
+	 * @param searches (long) the uniqueness checks that needed a search
+	 * @param nanos (long) how long the puzzle took
+	 */
+	public void puzzleGenerated(long trim_attempts, long removals, long searches, long nanos);
+}
@@ -0,0 +1,277 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class is a MetricsListener that adds up what it receives from any
+ * number of threads: the search nodes, backtracks, deepest search and
+ * propagations of the solvers, the trimming of the generators, and the
+ * time of every call in a latency histogram with a bucket per power of
+ * two nanoseconds, so the percentiles are within a factor of two.
+ * The totals can be read with the getters, over JMX once register() is
+ * called, or as text from getSnapshot().
+ * @author Piotr Woloszyn
+ *
+ */
+public class MetricsRecorder implements MetricsListener, MetricsRecorderMBean {
+
+	// The JMX name register() uses if none is given
+	public static final String DEFAULT_NAME = "Sudoku:type=MetricsRecorder";
+
+	/**
+	 * A latency histogram, bucket b counts the calls that took from 2^b
+	 * to 2^(b + 1) - 1 nanoseconds.
+	 */
+	private static class Histogram {
+		// Bucket 39 starts at about 9 minutes, longer calls go into it too
+		static final int NUM_OF_BUCKETS = 40;
+
+		final LongAdder[] buckets = new LongAdder[NUM_OF_BUCKETS];
+		final LongAdder count = new LongAdder();
+		final LongAdder total_nanos = new LongAdder();
+		final LongAccumulator max_nanos = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+			for (int b = 0; b < NUM_OF_BUCKETS; b++)
+				buckets[b] = new LongAdder();
+		}
+
+		void add(long nanos) {
+			int b = 63 - Long.numberOfLeadingZeros(nanos | 1);
+			buckets[Math.min(b, NUM_OF_BUCKETS - 1)].increment();
+			count.increment();
+			total_nanos.add(nanos);
+			max_nanos.accumulate(nanos);
+		}
+
+		double meanMicros() {
+			long calls = count.sum();
+			return (calls > 0) ? total_nanos.sum() / 1e3 / calls : 0;
+		}
+
+		/**
+		 * Returns the end of the bucket holding a share of the calls,
+		 * never more than the longest call.
+		 * @param share (double) from 0 to 1, 0.99 for the 99th percentile
+		 * @return (double) the microseconds, 0 before the first call
+		 */
+		double percentileMicros(double share) {
+			long calls = count.sum();
+			if (calls == 0)
+				return 0;
+			long wanted = (long) Math.ceil(calls * share);
+			long seen = 0;
+			int b = 0;
+			while (b < NUM_OF_BUCKETS - 1) {
+				seen += buckets[b].sum();
+				if (seen >= wanted)
+					break;
+				b += 1;
+			}
+			return Math.min(1L << (b + 1), max_nanos.get()) / 1e3;
+		}
+
+		void reset() {
+			for (LongAdder bucket : buckets)
+				bucket.reset();
+			count.reset();
+			total_nanos.reset();
+			max_nanos.reset();
+		}
+
+		void appendTo(StringBuilder text, String name) {
+			text.append(String.format("%s: mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us%n", name,
+					meanMicros(), percentileMicros(0.5), percentileMicros(0.99), max_nanos.get() / 1e3));
+			for (int b = 0; b < NUM_OF_BUCKETS; b++) {
+				long calls = buckets[b].sum();
+				if (calls > 0)
+					text.append(String.format("  %12.3f - %12.3f us %12d%n", (1L << b) / 1e3, (1L << (b + 1)) / 1e3,
+							calls));
+			}
+		}
+	}
+
+	// The solver totals
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder backtracks = new LongAdder();
+	private final LongAccumulator max_depth = new LongAccumulator(Math::max, 0);
+	private final LongAdder propagations = new LongAdder();
+	private final Histogram search_times = new Histogram();
+	// The generator totals
+	private final LongAdder trim_attempts = new LongAdder();
+	private final LongAdder removals = new LongAdder();
+	private final LongAdder uniqueness_searches = new LongAdder();
+	private final Histogram puzzle_times = new Histogram();
+
+	@Override
+	public void searchFinished(long nodes, long backtracks, int max_depth, long propagations, long nanos) {
+		this.nodes.add(nodes);
+		this.backtracks.add(backtracks);
+		this.max_depth.accumulate(max_depth);
+		this.propagations.add(propagations);
+		search_times.add(nanos);
+	}
+
+	@Override
+	public void puzzleGenerated(long trim_attempts, long removals, long searches, long nanos) {
+		this.trim_attempts.add(trim_attempts);
+		this.removals.add(removals);
+		uniqueness_searches.add(searches);
+		puzzle_times.add(nanos);
+	}
+
+	/**
+	 * Registers the recorder with the platform MBean server under DEFAULT_NAME.
+	 * @return (ObjectName) the name it was registered under
+	 * @throws JMException if the name is taken or the server refuses the bean
+	 */
+	public ObjectName register() throws JMException {
+		return register(DEFAULT_NAME);
+	}
+
+	/**
+	 * Registers the recorder with the platform MBean server.
+	 * @param name (String) the JMX object name, like "Sudoku:type=MetricsRecorder"
+	 * @return (ObjectName) the name it was registered under
+	 * @throws JMException if the name is invalid or taken, or the server refuses the bean
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName object_name = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, object_name);
+		return object_name;
+	}
+
+	@Override
+	public long getSearchCount() {
+		return search_times.count.sum();
+	}
+
+	@Override
+	public long getNodeCount() {
+		return nodes.sum();
+	}
+
+	@Override
+	public long getBacktrackCount() {
+		return backtracks.sum();
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return (int) max_depth.get();
+	}
+
+	/**
+	 * Returns the numbers placed and candidates removed by the rules
+	 * instead of by branching.
+	 * @return (long) the propagation count
+	 */
+	@Override
+	public long getPropagationCount() {
+		return propagations.sum();
+	}
+
+	@Override
+	public double getMeanSearchMicros() {
+		return search_times.meanMicros();
+	}
+
+	@Override
+	public double getSearchMicrosP50() {
+		return search_times.percentileMicros(0.5);
+	}
+
+	@Override
+	public double getSearchMicrosP99() {
+		return search_times.percentileMicros(0.99);
+	}
+
+	@Override
+	public double getMaxSearchMicros() {
+		return search_times.max_nanos.get() / 1e3;
+	}
+
+	@Override
+	public long getPuzzleCount() {
+		return puzzle_times.count.sum();
+	}
+
+	@Override
+	public long getTrimAttemptCount() {
+		return trim_attempts.sum();
+	}
+
+	@Override
+	public long getRemovalCount() {
+		return removals.sum();
+	}
+
+	@Override
+	public long getUniquenessSearchCount() {
+		return uniqueness_searches.sum();
+	}
+
+	@Override
+	public double getMeanPuzzleMicros() {
+		return puzzle_times.meanMicros();
+	}
+
+	@Override
+	public double getPuzzleMicrosP99() {
+		return puzzle_times.percentileMicros(0.99);
+	}
+
+	/**
+	 * Returns the totals and both latency histograms as text, one line
+	 * per total and per bucket that was used.
+	 * @return (String) the snapshot
+	 */
+	@Override
+	public String getSnapshot() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("searches: %d, %d nodes, %d backtracks, max depth %d, %d propagations%n",
+				getSearchCount(), getNodeCount(), getBacktrackCount(), getMaxDepth(), getPropagationCount()));
+		search_times.appendTo(text, "search latency");
+		text.append(String.format("puzzles: %d, %d trim attempts, %d removals (%.1f%%), %d uniqueness searches%n",
+				getPuzzleCount(), getTrimAttemptCount(), getRemovalCount(), getRemovalRate() * 100,
+				getUniquenessSearchCount()));
+		puzzle_times.appendTo(text, "puzzle latency");
+		return text.toString();
+	}
+
+	/**
+	 * Returns the share of the trim attempts that removed a clue.
+	 * @return (double) the removal rate from 0 to 1, 0 before the first attempt
+	 */
+	public double getRemovalRate() {
+		long attempts = trim_attempts.sum();
+		return (attempts > 0) ? (double) removals.sum() / attempts : 0;
+	}
+
+	/**
+	 * Sets everything back to 0, calls finishing meanwhile may be
+	 * partly counted.
+	 */
+	@Override
+	public void reset() {
+		nodes.reset();
+		backtracks.reset();
+		max_depth.reset();
+		propagations.reset();
+		search_times.reset();
+		trim_attempts.reset();
+		removals.reset();
+		uniqueness_searches.reset();
+		puzzle_times.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d searches, %d nodes, %d backtracks, max depth %d, %.1f us mean, %.1f us p99; "
+				+ "%d puzzles, %d/%d removals, %.1f us mean", getSearchCount(), getNodeCount(), getBacktrackCount(),
+				getMaxDepth(), getMeanSearchMicros(), getSearchMicrosP99(), getPuzzleCount(), getRemovalCount(),
+				getTrimAttemptCount(), getMeanPuzzleMicros());
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * This interface is what MetricsRecorder shows over JMX, every getter is
+ * a read only attribute and reset() an operation.
+ * @author Piotr Woloszyn
+ *
+ */
+public interface MetricsRecorderMBean {
+
+	public long getSearchCount();
+
+	public long getNodeCount();
+
+	public long getBacktrackCount();
+
+	public int getMaxDepth();
+
+	public long getPropagationCount();
+
+	public double getMeanSearchMicros();
+
+	public double getSearchMicrosP50();
+
+	public double getSearchMicrosP99();
+
+	public double getMaxSearchMicros();
+
+	public long getPuzzleCount();
+
+	public long getTrimAttemptCount();
+
+	public long getRemovalCount();
+
+	public long getUniquenessSearchCount();
+
+	public double getMeanPuzzleMicros();
+
+	public double getPuzzleMicrosP99();
+
+	public String getSnapshot();
+
+	public void reset();
+}
@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class counts solutions on several threads. The top levels of the
+ * search tree are split into fork join tasks, one per candidate of the
+ * most constrained square, down to the cutoff depth where every task is
+ * finished by the worker thread's own BacktrackingSolver. All the tasks
+ * add their solutions to a shared counter, and the first one to reach the
+ * limit cancels the others. Solving and enumerating are done sequentially
+ * on the calling thread.
+ * @author Piotr Woloszyn
+ *
+ */
+public class ParallelSolver implements SudokuSolver {
+
+	// The pool the tasks run in
+	private final ForkJoinPool pool;
+	// The depth at which the tasks stop splitting
+	private final int cutoff_depth;
+	// The token the searches watch, null for none
+	private CancellationToken cancellation_token;
+
+	/**
+	 * The constructor, uses the common fork join pool and a cutoff depth of 3.
+	 */
+	public ParallelSolver() {
+		this(ForkJoinPool.commonPool(), 3);
+	}
+
+	/**
+	 * The constructor.
+	 * @param pool (ForkJoinPool) the pool the tasks run in
+	 * @param cutoff_depth (int) the depth at which the tasks stop splitting,
+	 * 0 runs the whole search as one task
+	 */
+	public ParallelSolver(ForkJoinPool pool, int cutoff_depth) {
+		this.pool = pool;
+		this.cutoff_depth = cutoff_depth;
+	}
+
+	@Override
+	public SudokuPuzzle solve(SudokuPuzzle sudoku) {
+		BacktrackingSolver engine = BacktrackingSolver.forCurrentThread();
+		CancellationToken previous_token = engine.getCancellationToken();
+		engine.setCancellationToken(cancellation_token);
+		try {
+			return engine.solve(sudoku);
+		} finally {
+			engine.setCancellationToken(previous_token);
+		}
+	}
+
+	@Override
+	public int countSolutions(SudokuPuzzle sudoku, int limit) {
+		return (int) countAllSolutions(sudoku, limit);
+	}
+
+	@Override
+	public long countAllSolutions(SudokuPuzzle sudoku, long limit) {
+		AtomicLong solution_count = new AtomicLong();
+		CancellationToken token = new CancellationToken(cancellation_token);
+		pool.invoke(new CountTask(sudoku.clone(), 0, limit, solution_count, token));
+		return Math.min(solution_count.get(), limit);
+	}
+
+	@Override
+	public int enumerateSolutions(SudokuPuzzle sudoku, int limit, SolutionListener listener) {
+		BacktrackingSolver engine = BacktrackingSolver.forCurrentThread();
+		CancellationToken previous_token = engine.getCancellationToken();
+		engine.setCancellationToken(cancellation_token);
+		try {
+			return engine.enumerateSolutions(sudoku, limit, listener);
+		} finally {
+			engine.setCancellationToken(previous_token);
+		}
+	}
+
+	@Override
+	public void setCancellationToken(CancellationToken cancellation_token) {
+		this.cancellation_token = cancellation_token;
+	}
+
+	/**
+	 * A task counting the solutions of one branch of the search tree.
+	 */
+	private class CountTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		// The puzzle with the numbers of this branch placed, owned by the task
+		private final SudokuPuzzle sudoku;
+		// The depth of the branch in the search tree
+		private final int depth;
+		// The number of solutions at which the whole search stops
+		private final long limit;
+		// The solutions found by all tasks together
+		private final AtomicLong solution_count;
+		// Cancelled once the limit is reached
+		private final CancellationToken token;
+
+		/**
+		 * The constructor.
+		 * @param sudoku (SudokuPuzzle) the branch's puzzle, owned by the task
+		 * @param depth (int) the depth of the branch
+		 * @param limit (long) the number of solutions at which to stop
+		 * @param solution_count (AtomicLong) the shared solution counter
+		 * @param token (CancellationToken) the shared early exit flag
+		 */
+		CountTask(SudokuPuzzle sudoku, int depth, long limit, AtomicLong solution_count, CancellationToken token) {
+			this.sudoku = sudoku;
+			this.depth = depth;
+			this.limit = limit;
+			this.solution_count = solution_count;
+			this.token = token;
+		}
+
+		@Override
+		protected void compute() {
+			if (token.isCancelled())
+				return;
+			if (depth >= cutoff_depth) {
+				countSequentially();
+				return;
+			}
+			int current_square = -1;
+			int best_count = 10;
+			for (int i = 0; i < 81; i++) {
+				if (sudoku.getNumberAt(i) == 0) {
+					int count = sudoku.getCandidateCount(i);
+					if (count < best_count) {
+						current_square = i;
+						best_count = count;
+					}
+				}
+			}
+			if (current_square < 0) {
+				addSolutions(1);
+				return;
+			}
+			if (best_count <= 1) {
+				// Nothing to split here, let the sequential search propagate it
+				countSequentially();
+				return;
+			}
+			ArrayList<CountTask> branches = new ArrayList<CountTask>();
+			for (int mask = sudoku.getCandidateMask(current_square); mask != 0; mask &= mask - 1) {
+				SudokuPuzzle branch = sudoku.clone();
+				branch.setSquare(current_square, SudokuPuzzle.lowestCandidate(mask));
+				branches.add(new CountTask(branch, depth + 1, limit, solution_count, token));
+			}
+			invokeAll(branches);
+		}
+
+		/**
+		 * Counts the branch's solutions with the worker thread's solver.
+		 */
+		private void countSequentially() {
+			BacktrackingSolver engine = BacktrackingSolver.forCurrentThread();
+			CancellationToken previous_token = engine.getCancellationToken();
+			engine.setCancellationToken(token);
+			try {
+				engine.load(sudoku);
+				addSolutions(engine.countAllSolutions(limit));
+			} finally {
+				engine.setCancellationToken(previous_token);
+			}
+		}
+
+		/**
+		 * Adds solutions to the shared counter, cancelling the search at the limit.
+		 * @param found (long) the number of solutions found
+		 */
+		private void addSolutions(long found) {
+			if (found > 0 && solution_count.addAndGet(found) >= limit)
+				token.cancel();
+		}
+	}
+}
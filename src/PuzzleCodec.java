@@ -0,0 +1,73 @@
+import java.nio.ByteBuffer;
+
+/**
+ * This class packs puzzles into a compact binary form, every square
+ * takes 4 bits (0 for empty, 1 - 9 for a number), two squares to a byte,
+ * so a whole grid fits in 41 bytes instead of 81 characters of text.
+ * Square i is in byte i / 2, the even squares in the low 4 bits.
+ * @author Piotr Woloszyn
+ *
+ */
+public class PuzzleCodec {
+
+	// The amount of bytes an encoded grid takes
+	public static final int ENCODED_SIZE = 41;
+
+	/**
+	 * Encodes the grid of a puzzle.
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @return (byte[]) the encoded grid
+	 */
+	public static byte[] encode(SudokuPuzzle sudoku) {
+		byte[] out = new byte[ENCODED_SIZE];
+		encode(sudoku, ByteBuffer.wrap(out), 0);
+		return out;
+	}
+
+	/**
+	 * Encodes the grid of a puzzle into a buffer, the position of the
+	 * buffer isn't changed.
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @param buffer (ByteBuffer) receives the ENCODED_SIZE bytes
+	 * @param offset (int) where in the buffer they go
+	 */
+	public static void encode(SudokuPuzzle sudoku, ByteBuffer buffer, int offset) {
+		for (int i = 0; i < 80; i += 2)
+			buffer.put(offset + i / 2, (byte) (sudoku.getNumberAt(i) | sudoku.getNumberAt(i + 1) << 4));
+		buffer.put(offset + 40, (byte) sudoku.getNumberAt(80));
+	}
+
+	/**
+	 * Decodes a grid into a new puzzle, the clue count is set from the grid.
+	 * @param data (byte[]) the encoded grid
+	 * @return (SudokuPuzzle) the puzzle
+	 * @throws IllegalArgumentException if the data isn't a valid grid
+	 */
+	public static SudokuPuzzle decode(byte[] data) {
+		SudokuPuzzle sudoku = new SudokuPuzzle();
+		decode(ByteBuffer.wrap(data), 0, sudoku);
+		return sudoku;
+	}
+
+	/**
+	 * Decodes a grid from a buffer into the passed puzzle, the clue count
+	 * is set from the grid and the position of the buffer isn't changed.
+	 * @param buffer (ByteBuffer) holds the encoded grid
+	 * @param offset (int) where in the buffer it starts
+	 * @param sudoku (SudokuPuzzle) receives the grid, its old contents are cleared
+	 * @throws IllegalArgumentException if the data isn't a valid grid
+	 */
+	public static void decode(ByteBuffer buffer, int offset, SudokuPuzzle sudoku) {
+		sudoku.clear();
+		int clues = 0;
+		for (int i = 0; i < 81; i++) {
+			int num = (buffer.get(offset + i / 2) >> ((i & 1) << 2)) & 0xF;
+			if (num == 0)
+				continue;
+			if (num > 9 || !sudoku.setSquare(i, num))
+				throw new IllegalArgumentException("Bad number " + num + " at square " + i);
+			clues += 1;
+		}
+		sudoku.setNumOfClues(clues);
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * This class holds the requirements a generated puzzle has to meet.
+ * @author Piotr Woloszyn
+ *
+ */
+public class PuzzleConstraints {
+
+	// Clues aren't removed below this number
+	private int min_clues = 17;
+	// Puzzles with more clues than this are thrown away
+	private int max_clues = 81;
+	// Puzzles whose DifficultyGrader score is outside this range are thrown away
+	private double min_score = 0;
+	private double max_score = Double.MAX_VALUE;
+	// The symmetry kept while trimming clues
+	private Symmetry symmetry = Symmetry.NONE;
+	// The squares that keep their clues, null to trim freely
+	private boolean[] clue_mask;
+	private int num_of_mask_clues;
+
+	/**
+	 * The constructor, any unique puzzle is accepted.
+	 */
+	public PuzzleConstraints() {
+		// Nothing here
+	}
+
+	/**
+	 * The constructor.
+	 * @param min_clues (int) clues aren't removed below this number, at least 17
+	 * @param max_clues (int) puzzles with more clues than this are thrown away
+	 * @throws IllegalArgumentException if max_clues is below min_clues or 17
+	 */
+	public PuzzleConstraints(int min_clues, int max_clues) {
+		setMaxClues(max_clues);
+		setMinClues(min_clues);
+	}
+
+	/**
+	 * Sets the number of clues below which no clue is removed.
+	 * @param min_clues (int) the minimum, raised to 17 if lower
+	 * @throws IllegalArgumentException if it's above the maximum
+	 */
+	public void setMinClues(int min_clues) {
+		int clues = (min_clues > 17) ? min_clues : 17;
+		if (clues > max_clues)
+			throw new IllegalArgumentException("The minimum of " + clues + " clues is above the maximum of " + max_clues);
+		this.min_clues = clues;
+	}
+
+	/**
+	 * Sets the number of clues above which puzzles are thrown away.
+	 * @param max_clues (int) the maximum
+	 * @throws IllegalArgumentException if it's below the minimum
+	 */
+	public void setMaxClues(int max_clues) {
+		if (max_clues < min_clues)
+			throw new IllegalArgumentException("The maximum of " + max_clues + " clues is below the minimum of " + min_clues);
+		this.max_clues = max_clues;
+	}
+
+	/**
+	 * Returns the number of clues below which no clue is removed.
+	 * @return (int) the minimum, at least 17
+	 */
+	public int getMinClues() {
+		return min_clues;
+	}
+
+	/**
+	 * Returns the number of clues above which puzzles are thrown away.
+	 * @return (int) the maximum
+	 */
+	public int getMaxClues() {
+		return max_clues;
+	}
+
+	/**
+	 * Sets the range of DifficultyGrader scores accepted, both ends included.
+	 * @param min_score (double) the lowest score accepted
+	 * @param max_score (double) the highest score accepted
+	 * @throws IllegalArgumentException if max_score is below min_score
+	 */
+	public void setScoreRange(double min_score, double max_score) {
+		if (min_score > max_score)
+			throw new IllegalArgumentException("The score range " + min_score + " - " + max_score + " is empty");
+		this.min_score = min_score;
+		this.max_score = max_score;
+	}
+
+	/**
+	 * Returns the lowest DifficultyGrader score accepted.
+	 * @return (double) the lowest score, 0 for no limit
+	 */
+	public double getMinScore() {
+		return min_score;
+	}
+
+	/**
+	 * Returns the highest DifficultyGrader score accepted.
+	 * @return (double) the highest score, Double.MAX_VALUE for no limit
+	 */
+	public double getMaxScore() {
+		return max_score;
+	}
+
+	/**
+	 * Returns whether the puzzles have to be graded, only then the
+	 * generator runs the DifficultyGrader.
+	 * @return (boolean) true if a score range was set
+	 */
+	public boolean hasScoreRange() {
+		return min_score > 0 || max_score < Double.MAX_VALUE;
+	}
+
+	/**
+	 * Returns whether a score is within the range.
+	 * @param score (double) the DifficultyGrader score
+	 * @return (boolean) true if the score is accepted
+	 */
+	public boolean acceptsScore(double score) {
+		return score >= min_score && score <= max_score;
+	}
+
+	/**
+	 * Sets the symmetry kept while trimming, the partner squares of the
+	 * symmetry are removed together. It's ignored if a clue mask is set.
+	 * @param symmetry (Symmetry) the symmetry, NONE to remove squares one at a time
+	 */
+	public void setSymmetry(Symmetry symmetry) {
+		this.symmetry = (symmetry != null) ? symmetry : Symmetry.NONE;
+	}
+
+	/**
+	 * Returns the symmetry kept while trimming.
+	 * @return (Symmetry) the symmetry, NONE if squares are removed one at a time
+	 */
+	public Symmetry getSymmetry() {
+		return symmetry;
+	}
+
+	/**
+	 * Sets the squares the puzzle has its clues on, instead of trimming the
+	 * generator empties every other square at once and keeps the grid if
+	 * that leaves a unique puzzle. The mask uses the one line puzzle
+	 * format, 81 characters row by row with '.' or '0' for empty squares
+	 * and any other character for clues.
+	 * @param mask (CharSequence) the clue pattern, or null to trim freely
+	 * @throws IllegalArgumentException if the mask is malformed or has less than 17 clues
+	 */
+	public void setClueMask(CharSequence mask) {
+		if (mask == null) {
+			clue_mask = null;
+			num_of_mask_clues = 0;
+			return;
+		}
+		if (mask.length() < 81)
+			throw new IllegalArgumentException("A clue mask needs 81 characters");
+		boolean[] squares = new boolean[81];
+		int clues = 0;
+		for (int i = 0; i < 81; i++) {
+			char c = mask.charAt(i);
+			if (Character.isWhitespace(c))
+				throw new IllegalArgumentException("Unexpected character at square " + i);
+			squares[i] = c != '.' && c != '0';
+			if (squares[i])
+				clues += 1;
+		}
+		if (clues < 17)
+			throw new IllegalArgumentException("A clue mask needs at least 17 clues, not " + clues);
+		clue_mask = squares;
+		num_of_mask_clues = clues;
+	}
+
+	/**
+	 * Returns whether a clue mask was set, so the clues aren't trimmed.
+	 * @return (boolean) true if the puzzle has its clues on the mask
+	 */
+	public boolean hasClueMask() {
+		return clue_mask != null;
+	}
+
+	/**
+	 * Returns whether the clue mask keeps the clue of a square.
+	 * @param square (int) position on the grid
+	 * @return (boolean) true if the square has a clue, false without a mask
+	 */
+	public boolean isClueSquare(int square) {
+		return clue_mask != null && clue_mask[square];
+	}
+
+	/**
+	 * Returns the amount of clues of the mask.
+	 * @return (int) the clue count, 0 without a mask
+	 */
+	public int getNumOfMaskClues() {
+		return num_of_mask_clues;
+	}
+}
@@ -0,0 +1,271 @@
+import java.util.EnumMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps a stock of generated puzzles for every difficulty, so
+ * a puzzle can be handed out straight away instead of being generated
+ * while the user waits. Background threads keep every bucket topped up
+ * to its capacity, always working on the emptiest one, and sleep while
+ * all the buckets are full. When a bucket has run out the puzzle is
+ * generated on the calling thread, which counts as a miss.
+ * The puzzles are generated with solver engines from the supplier given
+ * to the constructor, a refill thread keeps one for good and every miss
+ * gets a new one, as engines can't be shared between threads.
+ * @author Piotr Woloszyn
+ *
+ */
+public class PuzzlePool {
+
+	// The amount of puzzles every bucket is filled up to
+	private final int capacity;
+	// The amount of refill threads
+	private final int thread_count;
+	// Makes the solver engines the puzzles are generated with
+	private final Supplier<? extends SudokuSolver> solvers;
+	// The difficulties the pool keeps puzzles for
+	private final Difficulty[] difficulties;
+	// The puzzles of every difficulty
+	private final EnumMap<Difficulty, ArrayBlockingQueue<SudokuPuzzle>> buckets =
+			new EnumMap<Difficulty, ArrayBlockingQueue<SudokuPuzzle>>(Difficulty.class);
+	// The puzzles of every difficulty being generated right now
+	private final int[] in_progress = new int[Difficulty.values().length];
+	// Guards in_progress, the refill threads wait on it while the buckets are full
+	private final Object refill_lock = new Object();
+	// The refill threads
+	private final ExecutorService executor;
+	// The statistics
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder generated = new LongAdder();
+	private final LongAdder generation_time = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	// The last exception a refill thread caught, null if there was none
+	private volatile RuntimeException last_failure;
+
+	/**
+	 * The constructor, starts the refill threads, which generate with
+	 * BacktrackingSolvers.
+	 * @param capacity (int) the amount of puzzles every bucket is filled up to
+	 * @param thread_count (int) the amount of refill threads
+	 * @param difficulties (Difficulty...) the difficulties to keep puzzles for,
+	 * all of them if none are passed
+	 */
+	public PuzzlePool(int capacity, int thread_count, Difficulty... difficulties) {
+		this(capacity, thread_count, BacktrackingSolver::new, difficulties);
+	}
+
+	/**
+	 * The constructor, starts the refill threads.
+	 * @param capacity (int) the amount of puzzles every bucket is filled up to
+	 * @param thread_count (int) the amount of refill threads
+	 * @param solvers (Supplier<? extends SudokuSolver>) makes a new solver engine on every call
+	 * @param difficulties (Difficulty...) the difficulties to keep puzzles for,
+	 * all of them if none are passed
+	 */
+	public PuzzlePool(int capacity, int thread_count, Supplier<? extends SudokuSolver> solvers,
+			Difficulty... difficulties) {
+		this.capacity = capacity;
+		this.thread_count = thread_count;
+		this.solvers = solvers;
+		this.difficulties = (difficulties.length > 0) ? difficulties.clone() : Difficulty.values();
+		for (Difficulty difficulty : this.difficulties)
+			buckets.put(difficulty, new ArrayBlockingQueue<SudokuPuzzle>(capacity));
+		executor = Executors.newFixedThreadPool(thread_count, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "PuzzlePool refill");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		for (int i = 0; i < thread_count; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					refill();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Hands out a puzzle of the given difficulty, it's taken from the pool
+	 * if there is one and generated on the calling thread if not.
+	 * @param difficulty (Difficulty) the difficulty of the puzzle
+	 * @return (SudokuPuzzle) the puzzle
+	 */
+	public SudokuPuzzle take(Difficulty difficulty) {
+		return take(difficulty, null);
+	}
+
+	/**
+	 * Hands out a puzzle like take(Difficulty), a puzzle generated on the
+	 * calling thread stops once the token is cancelled.
+	 * @param difficulty (Difficulty) the difficulty of the puzzle
+	 * @param cancellation_token (CancellationToken) watched while generating, or null for none
+	 * @return (SudokuPuzzle) the puzzle
+	 * @throws CancellationException if the token was cancelled while generating
+	 */
+	public SudokuPuzzle take(Difficulty difficulty, CancellationToken cancellation_token) {
+		ArrayBlockingQueue<SudokuPuzzle> bucket = buckets.get(difficulty);
+		SudokuPuzzle sudoku = (bucket != null) ? bucket.poll() : null;
+		if (sudoku != null) {
+			hits.increment();
+			synchronized (refill_lock) {
+				refill_lock.notifyAll();
+			}
+			return sudoku;
+		}
+		misses.increment();
+		SudokuGen sudoku_generator = new SudokuGen(solvers.get());
+		sudoku_generator.setCancellationToken(cancellation_token);
+		return sudoku_generator.generateSudokuPuzzle(difficulty.getConstraints());
+	}
+
+	/**
+	 * Stops the refill threads, the puzzles in the pool can still be taken.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the amount of puzzles waiting in a bucket.
+	 * @param difficulty (Difficulty) the bucket
+	 * @return (int) the amount of puzzles
+	 */
+	public int getSize(Difficulty difficulty) {
+		ArrayBlockingQueue<SudokuPuzzle> bucket = buckets.get(difficulty);
+		return (bucket != null) ? bucket.size() : 0;
+	}
+
+	/**
+	 * Returns the amount of puzzles every bucket is filled up to.
+	 * @return (int) the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the amount of puzzles handed out straight from a bucket.
+	 * @return (long) the hit count
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the amount of puzzles generated on the calling thread because
+	 * their bucket was empty.
+	 * @return (long) the miss count
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the amount of puzzles the refill threads generated.
+	 * @return (long) the generated count
+	 */
+	public long getGeneratedCount() {
+		return generated.sum();
+	}
+
+	/**
+	 * Returns the amount of puzzles the refill threads failed to generate.
+	 * @return (long) the failure count
+	 */
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	/**
+	 * Returns the last exception a refill thread caught, the thread
+	 * carried on with the next puzzle.
+	 * @return (RuntimeException) the exception, null if there was none
+	 */
+	public RuntimeException getLastFailure() {
+		return last_failure;
+	}
+
+	/**
+	 * Returns the average time the refill threads took per puzzle.
+	 * @return (double) the time in milliseconds, 0 before the first puzzle
+	 */
+	public double getAverageGenerationTime() {
+		long count = generated.sum();
+		return (count > 0) ? generation_time.sum() / 1e6 / count : 0;
+	}
+
+	/**
+	 * Returns how many puzzles per second the refill threads make
+	 * together while they're all busy.
+	 * @return (double) the refill rate, 0 before the first puzzle
+	 */
+	public double getRefillRate() {
+		double time = getAverageGenerationTime();
+		return (time > 0) ? thread_count * 1000 / time : 0;
+	}
+
+	/**
+	 * The loop of a refill thread, a puzzle that fails is counted and
+	 * the thread goes on with the next one.
+	 */
+	private void refill() {
+		SudokuGen sudoku_generator = new SudokuGen(solvers.get());
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Difficulty difficulty = awaitEmptiestBucket();
+				try {
+					long start = System.nanoTime();
+					SudokuPuzzle sudoku = sudoku_generator.generateSudokuPuzzle(difficulty.getConstraints());
+					generation_time.add(System.nanoTime() - start);
+					generated.increment();
+					buckets.get(difficulty).offer(sudoku);
+				} catch (RuntimeException e) {
+					failures.increment();
+					last_failure = e;
+				} finally {
+					synchronized (refill_lock) {
+						in_progress[difficulty.ordinal()] -= 1;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Shut down, just stop
+		}
+	}
+
+	/**
+	 * Waits until a bucket has room and picks the one with the most room,
+	 * counting the puzzles already being generated for it.
+	 * @return (Difficulty) the bucket to generate a puzzle for
+	 * @throws InterruptedException if the pool is shut down
+	 */
+	private Difficulty awaitEmptiestBucket() throws InterruptedException {
+		synchronized (refill_lock) {
+			while (true) {
+				Difficulty emptiest = null;
+				int most_room = 0;
+				for (Difficulty difficulty : difficulties) {
+					int room = buckets.get(difficulty).remainingCapacity() - in_progress[difficulty.ordinal()];
+					if (room > most_room) {
+						emptiest = difficulty;
+						most_room = room;
+					}
+				}
+				if (emptiest != null) {
+					in_progress[emptiest.ordinal()] += 1;
+					return emptiest;
+				}
+				refill_lock.wait();
+			}
+		}
+	}
+}
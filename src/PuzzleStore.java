@@ -0,0 +1,236 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class is an append only file of puzzles that is read through
+ * memory mapping, so any puzzle can be fetched by its number without
+ * loading the rest of the file.
+ * Every puzzle takes a record of RECORD_SIZE bytes: the grid packed by
+ * PuzzleCodec, the clue count, the difficulty, the seed and the solve time
+ * in nanoseconds. The records have a fixed size so the record of puzzle n
+ * is found straight from n, and the header keeps the amount of records,
+ * which is only updated after a record has been written.
+ * The file is mapped in segments of SEGMENT_RECORDS records, to stay under
+ * the 2 GB limit of a single mapping.
+ * @author Piotr Woloszyn
+ *
+ */
+public class PuzzleStore implements Closeable {
+
+	// Marks the file as a puzzle store, "SDKS"
+	private static final int MAGIC = 0x53444B53;
+	private static final int VERSION = 1;
+	// The header holds the magic number, the version and the record count
+	private static final int HEADER_SIZE = 16;
+	private static final int COUNT_OFFSET = 8;
+	// The size of a record and the offsets of its fields
+	public static final int RECORD_SIZE = 64;
+	private static final int CLUES_OFFSET = PuzzleCodec.ENCODED_SIZE;
+	private static final int DIFFICULTY_OFFSET = CLUES_OFFSET + 1;
+	private static final int SEED_OFFSET = 48;
+	private static final int SOLVE_TIME_OFFSET = 56;
+	// The amount of records per mapped segment
+	private static final int SEGMENT_RECORDS = 1 << 20;
+
+	// The store file
+	private final FileChannel channel;
+	// The amount of records
+	private volatile long record_count;
+	// The mapped segments, a segment is remapped when the store outgrows it
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	// Used to write the records and the header
+	private final ByteBuffer record_buffer = ByteBuffer.allocate(RECORD_SIZE);
+	private final ByteBuffer count_buffer = ByteBuffer.allocate(8);
+
+	/**
+	 * The constructor, opens the store file or creates it if it doesn't exist.
+	 * @param file (File) the store file
+	 * @throws IOException if the file can't be opened or isn't a puzzle store
+	 */
+	public PuzzleStore(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if (channel.size() == 0) {
+				header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+				writeFully(header, 0);
+			} else {
+				while (header.hasRemaining() && channel.read(header, header.position()) >= 0);
+				header.flip();
+				if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+					throw new IOException(file + " isn't a puzzle store");
+				if (header.getInt() != VERSION)
+					throw new IOException(file + " has an unsupported version");
+				record_count = header.getLong();
+				// A record written after the last count update is dropped
+				channel.truncate(HEADER_SIZE + record_count * RECORD_SIZE);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the amount of puzzles in the store.
+	 * @return (long) the puzzle count
+	 */
+	public long size() {
+		return record_count;
+	}
+
+	/**
+	 * Adds a puzzle to the end of the store.
+	 * @param sudoku (SudokuPuzzle) the puzzle, its clue count and seed are stored with it
+	 * @param difficulty (int) the difficulty of the puzzle (0 - 255)
+	 * @param solve_time (long) the time it took to solve in nanoseconds
+	 * @return (long) the number of the puzzle in the store
+	 * @throws IOException if writing fails
+	 */
+	public synchronized long append(SudokuPuzzle sudoku, int difficulty, long solve_time) throws IOException {
+		Arrays.fill(record_buffer.array(), (byte) 0);
+		PuzzleCodec.encode(sudoku, record_buffer, 0);
+		record_buffer.put(CLUES_OFFSET, (byte) sudoku.getNumOfClues());
+		record_buffer.put(DIFFICULTY_OFFSET, (byte) difficulty);
+		record_buffer.putLong(SEED_OFFSET, sudoku.getSeed());
+		record_buffer.putLong(SOLVE_TIME_OFFSET, solve_time);
+		record_buffer.clear();
+		long index = record_count;
+		writeFully(record_buffer, HEADER_SIZE + index * RECORD_SIZE);
+		count_buffer.clear();
+		count_buffer.putLong(0, index + 1);
+		writeFully(count_buffer, COUNT_OFFSET);
+		record_count = index + 1;
+		return index;
+	}
+
+	/**
+	 * Makes sure everything appended so far is on the disk.
+	 * @throws IOException if the sync fails
+	 */
+	public void sync() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * Reads a puzzle, the clue count and seed are set on it.
+	 * @param index (long) the number of the puzzle
+	 * @return (SudokuPuzzle) the puzzle
+	 * @throws IOException if the file can't be mapped
+	 */
+	public SudokuPuzzle get(long index) throws IOException {
+		SudokuPuzzle sudoku = new SudokuPuzzle();
+		get(index, sudoku);
+		return sudoku;
+	}
+
+	/**
+	 * Reads a puzzle into the passed one, the clue count and seed are set on it.
+	 * @param index (long) the number of the puzzle
+	 * @param sudoku (SudokuPuzzle) receives the puzzle
+	 * @throws IOException if the file can't be mapped
+	 */
+	public void get(long index, SudokuPuzzle sudoku) throws IOException {
+		ByteBuffer segment = segmentOf(index);
+		int offset = recordOffset(index);
+		PuzzleCodec.decode(segment, offset, sudoku);
+		sudoku.setNumOfClues(segment.get(offset + CLUES_OFFSET) & 0xFF);
+		sudoku.setSeed(segment.getLong(offset + SEED_OFFSET));
+	}
+
+	/**
+	 * Returns the clue count stored with a puzzle.
+	 * @param index (long) the number of the puzzle
+	 * @return (int) the clue count
+	 * @throws IOException if the file can't be mapped
+	 */
+	public int getNumOfClues(long index) throws IOException {
+		return segmentOf(index).get(recordOffset(index) + CLUES_OFFSET) & 0xFF;
+	}
+
+	/**
+	 * Returns the difficulty stored with a puzzle.
+	 * @param index (long) the number of the puzzle
+	 * @return (int) the difficulty
+	 * @throws IOException if the file can't be mapped
+	 */
+	public int getDifficulty(long index) throws IOException {
+		return segmentOf(index).get(recordOffset(index) + DIFFICULTY_OFFSET) & 0xFF;
+	}
+
+	/**
+	 * Returns the seed stored with a puzzle.
+	 * @param index (long) the number of the puzzle
+	 * @return (long) the seed
+	 * @throws IOException if the file can't be mapped
+	 */
+	public long getSeed(long index) throws IOException {
+		return segmentOf(index).getLong(recordOffset(index) + SEED_OFFSET);
+	}
+
+	/**
+	 * Returns the solve time stored with a puzzle.
+	 * @param index (long) the number of the puzzle
+	 * @return (long) the solve time in nanoseconds
+	 * @throws IOException if the file can't be mapped
+	 */
+	public long getSolveTime(long index) throws IOException {
+		return segmentOf(index).getLong(recordOffset(index) + SOLVE_TIME_OFFSET);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Returns the offset of a record in its segment.
+	 * @param index (long) the number of the puzzle
+	 * @return (int) the offset
+	 */
+	private static int recordOffset(long index) {
+		return (int) (index % SEGMENT_RECORDS) * RECORD_SIZE;
+	}
+
+	/**
+	 * Returns the mapped segment holding a record, mapping it if needed.
+	 * @param index (long) the number of the puzzle
+	 * @return (ByteBuffer) the segment
+	 * @throws IOException if the file can't be mapped
+	 */
+	private synchronized ByteBuffer segmentOf(long index) throws IOException {
+		if (index < 0 || index >= record_count)
+			throw new IndexOutOfBoundsException("No puzzle " + index + " in a store of " + record_count);
+		int segment = (int) (index / SEGMENT_RECORDS);
+		if (segment >= segments.length)
+			segments = Arrays.copyOf(segments, segment + 1);
+		MappedByteBuffer mapped = segments[segment];
+		if (mapped == null || mapped.capacity() < recordOffset(index) + RECORD_SIZE) {
+			// Map every record written so far, up to the end of the segment
+			long first = (long) segment * SEGMENT_RECORDS;
+			long records = Math.min(SEGMENT_RECORDS, record_count - first);
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE,
+					records * RECORD_SIZE);
+			segments[segment] = mapped;
+		}
+		return mapped;
+	}
+
+	/**
+	 * Writes the whole buffer at the given position of the file.
+	 * @param buffer (ByteBuffer) the data
+	 * @param position (long) the position in the file
+	 * @throws IOException if writing fails
+	 */
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * This class holds the limits of a search: a time limit, a limit on the
+ * branches tried and a token that stops the search when cancelled. A
+ * search that runs into a limit gives up and reports it, see SolveResult.
+ * @author Piotr Woloszyn
+ *
+ */
+public class SearchBudget {
+
+	// The longest time the search may take in nanoseconds, 0 for no limit
+	private long time_limit;
+	// The most branches the search may try, 0 for no limit
+	private long node_limit;
+	// Stops the search when cancelled, null for none
+	private CancellationToken cancellation_token;
+
+	/**
+	 * The constructor, the search has no limits.
+	 */
+	public SearchBudget() {
+		// Nothing here
+	}
+
+	/**
+	 * The constructor.
+	 * @param time_limit_millis (long) the longest time the search may take in milliseconds, 0 for no limit
+	 * @param node_limit (long) the most branches the search may try, 0 for no limit
+	 */
+	public SearchBudget(long time_limit_millis, long node_limit) {
+		setTimeLimit(time_limit_millis);
+		setNodeLimit(node_limit);
+	}
+
+	/**
+	 * Sets the longest time the search may take, counted from its start.
+	 * @param time_limit_millis (long) the time limit in milliseconds, 0 for no limit
+	 */
+	public void setTimeLimit(long time_limit_millis) {
+		time_limit = time_limit_millis * 1000000;
+	}
+
+	/**
+	 * Sets the most branches the search may try.
+	 * @param node_limit (long) the node limit, 0 for no limit
+	 */
+	public void setNodeLimit(long node_limit) {
+		this.node_limit = node_limit;
+	}
+
+	/**
+	 * Sets the token that stops the search once it is cancelled.
+	 * @param cancellation_token (CancellationToken) the token, or null for none
+	 */
+	public void setCancellationToken(CancellationToken cancellation_token) {
+		this.cancellation_token = cancellation_token;
+	}
+
+	/**
+	 * Returns the time limit.
+	 * @return (long) the time limit in nanoseconds, 0 for no limit
+	 */
+	public long getTimeLimit() {
+		return time_limit;
+	}
+
+	/**
+	 * Returns the node limit.
+	 * @return (long) the most branches the search may try, 0 for no limit
+	 */
+	public long getNodeLimit() {
+		return node_limit;
+	}
+
+	/**
+	 * Returns the token that stops the search.
+	 * @return (CancellationToken) the token, or null for none
+	 */
+	public CancellationToken getCancellationToken() {
+		return cancellation_token;
+	}
+}
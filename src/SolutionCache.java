@@ -0,0 +1,328 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class remembers the answers of searches, so a puzzle that comes
+ * back, even with its numbers relabeled, its rows or columns swapped or
+ * transposed, isn't searched again. The answers are kept under the
+ * canonical form of the puzzle, see CanonicalForm, with the solution in
+ * the canonical orientation, and a solution found in the cache is moved
+ * back into the orientation of the puzzle asked about.
+ * Working out the canonical form of a typical puzzle takes about as long
+ * as 15 search nodes, so most puzzles are solved faster than they're
+ * looked up. Every search is first tried with a small node limit, and
+ * only puzzles that need more go through the cache. Sparse or symmetric
+ * grids can take far longer to canonicalize, so puzzles with less than
+ * MIN_CACHED_CLUES clues or more than MAX_TIES tied column orders aren't
+ * cached, and the canonical form stops at the budget's time limit and
+ * token, the search then only gets what's left of the budget.
+ * The cache holds up to capacity answers and drops the one least recently
+ * used when it's full. It can be shared by many threads.
+ * @author Piotr Woloszyn
+ *
+ */
+public class SolutionCache {
+
+	// The node limit of the first try if none is given
+	public static final long DEFAULT_PROBE_NODE_LIMIT = 32;
+	// Puzzles with less clues can't be unique and canonicalize the slowest
+	public static final int MIN_CACHED_CLUES = 17;
+	// The most column orders giving the smallest clue pattern searched for a canonical form
+	public static final int MAX_TIES = 64;
+
+	/**
+	 * A cached answer.
+	 */
+	private static class CachedAnswer {
+		// SOLVED if only a solution was looked for, UNIQUE, MULTIPLE or UNSOLVABLE
+		final SolveResult.Status status;
+		// The solution in the canonical orientation, null if none is known
+		final int[] solution;
+
+		CachedAnswer(SolveResult.Status status, int[] solution) {
+			this.status = status;
+			this.solution = solution;
+		}
+	}
+
+	// The most answers kept
+	private final int capacity;
+	// The node limit of the first try, 0 to always use the cache
+	private final long probe_node_limit;
+	// The answers by canonical form, in the order they were last used
+	private final LinkedHashMap<String, CachedAnswer> entries;
+	// Every thread works out canonical forms with its own object
+	private final ThreadLocal<CanonicalForm> canonical_forms = new ThreadLocal<CanonicalForm>() {
+		@Override
+		protected CanonicalForm initialValue() {
+			return new CanonicalForm();
+		}
+	};
+	// The statistics
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder bypasses = new LongAdder();
+	private final LongAdder uncached = new LongAdder();
+	private long evictions;
+
+	/**
+	 * The constructor, uses the default node limit for the first try.
+	 * @param capacity (int) the most answers kept
+	 */
+	public SolutionCache(int capacity) {
+		this(capacity, DEFAULT_PROBE_NODE_LIMIT);
+	}
+
+	/**
+	 * The constructor.
+	 * @param capacity (int) the most answers kept
+	 * @param probe_node_limit (long) the node limit of the first try, puzzles
+	 * solved within it aren't cached, 0 to send every puzzle through the cache
+	 */
+	public SolutionCache(int capacity, long probe_node_limit) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1, not " + capacity);
+		this.capacity = capacity;
+		this.probe_node_limit = probe_node_limit;
+		entries = new LinkedHashMap<String, CachedAnswer>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedAnswer> eldest) {
+				if (size() <= SolutionCache.this.capacity)
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Looks for a solution of the passed puzzle, like
+	 * BacktrackingSolver.solve(), using the cache.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param budget (SearchBudget) the limits of the search
+	 * @return (SolveResult) SOLVED with the solution, UNSOLVABLE,
+	 * BUDGET_EXHAUSTED or CANCELLED, 0 nodes if the answer was cached
+	 */
+	public SolveResult solve(SudokuPuzzle sudoku, SearchBudget budget) {
+		return search(sudoku, budget, false);
+	}
+
+	/**
+	 * Checks whether the passed puzzle has exactly one solution, like
+	 * BacktrackingSolver.checkUniqueness(), using the cache.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param budget (SearchBudget) the limits of the search
+	 * @return (SolveResult) UNIQUE with the solution, MULTIPLE, UNSOLVABLE,
+	 * BUDGET_EXHAUSTED or CANCELLED, 0 nodes if the answer was cached
+	 */
+	public SolveResult checkUniqueness(SudokuPuzzle sudoku, SearchBudget budget) {
+		return search(sudoku, budget, true);
+	}
+
+	/**
+	 * Drops every answer, the statistics are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the amount of puzzles solved by the first try, which
+	 * didn't go through the cache.
+	 * @return (long) the amount of puzzles
+	 */
+	public long getBypassCount() {
+		return bypasses.sum();
+	}
+
+	/**
+	 * Returns the amount of puzzles searched without the cache, as they
+	 * had too few clues or their canonical form took too long.
+	 * @return (long) the amount of puzzles
+	 */
+	public long getUncachedCount() {
+		return uncached.sum();
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the share of the puzzles looked up that were found.
+	 * @return (double) the hit rate from 0 to 1, 0 before the first lookup
+	 */
+	public double getHitRate() {
+		long found = hits.sum();
+		long looked_up = found + misses.sum();
+		return (looked_up > 0) ? (double) found / looked_up : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d/%d answers, %d hits, %d misses (%.1f%%), %d bypassed, %d uncached, %d evicted",
+				size(), capacity, getHitCount(), getMissCount(), getHitRate() * 100, getBypassCount(),
+				getUncachedCount(), getEvictionCount());
+	}
+
+	/**
+	 * Answers a search, from the first try, the cache or a full search.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param budget (SearchBudget) the limits of the search
+	 * @param uniqueness (boolean) true to check uniqueness, false to only look for a solution
+	 * @return (SolveResult) the answer
+	 */
+	private SolveResult search(SudokuPuzzle sudoku, SearchBudget budget, boolean uniqueness) {
+		long start = System.nanoTime();
+		long deadline = (budget.getTimeLimit() > 0) ? start + budget.getTimeLimit() : 0;
+		BacktrackingSolver engine = BacktrackingSolver.forCurrentThread();
+		SolveResult probe = null;
+		if (probe_node_limit > 0) {
+			SearchBudget probe_budget = new SearchBudget();
+			probe_budget.setTimeLimit(budget.getTimeLimit() / 1000000);
+			probe_budget.setCancellationToken(budget.getCancellationToken());
+			long node_limit = budget.getNodeLimit();
+			probe_budget.setNodeLimit((node_limit > 0) ? Math.min(node_limit, probe_node_limit) : probe_node_limit);
+			probe = run(engine, sudoku, probe_budget, uniqueness);
+			if (probe.getStatus() != SolveResult.Status.BUDGET_EXHAUSTED) {
+				bypasses.increment();
+				return probe;
+			}
+		}
+		long probe_nodes = (probe != null) ? probe.getNodeCount() : 0;
+		CanonicalForm canonical_form = canonical_forms.get();
+		String key = null;
+		if (countClues(sudoku) >= MIN_CACHED_CLUES)
+			key = canonical_form.compute(sudoku, MAX_TIES, deadline, budget.getCancellationToken());
+		if (key != null) {
+			CachedAnswer entry;
+			synchronized (this) {
+				entry = entries.get(key);
+			}
+			SolveResult.Status status = (entry != null) ? answer(entry, uniqueness) : null;
+			if (status != null) {
+				hits.increment();
+				SudokuPuzzle solution = null;
+				if (status == SolveResult.Status.SOLVED || status == SolveResult.Status.UNIQUE) {
+					solution = new SudokuPuzzle();
+					canonical_form.fromCanonical(entry.solution, solution);
+				}
+				return new SolveResult(status, solution, probe_nodes, System.nanoTime() - start);
+			}
+			misses.increment();
+		} else {
+			uncached.increment();
+		}
+		// The first try already used up the whole node limit
+		if (probe != null && budget.getNodeLimit() > 0 && probe_nodes >= budget.getNodeLimit())
+			return probe;
+		CancellationToken token = budget.getCancellationToken();
+		if (token != null && token.isCancelled())
+			return new SolveResult(SolveResult.Status.CANCELLED, null, probe_nodes, System.nanoTime() - start);
+		long now = System.nanoTime();
+		if (deadline != 0 && now - deadline >= 0)
+			return new SolveResult(SolveResult.Status.BUDGET_EXHAUSTED, null, probe_nodes, now - start);
+		SolveResult result = run(engine, sudoku, remaining(budget, probe_nodes, deadline, now), uniqueness);
+		if (key != null && result.isComplete()) {
+			int[] solution = (result.getSolution() != null) ? canonical_form.toCanonical(result.getSolution()) : null;
+			store(key, result.getStatus(), solution);
+		}
+		if (probe == null)
+			return result;
+		return new SolveResult(result.getStatus(), result.getSolution(), probe_nodes + result.getNodeCount(),
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the part of a budget left after the first try at a given
+	 * time, the search gets at least a millisecond.
+	 * @param budget (SearchBudget) the budget of the whole call
+	 * @param used_nodes (long) the branches the first try used, less than the node limit
+	 * @param deadline (long) the System.nanoTime() at which the budget runs out, 0 for no limit
+	 * @param now (long) System.nanoTime() now
+	 * @return (SearchBudget) the budget, the passed one if nothing of it was used
+	 */
+	private static SearchBudget remaining(SearchBudget budget, long used_nodes, long deadline, long now) {
+		if (deadline == 0 && used_nodes == 0)
+			return budget;
+		long time_limit = (deadline != 0) ? Math.max(1, (deadline - now) / 1000000) : 0;
+		long node_limit = (budget.getNodeLimit() > 0) ? budget.getNodeLimit() - used_nodes : 0;
+		SearchBudget left = new SearchBudget(time_limit, node_limit);
+		left.setCancellationToken(budget.getCancellationToken());
+		return left;
+	}
+
+	/**
+	 * Returns the amount of clues of a puzzle.
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @return (int) the clue count
+	 */
+	private static int countClues(SudokuPuzzle sudoku) {
+		int clues = 0;
+		for (int i = 0; i < 81; i++) {
+			if (sudoku.getNumberAt(i) != 0)
+				clues += 1;
+		}
+		return clues;
+	}
+
+	/**
+	 * Runs a search on the passed engine.
+	 * @param engine (BacktrackingSolver) the engine
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @param budget (SearchBudget) the limits of the search
+	 * @param uniqueness (boolean) true to check uniqueness, false to only look for a solution
+	 * @return (SolveResult) the answer
+	 */
+	private static SolveResult run(BacktrackingSolver engine, SudokuPuzzle sudoku, SearchBudget budget,
+			boolean uniqueness) {
+		return uniqueness ? engine.checkUniqueness(sudoku, budget) : engine.solve(sudoku, budget);
+	}
+
+	/**
+	 * Works out the answer a cached entry gives to a search.
+	 * @param entry (CachedAnswer) the cached entry
+	 * @param uniqueness (boolean) true to check uniqueness, false to only look for a solution
+	 * @return (SolveResult.Status) the status of the answer, null if the entry can't answer it
+	 */
+	private static SolveResult.Status answer(CachedAnswer entry, boolean uniqueness) {
+		if (entry.status == SolveResult.Status.UNSOLVABLE)
+			return entry.status;
+		if (uniqueness)
+			return (entry.status != SolveResult.Status.SOLVED) ? entry.status : null;
+		return (entry.solution != null) ? SolveResult.Status.SOLVED : null;
+	}
+
+	/**
+	 * Puts an answer into the cache, keeping a known solution of a puzzle
+	 * found to have many.
+	 * @param key (String) the canonical form of the puzzle
+	 * @param status (SolveResult.Status) the status of the answer
+	 * @param solution (int[]) the solution in the canonical orientation, null if none
+	 */
+	private synchronized void store(String key, SolveResult.Status status, int[] solution) {
+		CachedAnswer old = entries.get(key);
+		if (solution == null && old != null)
+			solution = old.solution;
+		if (old != null && old.status != SolveResult.Status.SOLVED && status == SolveResult.Status.SOLVED)
+			status = old.status;
+		entries.put(key, new CachedAnswer(status, solution));
+	}
+}
@@ -0,0 +1,123 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class goes through the solutions of a puzzle one at a time, each
+ * solution is only searched for when it's asked for, so a puzzle with
+ * millions of solutions never has more than one of them in memory. It
+ * owns a BacktrackingSolver whose nextSolution() carries on from the last
+ * solution, which also makes it safe to hold on to the iterator while the
+ * thread's own solver does other work.
+ * Every solution is a new SudokuPuzzle the caller can keep. stream()
+ * gives the same solutions as a sequential Stream, use
+ * ParallelSolver.countAllSolutions() to only count them on several threads.
+ * An iterator shouldn't be used by two threads at once.
+ * @author Piotr Woloszyn
+ *
+ */
+public class SolutionIterator implements Iterator<SudokuPuzzle> {
+
+	// The solver engine, it belongs to this iterator
+	private final BacktrackingSolver engine;
+	// The number of solutions at which to stop
+	private final long limit;
+	// The solutions found so far, including the one not yet returned
+	private long solution_count;
+	// The solution found by hasNext() and not yet returned by next()
+	private SudokuPuzzle next_solution;
+	// Set once there are no more solutions or the limit is reached
+	private boolean finished;
+
+	/**
+	 * The constructor, goes through every solution.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 */
+	public SolutionIterator(SudokuPuzzle sudoku) {
+		this(sudoku, Long.MAX_VALUE);
+	}
+
+	/**
+	 * The constructor.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param limit (long) the number of solutions at which to stop
+	 */
+	public SolutionIterator(SudokuPuzzle sudoku, long limit) {
+		this.limit = limit;
+		engine = new BacktrackingSolver();
+		engine.load(sudoku);
+		finished = limit <= 0;
+	}
+
+	/**
+	 * Sets the token the search watches, once it's cancelled the iterator
+	 * has no more solutions.
+	 * @param cancellation_token (CancellationToken) the token, or null for none
+	 */
+	public void setCancellationToken(CancellationToken cancellation_token) {
+		engine.setCancellationToken(cancellation_token);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next_solution == null && !finished) {
+			SudokuPuzzle solution = new SudokuPuzzle();
+			if (engine.nextSolution(solution)) {
+				next_solution = solution;
+				solution_count += 1;
+				finished = solution_count >= limit;
+			} else {
+				finished = true;
+			}
+		}
+		return next_solution != null;
+	}
+
+	@Override
+	public SudokuPuzzle next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		SudokuPuzzle solution = next_solution;
+		next_solution = null;
+		return solution;
+	}
+
+	/**
+	 * Returns the solutions found so far.
+	 * @return (long) the solution count
+	 */
+	public long getSolutionCount() {
+		return solution_count;
+	}
+
+	/**
+	 * Returns whether the cancellation token ended the iteration early.
+	 * @return (boolean) true if the search was stopped
+	 */
+	public boolean wasStopped() {
+		return engine.wasStopped();
+	}
+
+	/**
+	 * Returns the number of branches tried so far.
+	 * @return (long) the node count
+	 */
+	public long getNodeCount() {
+		return engine.getNodeCount();
+	}
+
+	/**
+	 * Returns the solutions not yet taken from this iterator as a lazy
+	 * sequential Stream, solutions are searched for as the stream asks
+	 * for them, so a short-circuiting operation like limit() or
+	 * findFirst() stops the search.
+	 * @return (Stream<SudokuPuzzle>) the solutions
+	 */
+	public Stream<SudokuPuzzle> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+	}
+}
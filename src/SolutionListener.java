@@ -0,0 +1,16 @@
+/**
+ * This interface receives the solutions found by
+ * SudokuSolver.enumerateSolutions().
+ * @author Piotr Woloszyn
+ *
+ */
+public interface SolutionListener {
+
+	/**
+	 * Called for every solution found. The passed puzzle is reused by the
+	 * solver for the next solution, so clone it to keep it.
+	 * @param solution (SudokuPuzzle) the solved puzzle
+	 * @return (boolean) true to keep looking for solutions, false to stop
+	 */
+	public boolean solutionFound(SudokuPuzzle solution);
+}
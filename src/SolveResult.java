@@ -0,0 +1,94 @@
+/**
+ * This class is the outcome of a search run with a SearchBudget: how it
+ * ended, the solution if one was found, and what the search cost.
+ * @author Piotr Woloszyn
+ *
+ */
+public class SolveResult {
+
+	/**
+	 * How a search ended.
+	 */
+	public enum Status {
+		// A solution was found, whether there are more wasn't checked
+		SOLVED,
+		// The puzzle has exactly one solution
+		UNIQUE,
+		// The puzzle has more than one solution
+		MULTIPLE,
+		// The puzzle has no solution
+		UNSOLVABLE,
+		// The time or node limit was reached before the search finished
+		BUDGET_EXHAUSTED,
+		// The cancellation token was cancelled before the search finished
+		CANCELLED
+	}
+
+	// How the search ended
+	private final Status status;
+	// The solution, null if none was found
+	private final SudokuPuzzle solution;
+	// The branches tried
+	private final long nodes;
+	// The time the search took in nanoseconds
+	private final long elapsed_time;
+
+	/**
+	 * The constructor.
+	 * @param status (Status) how the search ended
+	 * @param solution (SudokuPuzzle) the solution, null if none was found
+	 * @param nodes (long) the branches tried
+	 * @param elapsed_time (long) the time the search took in nanoseconds
+	 */
+	public SolveResult(Status status, SudokuPuzzle solution, long nodes, long elapsed_time) {
+		this.status = status;
+		this.solution = solution;
+		this.nodes = nodes;
+		this.elapsed_time = elapsed_time;
+	}
+
+	/**
+	 * Returns how the search ended.
+	 * @return (Status) the status
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the solution found by the search.
+	 * @return (SudokuPuzzle) the solution, null if none was found
+	 */
+	public SudokuPuzzle getSolution() {
+		return solution;
+	}
+
+	/**
+	 * Returns the branches the search tried.
+	 * @return (long) the node count
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the time the search took.
+	 * @return (long) the time in nanoseconds
+	 */
+	public long getElapsedTime() {
+		return elapsed_time;
+	}
+
+	/**
+	 * Returns whether the search finished, so the status is a real answer.
+	 * @return (boolean) false if a limit or the token stopped it
+	 */
+	public boolean isComplete() {
+		return status != Status.BUDGET_EXHAUSTED && status != Status.CANCELLED;
+	}
+
+	@Override
+	public String toString() {
+		return status + " after " + nodes + " nodes in " + elapsed_time / 1000 + " us";
+	}
+}
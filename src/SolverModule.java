@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 /**
  * This class contains methods that solve passed in sudoku puzzles,
@@ -7,115 +8,121 @@ import java.util.ArrayList;
  *
  */
 public class SolverModule {
-	
+
+	// Remembers the answers of solve() and checkUniqueness() for the puzzles that take long
+	private static final SolutionCache SOLUTION_CACHE = new SolutionCache(4096);
+	// The listener of the solvers and generators that have none of their own
+	private static volatile MetricsListener metrics_listener = MetricsListener.NONE;
+
 	/**
-	 * A recursive solver that assigns the solved state to the output_sudoku variable.
+	 * A solver that returns the solved state of the puzzle. The search is done
+	 * in place by the calling thread's BacktrackingSolver, the passed puzzle
+	 * and list aren't modified.
 	 * @param sudoku (SudokuPuzzle) the puzzle object being worked on
 	 * @param empty_squares	(ArrayList<Integer>) a list of empty squares on the grid
-	 * @param output_sudoku (SudokuPuzzle) output variable to which the solution is assigned
-	 * @return (int) returns 1 or 0, 1 if there is a solution, 0 if there is none
+	 * @return (Pair<Integer, SudokuPuzzle>) 1 and the solved puzzle if there is
+	 * a solution, 0 and the passed puzzle if there is none
 	 */
 	public static Pair<Integer, SudokuPuzzle> solver(SudokuPuzzle sudoku, ArrayList<Integer> empty_squares) {
-		if (empty_squares.size() == 0) {
-			return new Pair<Integer, SudokuPuzzle>(1, sudoku);
-		}
-		empty_squares_Qsort(sudoku, empty_squares, 0, empty_squares.size() - 1);
-		int current_square = empty_squares.get(0);
-		int[] allowed_nums = sudoku.getAllowedNums(current_square % 9, current_square / 9);
-		if (allowed_nums.length == 0)
-			return new Pair<Integer, SudokuPuzzle>(0, sudoku);
-		empty_squares.remove(0);
-		Pair<Integer, SudokuPuzzle> sudokupair = new Pair<Integer, SudokuPuzzle>(0, sudoku);
-		for (int i = 0; i < allowed_nums.length; i++) {
-			SudokuPuzzle cloned_sudoku = sudoku.clone();
-			cloned_sudoku.setSquare(current_square % 9, current_square / 9, allowed_nums[i]);
-			sudokupair = solver(cloned_sudoku, (ArrayList<Integer>) empty_squares.clone());
-			if (sudokupair.getValOne() > 0)
-				return sudokupair;
-		}
-		return sudokupair;
+		BacktrackingSolver engine = BacktrackingSolver.forCurrentThread();
+		engine.load(sudoku, empty_squares);
+		if (engine.solve())
+			return new Pair<Integer, SudokuPuzzle>(1, engine.getWorkingPuzzle().clone());
+		return new Pair<Integer, SudokuPuzzle>(0, sudoku);
 	}
 
 	/**
-	 * A recursive solver that looks for multiple solutions in the passed puzzle
+	 * A solver that looks for multiple solutions in the passed puzzle
 	 * it returns either 0 if there are no solutions, 1 if there is one solution
-	 * and 2 if there is more than 1 solution.
+	 * and 2 if there is more than 1 solution. The passed puzzle and list
+	 * aren't modified.
 	 * @param sudoku (SudokuPuzzle) the puzzle object being worked on
+	 * @param empty_squares	(ArrayList<Integer>) a list of empty squares on the grid
 	 * @return (int) returns 2, 1 or 0, 2 if there are multiple solutions 
 	 * 1 if there is a solution, 0 if there is none
 	 */
 	public static int specialSolver(SudokuPuzzle sudoku, ArrayList<Integer> empty_squares) {
-		if (empty_squares.size() == 0) {
-			return 1;
-		}
-		empty_squares_Qsort(sudoku, empty_squares, 0, empty_squares.size() - 1);
-		int current_square = empty_squares.get(0);
-		int[] allowed_nums = sudoku.getAllowedNums(current_square % 9, current_square / 9);
-		if (allowed_nums.length == 0)
-			return 0;
-		empty_squares.remove(0);
-		int solution_count = 0;
-		for (int i = 0; i < allowed_nums.length; i++) {
-			SudokuPuzzle cloned_sudoku = sudoku.clone();
-			cloned_sudoku.setSquare(current_square % 9, current_square / 9, allowed_nums[i]);
-			solution_count += specialSolver(cloned_sudoku, (ArrayList<Integer>) empty_squares.clone());
-			if (solution_count >= 2)
-				return 2;
-		}
-		return solution_count;
+		BacktrackingSolver engine = BacktrackingSolver.forCurrentThread();
+		engine.load(sudoku, empty_squares);
+		return engine.countSolutions(2);
 	}
-	
-	// QUICKSORT and helper methods
-	
+
 	/**
-	 * @param sudoku (SudokuPuzzle) the puzzle object being worked on
-	 * @param empty_squares (ArrayList<Integer>) a list of empty squares on the grid
-	 * @param index (int) location on the grid
-	 * @return (int) the number of possible numbers allowed at the designated location of the grid
+	 * Looks for a solution of the passed puzzle, giving up once the
+	 * budget runs out, so a hard or malicious grid can't keep the
+	 * thread busy for long. Puzzles that take more than a few nodes go
+	 * through the shared solution cache.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param budget (SearchBudget) the time limit, node limit and cancellation token
+	 * @return (SolveResult) SOLVED with the solution, UNSOLVABLE,
+	 * BUDGET_EXHAUSTED or CANCELLED, and the nodes visited
 	 */
-	public static int allowedNums(SudokuPuzzle sudoku, ArrayList<Integer> empty_squares, int index) {
-		int current_square = empty_squares.get(index);
-		int[] allowed_nums_min = sudoku.getAllowedNums(current_square % 9, current_square / 9);
-		return allowed_nums_min.length;
+	public static SolveResult solve(SudokuPuzzle sudoku, SearchBudget budget) {
+		return SOLUTION_CACHE.solve(sudoku, budget);
 	}
-	
+
 	/**
-	 * @param sudoku (SudokuPuzzle) the puzzle object being worked on
-	 * @param empty_squares (ArrayList<Integer>) a list of empty squares on the grid
-	 * @param lo
-	 * @param hi
+	 * Checks whether the passed puzzle has exactly one solution, like
+	 * specialSolver() but giving up once the budget runs out. Puzzles that
+	 * take more than a few nodes go through the shared solution cache.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param budget (SearchBudget) the time limit, node limit and cancellation token
+	 * @return (SolveResult) UNIQUE with the solution, MULTIPLE, UNSOLVABLE,
+	 * BUDGET_EXHAUSTED or CANCELLED, and the nodes visited
 	 */
-	public static void empty_squares_Qsort(SudokuPuzzle sudoku, ArrayList<Integer> empty_squares, int lo, int hi) {
-		if (lo < hi) {
-			int p = Qsort_part(sudoku, empty_squares, lo, hi);
-			empty_squares_Qsort(sudoku, empty_squares, lo, p);
-			empty_squares_Qsort(sudoku, empty_squares, p + 1, hi);
-		}
+	public static SolveResult checkUniqueness(SudokuPuzzle sudoku, SearchBudget budget) {
+		return SOLUTION_CACHE.checkUniqueness(sudoku, budget);
 	}
-	
+
 	/**
-	 * @param sudoku (SudokuPuzzle) the puzzle object being worked on
-	 * @param empty_squares (ArrayList<Integer>) a list of empty squares on the grid
-	 * @param lo
-	 * @param hi
-	 * @return
+	 * Returns the solutions of the passed puzzle as a lazy Stream, every
+	 * solution is only searched for when the stream gets to it, see
+	 * SolutionIterator.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param limit (long) the number of solutions at which to stop
+	 * @return (Stream<SudokuPuzzle>) the solutions, each a new puzzle
+	 */
+	public static Stream<SudokuPuzzle> solutions(SudokuPuzzle sudoku, long limit) {
+		return new SolutionIterator(sudoku, limit).stream();
+	}
+
+	/**
+	 * Counts the solutions of the passed puzzle up to a limit with the
+	 * calling thread's BacktrackingSolver, without writing any of them.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param limit (long) the number of solutions at which to stop
+	 * @return (long) the number of solutions found, at most limit
+	 */
+	public static long countSolutions(SudokuPuzzle sudoku, long limit) {
+		return BacktrackingSolver.forCurrentThread().countAllSolutions(sudoku, limit);
+	}
+
+	/**
+	 * Returns the cache used by solve() and checkUniqueness(), for its
+	 * statistics or to clear it.
+	 * @return (SolutionCache) the shared cache
+	 */
+	public static SolutionCache getSolutionCache() {
+		return SOLUTION_CACHE;
+	}
+
+	/**
+	 * Sets the listener the BacktrackingSolvers and SudokuGens without one
+	 * of their own report to, it's read at the start of every search and
+	 * puzzle, so it can be set on a running process. A MetricsRecorder
+	 * gathers the measurements, use its register() to show them over JMX.
+	 * @param listener (MetricsListener) the listener, null or MetricsListener.NONE to stop measuring
+	 */
+	public static void setMetricsListener(MetricsListener listener) {
+		metrics_listener = (listener != null) ? listener : MetricsListener.NONE;
+	}
+
+	/**
+	 * Returns the listener the BacktrackingSolvers and SudokuGens without
+	 * one of their own report to.
+	 * @return (MetricsListener) the listener, MetricsListener.NONE if nothing is measured
 	 */
-	public static int Qsort_part(SudokuPuzzle sudoku, ArrayList<Integer> empty_squares, int lo, int hi) {
-		int pivot = allowedNums(sudoku, empty_squares, lo);
-		int i = lo - 1;
-		int j = hi + 1;
-		while (true) {
-			i += 1;
-			while (allowedNums(sudoku, empty_squares, i) < pivot)
-				i += 1;
-			j -= 1;
-			while (allowedNums(sudoku, empty_squares, j) > pivot)
-				j -= 1;
-			if (i >= j)
-				return j;
-			int tmp = empty_squares.get(i);
-			empty_squares.set(i, empty_squares.get(j));
-			empty_squares.set(j, tmp);
-		}
+	public static MetricsListener getMetricsListener() {
+		return metrics_listener;
 	}
 }
@@ -0,0 +1,447 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class measures the speed of the solver and generator hot paths
+ * over fixed puzzle corpora and prints, for each benchmark, the
+ * throughput, the latency percentiles, the bytes allocated per
+ * operation and the garbage collections during the run. The benchmarks
+ * using a TranspositionTable are followed by what the table saved, and
+ * the one with a MetricsRecorder by what it recorded.
+ * Run it with: java SudokuBenchmark [seconds] [name filter]
+ * @author Piotr Woloszyn
+ *
+ */
+public class SudokuBenchmark {
+
+	// Generated with at least 36 clues
+	private static final String[] EASY = {
+		"....14823..389.615...53....1....5.....49...7.95.......4....8...716..39848254791..",
+		".85...6..7......48.29618...6....9.73.92........834.96.953...71.864..1...2...36.89",
+		"8.6492....79..3.422.4..8....8..2.41.....8.7.3..7.5.986..8..7...7...153.4.45...6.8",
+		".8.3....45....48766..25.9..4.9....6..23..5..9...4.2..5.15.26....48.39....968.15.7",
+		".2.1.4.....47..513...3.9......6..1.8.31..2.9...9..175.74..1..26.95.483....396.48.",
+		"3.8..2.67.9.16.4...64...18....6958..956..13.4.2.4.3.9...9..4...1.2..97..4..78....",
+	};
+	// Generated with at least 30 clues
+	private static final String[] MEDIUM = {
+		"79....5...5.7....14..1....6.79...368...89.1..5...7..4...6...7..84...7.1..37.46...",
+		".......3.1.8...54...5613......9284..2.....38.5..3..6....41.5.6.72.......85.7...94",
+		"1.4.86........42.7...71...44.7.....83964.87.1.......4.91..7..83....4.1....85.....",
+		".5..329....9.7.68....869.5.46.79....5.7...1....36.8...8..3..7.9.9.1..2....5......",
+		"..2...7.4....3...6.4.1..2.39...7..6.2.......8165.983.....9.65.78..........6815..9",
+		"..6519.......82.3.4.5..3.....9.2....7...4.....2..5897...3...5.9..4..5.185.....743",
+	};
+	// Generated with no clue floor, 23 - 26 clues
+	private static final String[] HARD = {
+		"......3.........2..5...6..1..9.7....6...2..8.7..3..9....18..7..83..9.....4.735...",
+		"..132...6...9.1.......6..72...8.6.31..4...6......3.8..9....3....6....5.7.256.4...",
+		"1.......9...2...6..3...985.......64..9...2...4.6....3..12.9.37.8.......5..7.3....",
+		".32478......3...1..6.............1.....6.....72.14.6.8.9....8.6..6....5..1.7.543.",
+		".7...19...4..5..6..5.8..1.........7.6.........1..69.4.2.3..4..7.6.39......16.5...",
+		".9.....3..8.1..5.....6.8...1...2.....5....3624....7.8..47............6.3.....9271",
+	};
+	// Very hard puzzles, most with the minimum of 17 clues
+	private static final String[] CLUES_17 = {
+		"000000010400000000020000000000050407008000300001090000300400200050100000000806000",
+		"000000010400000000020000000000050604008000300001090000300400200050100000000807000",
+		"000000012000035000000600070700000300000400800100000000000120000080000040050000600",
+		"000000012003600000000007000410020000000500300700000600280000040000300500000000000",
+		"800000000003600000070090200050007000000045700000100030001000068008500010090000400",
+	};
+	private static final String[] CORPUS_NAMES = { "easy", "medium", "hard", "17-clue" };
+	private static final String[][] CORPORA = { EASY, MEDIUM, HARD, CLUES_17 };
+	// The memory of the transposition tables, the corpus one is cleared before every puzzle
+	private static final long CORPUS_TABLE_MEMORY = 1 << 14;
+	private static final long GENERATOR_TABLE_MEMORY = 1 << 20;
+	// A symmetric 30 clue pattern for generation with a clue mask
+	private static final String CLUE_MASK =
+			"x.x...x.x.x.x.x.x...x...x...x.x.x.x...x...x...x.x.x.x...x...x...x.x.x.x.x.x...x.x";
+	// The regions of the jigsaw grid, one digit per square
+	private static final String JIGSAW_REGIONS =
+			"111122333111222333112222333444555666444555666444555666777888999778888999777788999";
+	// The most squares a cage of the generated killer puzzles has
+	private static final int KILLER_CAGE_SIZE = 4;
+	// The clues taken off the hard corpus for the puzzles with many solutions,
+	// and the solutions enumerated or counted per puzzle
+	private static final int AMBIGUOUS_REMOVED_CLUES = 4;
+	private static final int ENUMERATED_SOLUTIONS = 10000;
+	// The amount of generated puzzles of every GridShape the solver cycles through
+	private static final int GRID_PUZZLES = 8;
+	// The amount of generated puzzles the grader cycles through
+	private static final int GRADED_PUZZLES = 256;
+
+	/**
+	 * A benchmarked operation, i counts the calls so the
+	 * operation can cycle through a corpus.
+	 */
+	private interface Operation {
+		long run(long i);
+	}
+
+	// How long each measurement runs, in nanoseconds
+	private long run_time;
+	// Only benchmarks whose name contains this are run
+	private String filter;
+	// Results are summed here so the JIT can't drop the operations
+	private long sink;
+
+	/**
+	 * The constructor.
+	 * @param seconds (double) how long each measurement runs
+	 * @param filter (String) only benchmarks whose name contains this are run
+	 */
+	public SudokuBenchmark(double seconds, String filter) {
+		run_time = (long) (seconds * 1e9);
+		this.filter = filter;
+	}
+
+	public static void main(String[] args) {
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 2;
+		String filter = (args.length > 1) ? args[1] : "";
+		SudokuBenchmark benchmark = new SudokuBenchmark(seconds, filter);
+		System.out.printf("%-34s %12s %10s %10s %10s %12s %10s %6s%n", "benchmark", "ops/s",
+				"avg us", "p50 us", "p99 us", "bytes/op", "MB/s", "gcs");
+		benchmark.runAll();
+		if (benchmark.sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * Runs every benchmark that matches the filter.
+	 */
+	public void runAll() {
+		for (int c = 0; c < CORPORA.length; c++) {
+			final SudokuPuzzle[] puzzles = loadCorpus(CORPORA[c]);
+			final List<ArrayList<Integer>> empty_squares = new ArrayList<ArrayList<Integer>>();
+			for (SudokuPuzzle sudoku : puzzles)
+				empty_squares.add(sudoku.getEmptySquares());
+			final int n = puzzles.length;
+			measure("SolverModule.solver " + CORPUS_NAMES[c], new Operation() {
+				public long run(long i) {
+					int k = (int) (i % n);
+					return SolverModule.solver(puzzles[k], empty_squares.get(k)).getValOne();
+				}
+			});
+			measure("SolverModule.specialSolver " + CORPUS_NAMES[c], new Operation() {
+				public long run(long i) {
+					int k = (int) (i % n);
+					return SolverModule.specialSolver(puzzles[k], empty_squares.get(k));
+				}
+			});
+			final BacktrackingSolver table_solver = new BacktrackingSolver();
+			final TranspositionTable table = new TranspositionTable(CORPUS_TABLE_MEMORY);
+			table_solver.setTranspositionTable(table);
+			measure("specialSolver+table " + CORPUS_NAMES[c], table, new Operation() {
+				public long run(long i) {
+					int k = (int) (i % n);
+					table.clear();
+					table_solver.load(puzzles[k], empty_squares.get(k));
+					return table_solver.countSolutions(2);
+				}
+			});
+			final DancingLinksSolver dancing_links = new DancingLinksSolver();
+			measure("DancingLinks.count " + CORPUS_NAMES[c], new Operation() {
+				public long run(long i) {
+					return dancing_links.countSolutions(puzzles[(int) (i % n)], 2);
+				}
+			});
+		}
+		final SudokuPuzzle[] ambiguous = loadCorpus(HARD);
+		for (SudokuPuzzle sudoku : ambiguous) {
+			for (int i = 0, removed = 0; i < 81 && removed < AMBIGUOUS_REMOVED_CLUES; i++) {
+				if (sudoku.clearSquare(i) != 0)
+					removed += 1;
+			}
+		}
+		final int num_of_ambiguous = ambiguous.length;
+		measure("enumerateSolutions " + ENUMERATED_SOLUTIONS, new Operation() {
+			public long run(long i) {
+				return BacktrackingSolver.forCurrentThread().enumerateSolutions(ambiguous[(int) (i % num_of_ambiguous)],
+						ENUMERATED_SOLUTIONS, new SolutionListener() {
+							public boolean solutionFound(SudokuPuzzle solution) {
+								return true;
+							}
+						});
+			}
+		});
+		measure("SolutionIterator " + ENUMERATED_SOLUTIONS, new Operation() {
+			public long run(long i) {
+				SolutionIterator solutions = new SolutionIterator(ambiguous[(int) (i % num_of_ambiguous)], ENUMERATED_SOLUTIONS);
+				long found = 0;
+				while (solutions.hasNext())
+					found += solutions.next().getNumberAt(0);
+				return found;
+			}
+		});
+		measure("countAllSolutions " + ENUMERATED_SOLUTIONS, new Operation() {
+			public long run(long i) {
+				return SolverModule.countSolutions(ambiguous[(int) (i % num_of_ambiguous)], ENUMERATED_SOLUTIONS);
+			}
+		});
+		final ParallelSolver parallel_solver = new ParallelSolver();
+		measure("ParallelSolver.countAllSolutions " + ENUMERATED_SOLUTIONS, new Operation() {
+			public long run(long i) {
+				return parallel_solver.countAllSolutions(ambiguous[(int) (i % num_of_ambiguous)], ENUMERATED_SOLUTIONS);
+			}
+		});
+		final SudokuGen sudoku_generator = new SudokuGen();
+		measure("SudokuGen.generateSudokuPuzzle", new Operation() {
+			public long run(long i) {
+				return sudoku_generator.generateSudokuPuzzle(i).getNumOfClues();
+			}
+		});
+		final BacktrackingSolver table_solver = new BacktrackingSolver();
+		final TranspositionTable table = new TranspositionTable(GENERATOR_TABLE_MEMORY);
+		table_solver.setTranspositionTable(table);
+		final SudokuGen table_generator = new SudokuGen(table_solver);
+		measure("SudokuGen.generate+table", table, new Operation() {
+			public long run(long i) {
+				return table_generator.generateSudokuPuzzle(i).getNumOfClues();
+			}
+		});
+		final MetricsRecorder recorder = new MetricsRecorder();
+		final BacktrackingSolver metrics_solver = new BacktrackingSolver();
+		metrics_solver.setMetricsListener(recorder);
+		final SudokuGen metrics_generator = new SudokuGen(metrics_solver);
+		metrics_generator.setMetricsListener(recorder);
+		measure("SudokuGen.generate+metrics", recorder, new Operation() {
+			public long run(long i) {
+				return metrics_generator.generateSudokuPuzzle(i).getNumOfClues();
+			}
+		});
+		for (Difficulty difficulty : Difficulty.values()) {
+			final PuzzleConstraints constraints = difficulty.getConstraints();
+			measure("SudokuGen.generate " + difficulty, new Operation() {
+				public long run(long i) {
+					return sudoku_generator.generateSudokuPuzzle(constraints, i).getNumOfClues();
+				}
+			});
+		}
+		for (Symmetry symmetry : Symmetry.values()) {
+			if (symmetry == Symmetry.NONE)
+				continue;
+			final PuzzleConstraints constraints = new PuzzleConstraints();
+			constraints.setSymmetry(symmetry);
+			measure("SudokuGen.generate " + symmetry, new Operation() {
+				public long run(long i) {
+					return sudoku_generator.generateSudokuPuzzle(constraints, i).getNumOfClues();
+				}
+			});
+		}
+		final PuzzleConstraints mask_constraints = new PuzzleConstraints();
+		mask_constraints.setClueMask(CLUE_MASK);
+		measure("SudokuGen.generate clue mask", new Operation() {
+			public long run(long i) {
+				return sudoku_generator.generateSudokuPuzzle(mask_constraints, i).getNumOfClues();
+			}
+		});
+		final SudokuPuzzle[] generated = new SudokuPuzzle[GRADED_PUZZLES];
+		for (int i = 0; i < generated.length; i++)
+			generated[i] = sudoku_generator.generateSudokuPuzzle(i);
+		final DifficultyGrader grader = new DifficultyGrader();
+		measure("DifficultyGrader.grade", new Operation() {
+			public long run(long i) {
+				return grader.grade(generated[(int) (i % GRADED_PUZZLES)]).getHardestTechnique().ordinal();
+			}
+		});
+		for (int box_size = GridShape.MIN_BOX_SIZE; box_size <= GridShape.MAX_BOX_SIZE; box_size++) {
+			final GridShape shape = GridShape.of(box_size);
+			final GridGenerator grid_generator = new GridGenerator(shape);
+			measure("GridGenerator.generate " + shape, new Operation() {
+				public long run(long i) {
+					return grid_generator.generatePuzzle(i).getNumOfClues();
+				}
+			});
+			final GridPuzzle[] grid_puzzles = new GridPuzzle[GRID_PUZZLES];
+			for (int k = 0; k < grid_puzzles.length; k++)
+				grid_puzzles[k] = grid_generator.generatePuzzle(k);
+			final GridSolver grid_solver = new GridSolver(shape);
+			measure("GridSolver.count " + shape, new Operation() {
+				public long run(long i) {
+					return grid_solver.countSolutions(grid_puzzles[(int) (i % GRID_PUZZLES)], 2);
+				}
+			});
+		}
+		GridShape plain = GridShape.of(3);
+		int[] region_of = new int[JIGSAW_REGIONS.length()];
+		for (int k = 0; k < region_of.length; k++)
+			region_of[k] = JIGSAW_REGIONS.charAt(k) - '1';
+		GridShape[] variants = { plain.withGroups(ConstraintGroup.diagonals(plain)),
+				plain.withGroups(ConstraintGroup.windows(plain)), GridShape.jigsaw(3, region_of) };
+		String[] variant_names = { "diagonal", "windoku", "jigsaw" };
+		for (int v = 0; v < variants.length; v++) {
+			final GridGenerator variant_generator = new GridGenerator(variants[v]);
+			measure("GridGenerator.generate " + variant_names[v], new Operation() {
+				public long run(long i) {
+					return variant_generator.generatePuzzle(i).getNumOfClues();
+				}
+			});
+		}
+		final GridGenerator killer_generator = new GridGenerator(plain);
+		measure("GridGenerator.generateKillerPuzzle", new Operation() {
+			public long run(long i) {
+				return killer_generator.generateKillerPuzzle(KILLER_CAGE_SIZE, i).getNumOfClues();
+			}
+		});
+		final GridPuzzle[] killer_puzzles = new GridPuzzle[GRID_PUZZLES];
+		final GridSolver[] killer_solvers = new GridSolver[GRID_PUZZLES];
+		for (int k = 0; k < killer_puzzles.length; k++) {
+			killer_puzzles[k] = killer_generator.generateKillerPuzzle(KILLER_CAGE_SIZE, k);
+			killer_solvers[k] = new GridSolver(killer_puzzles[k].getShape());
+		}
+		measure("GridSolver.count killer", new Operation() {
+			public long run(long i) {
+				int k = (int) (i % GRID_PUZZLES);
+				return killer_solvers[k].countSolutions(killer_puzzles[k], 2);
+			}
+		});
+		measure("SudokuGen.generateCompletedPuzzle", new Operation() {
+			public long run(long i) {
+				return sudoku_generator.generateCompletedPuzzle(i).getNumberAt(80);
+			}
+		});
+		final SudokuPuzzle[] puzzles = loadCorpus(HARD);
+		final int n = puzzles.length;
+		measure("SudokuPuzzle.clone", new Operation() {
+			public long run(long i) {
+				return puzzles[(int) (i % n)].clone().getNumberAt(0);
+			}
+		});
+		measure("SudokuPuzzle.getAllowedNums", new Operation() {
+			public long run(long i) {
+				int square = (int) (i % 81);
+				return puzzles[(int) (i / 81 % n)].getAllowedNums(square % 9, square / 9).length;
+			}
+		});
+		measure("SudokuPuzzle.getCandidateMask", new Operation() {
+			public long run(long i) {
+				return puzzles[(int) (i / 81 % n)].getCandidateMask((int) (i % 81));
+			}
+		});
+		final SudokuPuzzle sudoku = new SudokuPuzzle();
+		measure("SudokuPuzzle.setSquare/clearSquare", new Operation() {
+			public long run(long i) {
+				int square = (int) (i % 81);
+				sudoku.setSquare(square, (int) (i % 9) + 1);
+				return sudoku.clearSquare(square);
+			}
+		});
+	}
+
+	/**
+	 * Parses a corpus.
+	 * @param lines (String[]) the puzzles in the one line format
+	 * @return (SudokuPuzzle[]) the puzzles
+	 */
+	private static SudokuPuzzle[] loadCorpus(String[] lines) {
+		SudokuPuzzle[] puzzles = new SudokuPuzzle[lines.length];
+		for (int i = 0; i < lines.length; i++)
+			puzzles[i] = SudokuPuzzle.fromString(lines[i]);
+		return puzzles;
+	}
+
+	/**
+	 * Measures an operation using a transposition table and prints what
+	 * the table saved during the measurement.
+	 * @param name (String) the name of the benchmark
+	 * @param table (TranspositionTable) the table used by the operation
+	 * @param op (Operation) the operation
+	 */
+	private void measure(String name, TranspositionTable table, Operation op) {
+		if (!name.contains(filter))
+			return;
+		table.resetStatistics();
+		measure(name, op);
+		System.out.printf("  %s%n", table);
+	}
+
+	/**
+	 * Measures an operation reporting to a MetricsRecorder and prints
+	 * what it recorded during the measurement.
+	 * @param name (String) the name of the benchmark
+	 * @param recorder (MetricsRecorder) the recorder the operation reports to
+	 * @param op (Operation) the operation
+	 */
+	private void measure(String name, MetricsRecorder recorder, Operation op) {
+		if (!name.contains(filter))
+			return;
+		recorder.reset();
+		measure(name, op);
+		System.out.printf("  %s%n", recorder);
+	}
+
+	/**
+	 * Warms an operation up for half the run time and then measures it
+	 * for the run time. Calls are timed in batches big enough for the
+	 * clock to be accurate, so the percentiles are of batch averages.
+	 * @param name (String) the name of the benchmark
+	 * @param op (Operation) the operation
+	 */
+	private void measure(String name, Operation op) {
+		if (!name.contains(filter))
+			return;
+		long i = 0;
+		long end = System.nanoTime() + run_time / 2;
+		int batch = 1;
+		while (System.nanoTime() < end) {
+			long start = System.nanoTime();
+			for (int k = 0; k < batch; k++)
+				sink += op.run(i++);
+			if (System.nanoTime() - start < 20000 && batch < (1 << 20))
+				batch *= 2;
+		}
+		long[] batch_times = new long[1024];
+		int num_of_batches = 0;
+		long gc_count = gcCount();
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		end = start + run_time;
+		long now = start;
+		while (now < end) {
+			for (int k = 0; k < batch; k++)
+				sink += op.run(i++);
+			long batch_end = System.nanoTime();
+			if (num_of_batches == batch_times.length)
+				batch_times = Arrays.copyOf(batch_times, num_of_batches * 2);
+			batch_times[num_of_batches++] = batch_end - now;
+			now = batch_end;
+		}
+		allocated = allocatedBytes() - allocated;
+		gc_count = gcCount() - gc_count;
+		long ops = (long) num_of_batches * batch;
+		double seconds = (now - start) / 1e9;
+		Arrays.sort(batch_times, 0, num_of_batches);
+		System.out.printf("%-34s %12.0f %10.3f %10.3f %10.3f %12.1f %10.1f %6d%n", name, ops / seconds,
+				(now - start) / 1e3 / ops,
+				batch_times[num_of_batches / 2] / 1e3 / batch,
+				batch_times[(int) (num_of_batches * 0.99)] / 1e3 / batch,
+				(double) allocated / ops, allocated / seconds / 1e6, gc_count);
+	}
+
+	/**
+	 * Returns the bytes allocated by the calling thread so far, or 0
+	 * if the JVM can't tell.
+	 * @return (long) the allocated bytes
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean thread_bean = ManagementFactory.getThreadMXBean();
+		if (thread_bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) thread_bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	/**
+	 * Returns the number of garbage collections so far.
+	 * @return (long) the collection count
+	 */
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc_bean : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc_bean.getCollectionCount());
+		return count;
+	}
+}
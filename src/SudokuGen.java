@@ -1,73 +1,344 @@
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
 
 /**
  * This class is responsible for generating sudoku puzzle grid.
  * To generate a puzzle run the generateSudokuPuzzle() method, and it will
- * return one.
+ * return one. A generator keeps its state in fields, so every thread
+ * needs its own, see BatchGenerator.
+ * Every puzzle is generated from a seed, which is stored in the puzzle,
+ * and generating with the same seed and constraints always gives the
+ * same puzzle.
  * @author Piotr Woloszyn
  *
  */
 public class SudokuGen {
+
+	// The most unavoidable sets kept, two rows or columns give at most 4
+	// and two numbers at most 9
+	private static final int MAX_UNAVOIDABLE_SETS = 18 * 4 + 36 * 9;
+	// The grids tried for a puzzle meeting the constraints before giving up,
+	// constraints that can be met take a few grids
+	private static final int MAX_ATTEMPTS = 10000;
+	// The ways the clue mask is laid on every grid
+	private static final int MASK_PLACEMENTS = 64;
 	
-	// The random number generator object
-	private Random rnd;
+	// The random number generator object, seeded for each puzzle
+	private SplittableRandom rnd;
+	// Gives the seeds of the puzzles generated without one
+	private SplittableRandom seed_source;
 	// The number of clues in the generated puzzle
 	private int num_of_clues;
+	// The solver engine used for the uniqueness checks
+	private SudokuSolver solver;
+	// Grades the puzzles of constraints with a score range, made when first needed
+	private DifficultyGrader grader;
+	// The squares left to fill by fillSquares()
+	private int[] empty_squares = new int[81];
+	// The unavoidable sets of the grid being trimmed, squares 0 - 63 are
+	// in the low and 64 - 80 in the high mask
+	private final long[] unavoidable_low = new long[MAX_UNAVOIDABLE_SETS];
+	private final long[] unavoidable_high = new long[MAX_UNAVOIDABLE_SETS];
+	private int num_of_unavoidable_sets;
+	// Working arrays of findUnavoidableSets()
+	private final int[] position = new int[10];
+	private final int[][] column_of = new int[10][9];
+	private final int[] group = new int[18];
+	private final int[] row_in_col = new int[9];
+	private final int[] row_in_box = new int[9];
+	// The squares removed together and their numbers, see isStillUnique()
+	private final int[] removed_squares = new int[81];
+	private final int[] removed_nums = new int[81];
+	// Working arrays of applyClueMask(), the square of the grid under every
+	// square of the mask, and the grid
+	private final int[] row_map = new int[9];
+	private final int[] col_map = new int[9];
+	private final int[] placed = new int[81];
+	private final int[] grid = new int[81];
+	// The squares trimPuzzle() already tried to remove
+	private final boolean[] tried = new boolean[81];
+	// The searches the uniqueness checks needed
+	private long num_of_searches;
+	// The removals trimPuzzle() tried and those that kept the puzzle unique
+	private long num_of_trim_attempts;
+	private long num_of_removals;
+	// Watched between the grids and by the solver engine, null if generating can't be cancelled
+	private CancellationToken cancellation_token;
+	// Receives the measurements of every puzzle, null for the one set on SolverModule
+	private MetricsListener metrics;
 
 	/**
-	 * The constructor.
+	 * The constructor, the calling thread's BacktrackingSolver is used
+	 * for the uniqueness checks.
 	 */
 	public SudokuGen() {
-		// Nothing here
+		this(BacktrackingSolver.forCurrentThread());
+	}
+
+	/**
+	 * The constructor.
+	 * @param solver (SudokuSolver) the solver engine used for the uniqueness checks
+	 */
+	public SudokuGen(SudokuSolver solver) {
+		this(solver, new SplittableRandom());
+	}
+
+	/**
+	 * The constructor.
+	 * @param solver (SudokuSolver) the solver engine used for the uniqueness checks
+	 * @param seed_source (SplittableRandom) gives the seeds of the puzzles
+	 * generated without one, owned by the generator
+	 */
+	public SudokuGen(SudokuSolver solver, SplittableRandom seed_source) {
+		this.solver = solver;
+		this.seed_source = seed_source;
 	}
 	
 	/**
 	 * This method is the main means of generating a sudoku puzzle from
-	 * outside the class. Firstly a new random number generator is initialized,
-	 * secondly a new empty sudoku puzzle object is created, thirdly a completed
-	 * sudoku puzzle is made via the generateCompletedPuzzle() method, fourthly
-	 * the puzzle is slowly trimmed of numbers until no more numbers can be removed
-	 * without affecting the uniqueness of the solution to the puzzle. Finally
-	 * the generated puzzle is returned.
+	 * outside the class. Firstly a new empty sudoku puzzle object is created,
+	 * secondly a completed sudoku puzzle is made via the generateCompletedPuzzle()
+	 * method, thirdly the puzzle is slowly trimmed of numbers until no more numbers
+	 * can be removed without affecting the uniqueness of the solution to the puzzle.
+	 * Finally the generated puzzle is returned.
 	 * @return (SudokuPuzzle) A ready sudoku puzzle
 	 */
 	public SudokuPuzzle generateSudokuPuzzle() {
-		rnd = new Random();
+		return generateSudokuPuzzle(seed_source.nextLong());
+	}
+
+	/**
+	 * Generates the puzzle belonging to the passed seed.
+	 * @param seed (long) the seed of the puzzle
+	 * @return (SudokuPuzzle) A ready sudoku puzzle
+	 */
+	public SudokuPuzzle generateSudokuPuzzle(long seed) {
+		return generateSudokuPuzzle(new PuzzleConstraints(), seed);
+	}
+
+	/**
+	 * Generates puzzles until one meets the passed constraints and returns it.
+	 * @param constraints (PuzzleConstraints) the requirements for the puzzle
+	 * @return (SudokuPuzzle) A ready sudoku puzzle
+	 */
+	public SudokuPuzzle generateSudokuPuzzle(PuzzleConstraints constraints) {
+		return generateSudokuPuzzle(constraints, seed_source.nextLong());
+	}
+
+	/**
+	 * Generates the puzzle belonging to the passed seed and constraints,
+	 * puzzles that don't meet the constraints are regenerated from the
+	 * same random number stream. Puzzles are only graded if the
+	 * constraints have a score range.
+	 * @param constraints (PuzzleConstraints) the requirements for the puzzle
+	 * @param seed (long) the seed of the puzzle
+	 * @return (SudokuPuzzle) A ready sudoku puzzle
+	 * @throws IllegalStateException if no grid out of MAX_ATTEMPTS gives a puzzle meeting the constraints
+	 * @throws CancellationException if the cancellation token is cancelled
+	 */
+	public SudokuPuzzle generateSudokuPuzzle(PuzzleConstraints constraints, long seed) {
+		MetricsListener call_metrics = (metrics != null) ? metrics : SolverModule.getMetricsListener();
+		long start = 0;
+		long start_attempts = num_of_trim_attempts;
+		long start_removals = num_of_removals;
+		long start_searches = num_of_searches;
+		if (call_metrics != MetricsListener.NONE)
+			start = System.nanoTime();
+		rnd = new SplittableRandom(seed);
 		SudokuPuzzle sudoku = new SudokuPuzzle();
-		generateCompletedPuzzle(sudoku);
-		trimPuzzle(sudoku, 17);
+		boolean unique = true;
+		int attempts = 0;
+		do {
+			checkCancelled();
+			if (++attempts > MAX_ATTEMPTS)
+				throw new IllegalStateException("No puzzle meeting the constraints"
+						+ (constraints.hasClueMask() ? " with the clue mask" : "") + " found in " + MAX_ATTEMPTS + " grids");
+			sudoku.clear();
+			generateCompletedPuzzle(sudoku);
+			if (constraints.hasClueMask()) {
+				unique = applyClueMask(sudoku, constraints);
+			} else {
+				trimPuzzle(sudoku, constraints.getMinClues(), constraints.getSymmetry());
+			}
+		} while (!unique || num_of_clues > constraints.getMaxClues() || !meetsScoreRange(sudoku, constraints));
+		// A search stopped by the token may have let a removal through
+		checkCancelled();
 		sudoku.setNumOfClues(num_of_clues);
+		sudoku.setSeed(seed);
+		if (call_metrics != MetricsListener.NONE)
+			call_metrics.puzzleGenerated(num_of_trim_attempts - start_attempts, num_of_removals - start_removals,
+					num_of_searches - start_searches, System.nanoTime() - start);
 		return sudoku;
 	}
 
 	/**
-	 * This method creates a solved sudoku puzzle. It works by generating a row of numbers
-	 * and then trying to find a random row of numbers that doesn't conflict with the
-	 * Preceding ones, if it fails to do so in 10 attempts the previous row is remade.
+	 * Sets the token generating watches, it's also set on the solver
+	 * engine. Once it's cancelled generateSudokuPuzzle() throws a
+	 * CancellationException as soon as the running search returns.
+	 * @param cancellation_token (CancellationToken) the token, or null for none
+	 */
+	public void setCancellationToken(CancellationToken cancellation_token) {
+		this.cancellation_token = cancellation_token;
+		solver.setCancellationToken(cancellation_token);
+	}
+
+	/**
+	 * Throws if the cancellation token is cancelled.
+	 * @throws CancellationException if it is
+	 */
+	private void checkCancelled() {
+		if (cancellation_token != null && cancellation_token.isCancelled())
+			throw new CancellationException("Generating was cancelled");
+	}
+
+	/**
+	 * Returns the amount of searches the uniqueness checks ran so far,
+	 * the checks that could be answered without one aren't counted.
+	 * @return (long) the search count
+	 */
+	public long getSearchCount() {
+		return num_of_searches;
+	}
+
+	/**
+	 * Returns the amount of squares, or symmetric pairs, the trimming
+	 * tried to remove so far.
+	 * @return (long) the attempt count
+	 */
+	public long getTrimAttemptCount() {
+		return num_of_trim_attempts;
+	}
+
+	/**
+	 * Returns the amount of trim attempts that kept the puzzle unique.
+	 * @return (long) the removal count
+	 */
+	public long getRemovalCount() {
+		return num_of_removals;
+	}
+
+	/**
+	 * Sets the listener every puzzle of this generator is reported to,
+	 * instead of the one set by SolverModule.setMetricsListener(). The
+	 * searches are reported by the solver engine.
+	 * @param metrics (MetricsListener) the listener, MetricsListener.NONE for none,
+	 * null to go back to SolverModule's
+	 */
+	public void setMetricsListener(MetricsListener metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Checks the score of a trimmed puzzle against the constraints.
+	 * @param sudoku (SudokuPuzzle) the trimmed puzzle
+	 * @param constraints (PuzzleConstraints) the requirements for the puzzle
+	 * @return (boolean) true if the constraints have no score range or the score is within it
+	 */
+	private boolean meetsScoreRange(SudokuPuzzle sudoku, PuzzleConstraints constraints) {
+		if (!constraints.hasScoreRange())
+			return true;
+		if (grader == null)
+			grader = new DifficultyGrader();
+		return constraints.acceptsScore(grader.grade(sudoku).getScore());
+	}
+
+	/**
+	 * This method creates a solved sudoku puzzle. The three sub squares on the
+	 * diagonal don't share any rows or columns, so they're filled with random
+	 * permutations straight away, and the rest of the grid is filled by
+	 * fillSquares(). Every valid grid can come out, and as fillSquares()
+	 * hardly ever backtracks every grid costs about the same.
 	 * @param sudoku (SudokuPuzzle) the sudoku puzzle object being worked on
 	 */
 	private void generateCompletedPuzzle(SudokuPuzzle sudoku) {
-		int[] allowed_nums;
-		int row_attempts_count = 0;
-		for (int i = 0; i < 9; i++) {
-			for (int j = 0; j < 9; j++) {
-				allowed_nums = sudoku.getAllowedNums(j, i);
-				if (allowed_nums.length > 0) {
-					sudoku.setSquare(j, i, allowed_nums[rnd.nextInt(allowed_nums.length)]);
-				} else {
-					row_attempts_count += 1;
-					sudoku.clearRow(i);
-					if (row_attempts_count > 10) {
-						row_attempts_count = 0;
-						i -= 2;
-						sudoku.clearRow(i + 1);
-					} else {
-						j = -1;
-					}
-				}
+		sudoku.clear();
+		for (int box = 0; box < 9; box += 4) {
+			int[] nums = getRandomPermutation(9);
+			for (int i = 0; i < 9; i++)
+				sudoku.setSquare((box / 3) * 27 + (box % 3) * 3 + (i / 3) * 9 + i % 3, nums[i] + 1);
+		}
+		int num_of_empty = 0;
+		for (int i = 0; i < 81; i++) {
+			if (sudoku.getNumberAt(i) == 0)
+				empty_squares[num_of_empty++] = i;
+		}
+		fillSquares(sudoku, num_of_empty, 0);
+	}
+
+	/**
+	 * Fills the empty squares with a randomized backtracking search. It
+	 * always continues with the square that has the fewest candidates,
+	 * so squares with a single candidate are filled before anything is
+	 * guessed, and tries the candidates in random order.
+	 * @param sudoku (SudokuPuzzle) the sudoku puzzle object being worked on
+	 * @param num_of_empty (int) the amount of squares in empty_squares
+	 * @param depth (int) the amount of squares filled so far
+	 * @return (boolean) true if the grid was completed
+	 */
+	private boolean fillSquares(SudokuPuzzle sudoku, int num_of_empty, int depth) {
+		if (depth == num_of_empty)
+			return true;
+		int best = depth;
+		int best_count = 10;
+		for (int i = depth; i < num_of_empty; i++) {
+			int count = sudoku.getCandidateCount(empty_squares[i]);
+			if (count < best_count) {
+				best = i;
+				best_count = count;
+				if (count <= 1)
+					break;
 			}
 		}
+		if (best_count == 0)
+			return false;
+		int square = empty_squares[best];
+		empty_squares[best] = empty_squares[depth];
+		empty_squares[depth] = square;
+		for (int mask = sudoku.getCandidateMask(square); mask != 0; ) {
+			// Drop a random number of the lowest candidates and take the next one
+			int pick = mask;
+			for (int k = rnd.nextInt(SudokuPuzzle.countCandidates(mask)); k > 0; k--)
+				pick &= pick - 1;
+			int val = SudokuPuzzle.lowestCandidate(pick);
+			mask &= ~(1 << (val - 1));
+			sudoku.setSquare(square, val);
+			if (fillSquares(sudoku, num_of_empty, depth + 1))
+				return true;
+			sudoku.clearSquare(square);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the numbers 0 to n - 1 in random order.
+	 * @param n (int) the amount of numbers
+	 * @return (int[]) the shuffled numbers
+	 */
+	private int[] getRandomPermutation(int n) {
+		int[] sequence = new int[n];
+		for (int i = 0; i < n; i++)
+			sequence[i] = i;
+		for (int i = n - 1; i > 0; i--) {
+			int random_num = rnd.nextInt(i + 1);
+			int tmp = sequence[i];
+			sequence[i] = sequence[random_num];
+			sequence[random_num] = tmp;
+		}
+		return sequence;
+	}
+
+	/**
+	 * Creates the solved sudoku puzzle belonging to the passed seed.
+	 * @param seed (long) the seed of the grid
+	 * @return (SudokuPuzzle) a completed grid
+	 */
+	public SudokuPuzzle generateCompletedPuzzle(long seed) {
+		rnd = new SplittableRandom(seed);
+		SudokuPuzzle sudoku = new SudokuPuzzle();
+		generateCompletedPuzzle(sudoku);
+		sudoku.setSeed(seed);
+		return sudoku;
 	}
 
 	/**
@@ -79,7 +350,6 @@ public class SudokuGen {
 	 * @return (int[]) and array of numbers in random order
 	 */
 	private int[] getRandomSequence(int from, int to) {
-		rnd.setSeed(System.currentTimeMillis());
 		int sequence_array_size = to - from + 1;
 		int[] sequence = new int[sequence_array_size];
 		for (int i = 0; i < sequence_array_size; i++) {
@@ -97,33 +367,385 @@ public class SudokuGen {
 
 	/**
 	 * Removes clues at random from the puzzle, after each number is removed it
-	 * calls the special solver to see if the puzzle still has a unique
-	 * solution, if it doesn't it puts the number back and takes another one out
-	 * in the sequence.
+	 * checks whether the puzzle still has a unique solution, if it doesn't it
+	 * puts the number back and takes another one out in the sequence.
+	 * With a symmetry every square is removed together with its partner,
+	 * and the pair is checked once.
+	 * The puzzle is unique before each removal, so only the removed squares
+	 * have to be checked, see isStillUnique().
 	 * @param sudoku (SudokuPuzzle) the puzzle object being worked on
 	 * @param min_clues (int) specifies the minimum number of clues in the puzzle
+	 * @param symmetry (Symmetry) the symmetry kept
 	 */
-	private void trimPuzzle(SudokuPuzzle sudoku, int min_clues) {
+	private void trimPuzzle(SudokuPuzzle sudoku, int min_clues, Symmetry symmetry) {
 		int[] random_num_sequence = getRandomSequence(0, 80);
-		ArrayList<Integer> empty_squares = new ArrayList<Integer>();
 		num_of_clues = 81;
 		int min_clues_allowed = (min_clues > 17) ? min_clues : 17;
+		findUnavoidableSets(sudoku);
+		Arrays.fill(tried, false);
+		long empty_low = 0;
+		long empty_high = 0;
 
 		for (int i = 0; i < 81; i++) {
-			int x = random_num_sequence[i] % 9;
-			int y = random_num_sequence[i] / 9;
-			if (sudoku.getNumberAt(x, y) != 0) {
-				int tmp = sudoku.clearSquare(x, y);
-				empty_squares.add(random_num_sequence[i]);
-				if (SolverModule.specialSolver(sudoku.clone(), (ArrayList<Integer>) empty_squares.clone()) == 2) {
-					sudoku.setSquare(x, y, tmp);
-					empty_squares.remove(empty_squares.size() - 1);
-				} else {
-					--num_of_clues;
-					if (num_of_clues == min_clues_allowed)
-						i = 81;
+			int square = random_num_sequence[i];
+			if (tried[square])
+				continue;
+			int partner = symmetry.partnerOf(square);
+			tried[square] = true;
+			tried[partner] = true;
+			int size = (partner != square) ? 2 : 1;
+			if (num_of_clues - size < min_clues_allowed)
+				continue;
+			removed_squares[0] = square;
+			removed_squares[1] = partner;
+			num_of_trim_attempts += 1;
+			long low = empty_low;
+			long high = empty_high;
+			for (int k = 0; k < size; k++) {
+				removed_nums[k] = sudoku.clearSquare(removed_squares[k]);
+				if (removed_squares[k] < 64)
+					low |= 1L << removed_squares[k];
+				else
+					high |= 1L << (removed_squares[k] - 64);
+			}
+			if (!isStillUnique(sudoku, size, low, high)) {
+				for (int k = 0; k < size; k++)
+					sudoku.setSquare(removed_squares[k], removed_nums[k]);
+			} else {
+				empty_low = low;
+				empty_high = high;
+				num_of_clues -= size;
+				num_of_removals += 1;
+				if (num_of_clues == min_clues_allowed)
+					i = 81;
+			}
+		}
+	}
+
+	/**
+	 * Looks for a unique puzzle with the clue mask in a completed grid.
+	 * Shuffling the bands, stacks, the rows and columns within them and
+	 * transposing keeps a grid valid, so instead of a new grid for every
+	 * try the mask is laid on the grid in MASK_PLACEMENTS random ways.
+	 * Most placements empty an unavoidable set of the grid, which is
+	 * checked without touching the puzzle, and only the rest are checked
+	 * with isStillUnique(). The puzzle found is moved back under the mask.
+	 * @param sudoku (SudokuPuzzle) the completed grid, the puzzle if one is found
+	 * @param constraints (PuzzleConstraints) the requirements with the clue mask
+	 * @return (boolean) true if a unique puzzle was found
+	 */
+	private boolean applyClueMask(SudokuPuzzle sudoku, PuzzleConstraints constraints) {
+		findUnavoidableSets(sudoku);
+		for (int placement = 0; placement < MASK_PLACEMENTS; placement++) {
+			shuffleLines(row_map);
+			shuffleLines(col_map);
+			boolean transposed = rnd.nextBoolean();
+			long empty_low = 0;
+			long empty_high = 0;
+			int size = 0;
+			for (int square = 0; square < 81; square++) {
+				int row = row_map[square / 9];
+				int col = col_map[square % 9];
+				placed[square] = transposed ? col * 9 + row : row * 9 + col;
+				if (constraints.isClueSquare(square))
+					continue;
+				removed_squares[size++] = placed[square];
+				if (placed[square] < 64)
+					empty_low |= 1L << placed[square];
+				else
+					empty_high |= 1L << (placed[square] - 64);
+			}
+			if (emptiesUnavoidableSet(empty_low, empty_high))
+				continue;
+			for (int k = 0; k < size; k++)
+				removed_nums[k] = sudoku.clearSquare(removed_squares[k]);
+			boolean unique = isStillUnique(sudoku, size, empty_low, empty_high);
+			for (int k = 0; k < size; k++)
+				sudoku.setSquare(removed_squares[k], removed_nums[k]);
+			if (unique) {
+				for (int square = 0; square < 81; square++)
+					grid[square] = sudoku.getNumberAt(square);
+				sudoku.clear();
+				for (int square = 0; square < 81; square++) {
+					if (constraints.isClueSquare(square))
+						sudoku.setSquare(square, grid[placed[square]]);
+				}
+				num_of_clues = constraints.getNumOfMaskClues();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fills a map of the rows or columns of the grid with a random order
+	 * that keeps it valid, the bands (stacks) are shuffled and then the
+	 * lines within every band.
+	 * @param map (int[]) receives the line each line is moved to
+	 */
+	private void shuffleLines(int[] map) {
+		for (int i = 0; i < 9; i++)
+			map[i] = i;
+		for (int band = 2; band > 0; band--) {
+			int other = rnd.nextInt(band + 1);
+			for (int i = 0; i < 3; i++) {
+				int tmp = map[band * 3 + i];
+				map[band * 3 + i] = map[other * 3 + i];
+				map[other * 3 + i] = tmp;
+			}
+		}
+		for (int band = 0; band < 9; band += 3) {
+			for (int i = 2; i > 0; i--) {
+				int other = band + rnd.nextInt(i + 1);
+				int tmp = map[band + i];
+				map[band + i] = map[other];
+				map[other] = tmp;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the puzzle is still unique after numbers were removed
+	 * from the squares in removed_squares. It was unique before, so it
+	 * stays unique unless it has a solution with another number on one of
+	 * those squares. A removed square that is left with its number as its
+	 * only candidate, or is the only place for the number in a row, column
+	 * or sub square, can't have another one, so such squares are put back
+	 * until none is left. If all the squares of an unavoidable set are
+	 * empty there must be another solution. Otherwise a single square left
+	 * is searched for a solution without its number, which is cheaper than
+	 * counting solutions, and more squares are counted once together.
+	 * The puzzle is given back with all the squares empty, but their order
+	 * in removed_squares may change.
+	 * @param sudoku (SudokuPuzzle) the puzzle with the numbers removed
+	 * @param size (int) the amount of removed squares
+	 * @param empty_low (long) the empty squares 0 - 63
+	 * @param empty_high (long) the empty squares 64 - 80
+	 * @return (boolean) true if the puzzle still has a unique solution
+	 */
+	private boolean isStillUnique(SudokuPuzzle sudoku, int size, long empty_low, long empty_high) {
+		if (emptiesUnavoidableSet(empty_low, empty_high))
+			return false;
+		int pending = size;
+		boolean progress = true;
+		while (progress && pending > 0) {
+			progress = false;
+			for (int k = pending - 1; k >= 0; k--) {
+				int square = removed_squares[k];
+				int num = removed_nums[k];
+				int bit = 1 << (num - 1);
+				if (sudoku.getCandidateMask(square) == bit || isOnlyPlace(sudoku, square, bit)) {
+					sudoku.setSquare(square, num);
+					pending -= 1;
+					removed_squares[k] = removed_squares[pending];
+					removed_nums[k] = removed_nums[pending];
+					removed_squares[pending] = square;
+					removed_nums[pending] = num;
+					progress = true;
+				}
+			}
+		}
+		boolean unique;
+		if (pending == 0) {
+			unique = true;
+		} else {
+			num_of_searches += 1;
+			if (pending == 1)
+				unique = !solver.hasOtherSolution(sudoku, removed_squares[0], removed_nums[0]);
+			else
+				unique = solver.countSolutions(sudoku, 2) == 1;
+		}
+		for (int k = pending; k < size; k++)
+			sudoku.clearSquare(removed_squares[k]);
+		return unique;
+	}
+
+	/**
+	 * Checks whether all the squares of an unavoidable set are empty.
+	 * @param empty_low (long) the empty squares 0 - 63
+	 * @param empty_high (long) the empty squares 64 - 80
+	 * @return (boolean) true if the puzzle can't be unique
+	 */
+	private boolean emptiesUnavoidableSet(long empty_low, long empty_high) {
+		for (int k = 0; k < num_of_unavoidable_sets; k++) {
+			if ((unavoidable_low[k] & ~empty_low) == 0 && (unavoidable_high[k] & ~empty_high) == 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a square is the only place left for a number in its
+	 * row, column or sub square.
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @param square (int) position on the grid
+	 * @param bit (int) the mask bit of the number
+	 * @return (boolean) true if no other empty square of one of the units can take the number
+	 */
+	private static boolean isOnlyPlace(SudokuPuzzle sudoku, int square, int bit) {
+		int[] row = SudokuPuzzle.getUnit(SudokuPuzzle.unitOf(square, 0));
+		int[] col = SudokuPuzzle.getUnit(SudokuPuzzle.unitOf(square, 1));
+		int[] box = SudokuPuzzle.getUnit(SudokuPuzzle.unitOf(square, 2));
+		boolean only_in_row = true;
+		boolean only_in_col = true;
+		boolean only_in_box = true;
+		for (int k = 0; k < 9; k++) {
+			only_in_row &= !canTake(sudoku, row[k], square, bit);
+			only_in_col &= !canTake(sudoku, col[k], square, bit);
+			only_in_box &= !canTake(sudoku, box[k], square, bit);
+		}
+		return only_in_row || only_in_col || only_in_box;
+	}
+
+	/**
+	 * Checks whether an empty square other than the passed one can take a number.
+	 * @param sudoku (SudokuPuzzle) the puzzle
+	 * @param other (int) the square being checked
+	 * @param square (int) the square that doesn't count
+	 * @param bit (int) the mask bit of the number
+	 * @return (boolean) true if the square can take the number
+	 */
+	private static boolean canTake(SudokuPuzzle sudoku, int other, int square, int bit) {
+		return other != square && sudoku.getNumberAt(other) == 0 && (sudoku.getCandidateMask(other) & bit) != 0;
+	}
+
+	/**
+	 * Finds unavoidable sets of a completed grid, sets of squares at least
+	 * one of which has to stay a clue or the puzzle has another solution.
+	 * For two rows of a band, the columns where one row's numbers move to
+	 * in the other row form cycles, and swapping the numbers of the two
+	 * rows along a cycle gives another valid grid, the numbers stay in the
+	 * same columns, rows and sub squares. The same goes for two columns of
+	 * a stack. Likewise for two numbers, every row, column and sub square
+	 * has one square of each, which are tied together, and swapping the
+	 * two numbers in a group of squares tied to each other gives another
+	 * valid grid.
+	 * @param sudoku (SudokuPuzzle) the completed grid
+	 */
+	private void findUnavoidableSets(SudokuPuzzle sudoku) {
+		num_of_unavoidable_sets = 0;
+		for (int transposed = 0; transposed < 2; transposed++) {
+			for (int first = 0; first < 9; first++) {
+				for (int second = first + 1; second < (first / 3) * 3 + 3; second++)
+					addCycles(sudoku, first, second, transposed == 1);
+			}
+		}
+		// The column of every number in every row
+		for (int i = 0; i < 81; i++)
+			column_of[sudoku.getNumberAt(i)][i / 9] = i % 9;
+		for (int a = 1; a <= 9; a++) {
+			for (int b = a + 1; b <= 9; b++)
+				addSwapGroups(column_of[a], column_of[b]);
+		}
+	}
+
+	/**
+	 * Adds the groups of squares of two numbers that are tied to each
+	 * other as unavoidable sets. Square r of a number is the one in row r,
+	 * squares 0 - 8 are the first number's and 9 - 17 the second's.
+	 * @param first (int[]) the column of the first number in every row
+	 * @param second (int[]) the column of the second number in every row
+	 */
+	private void addSwapGroups(int[] first, int[] second) {
+		for (int i = 0; i < 18; i++)
+			group[i] = i;
+		for (int r = 0; r < 9; r++) {
+			row_in_col[first[r]] = r;
+			row_in_box[(r / 3) * 3 + first[r] / 3] = r;
+		}
+		for (int r = 0; r < 9; r++) {
+			// Tied through the row, the column and the sub square
+			join(group, r, 9 + r);
+			join(group, row_in_col[second[r]], 9 + r);
+			join(group, row_in_box[(r / 3) * 3 + second[r] / 3], 9 + r);
+		}
+		for (int root = 0; root < 18; root++) {
+			if (find(group, root) != root || num_of_unavoidable_sets == MAX_UNAVOIDABLE_SETS)
+				continue;
+			long low = 0;
+			long high = 0;
+			for (int i = 0; i < 18; i++) {
+				if (find(group, i) == root) {
+					int square = (i % 9) * 9 + ((i < 9) ? first[i] : second[i - 9]);
+					if (square < 64)
+						low |= 1L << square;
+					else
+						high |= 1L << (square - 64);
 				}
 			}
+			unavoidable_low[num_of_unavoidable_sets] = low;
+			unavoidable_high[num_of_unavoidable_sets] = high;
+			num_of_unavoidable_sets += 1;
 		}
 	}
+
+	/**
+	 * Puts two squares into the same group.
+	 * @param group (int[]) the parent of every square, a root is its own parent
+	 * @param i (int) a square
+	 * @param j (int) another square
+	 */
+	private static void join(int[] group, int i, int j) {
+		group[find(group, i)] = find(group, j);
+	}
+
+	/**
+	 * Returns the root of a square's group.
+	 * @param group (int[]) the parent of every square, a root is its own parent
+	 * @param i (int) the square
+	 * @return (int) the root
+	 */
+	private static int find(int[] group, int i) {
+		while (group[i] != i)
+			i = group[i] = group[group[i]];
+		return i;
+	}
+
+	/**
+	 * Adds the cycles of two rows or columns as unavoidable sets.
+	 * @param sudoku (SudokuPuzzle) the completed grid
+	 * @param first (int) the first row or column
+	 * @param second (int) the second row or column
+	 * @param columns (boolean) true for columns
+	 */
+	private void addCycles(SudokuPuzzle sudoku, int first, int second, boolean columns) {
+		// Where every number is in the second line
+		for (int k = 0; k < 9; k++)
+			position[sudoku.getNumberAt(lineSquare(second, k, columns))] = k;
+		int visited = 0;
+		for (int start = 0; start < 9; start++) {
+			if ((visited & (1 << start)) != 0)
+				continue;
+			long low = 0;
+			long high = 0;
+			int length = 0;
+			for (int k = start; (visited & (1 << k)) == 0; k = position[sudoku.getNumberAt(lineSquare(first, k, columns))]) {
+				visited |= 1 << k;
+				length += 1;
+				for (int line = 0; line < 2; line++) {
+					int square = lineSquare((line == 0) ? first : second, k, columns);
+					if (square < 64)
+						low |= 1L << square;
+					else
+						high |= 1L << (square - 64);
+				}
+			}
+			if (length > 1 && num_of_unavoidable_sets < MAX_UNAVOIDABLE_SETS) {
+				unavoidable_low[num_of_unavoidable_sets] = low;
+				unavoidable_high[num_of_unavoidable_sets] = high;
+				num_of_unavoidable_sets += 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns a square of a row or column.
+	 * @param line (int) the row or column
+	 * @param k (int) the position in the line
+	 * @param columns (boolean) true if the line is a column
+	 * @return (int) the square
+	 */
+	private static int lineSquare(int line, int k, boolean columns) {
+		return columns ? k * 9 + line : line * 9 + k;
+	}
 }
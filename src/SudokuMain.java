@@ -1,3 +1,5 @@
+import java.util.function.Supplier;
+
 /**
  * The application starts here.
  * @author Piotr Woloszyn
@@ -5,8 +7,19 @@
  */
 public class SudokuMain {
 
+	/**
+	 * Starts the window, passing "dlx" as the first argument makes it
+	 * use the Dancing Links solver engine instead of the backtracking one,
+	 * also for generating.
+	 * @param args (String[]) the command line arguments
+	 */
 	public static void main(String[] args) {
-		SudokuWindow sudoku_window = new SudokuWindow();
+		Supplier<SudokuSolver> solvers;
+		if (args.length > 0 && args[0].equals("dlx"))
+			solvers = DancingLinksSolver::new;
+		else
+			solvers = BacktrackingSolver::new;
+		SudokuWindow sudoku_window = new SudokuWindow(solvers);
 	}
 	
 }
@@ -1,44 +1,157 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class defines the sudoku puzzle object where the grid
  * data, access and modification methods are.
+ * Which numbers are used in each row, column and sub square is kept
+ * as a 9 bit mask (bit 0 stands for the number 1, bit 8 for the number 9),
+ * so the candidates of any cell are available as a mask without
+ * allocating anything, see getCandidateMask().
+ * The peers of every square, the squares of every unit and the units of
+ * every square are worked out once into static tables, which the solvers,
+ * the generator and the grader share through getPeers(), getUnit() and
+ * unitOf().
  * @author Piotr Woloszyn
  *
  */
 public class SudokuPuzzle {
 
+	// Mask with all nine candidate bits set
+	public static final int ALL_CANDIDATES = 0x1FF;
+	// The first unit of the rows, the columns and the sub squares
+	public static final int ROW_UNITS = 0;
+	public static final int COL_UNITS = 9;
+	public static final int BOX_UNITS = 18;
+
+	// The 20 squares sharing a row, column or sub square with each square, in ascending order
+	private static final int[][] PEERS = new int[81][20];
+	// The squares of the 9 rows, 9 columns and 9 sub squares, in that order
+	private static final int[][] UNITS = new int[27][9];
+	// The row, column and sub square unit of every square, entries square * 3 to square * 3 + 2
+	private static final int[] UNITS_OF = new int[81 * 3];
+
+	static {
+		for (int i = 0; i < 81; i++) {
+			UNITS_OF[i * 3] = ROW_UNITS + i / 9;
+			UNITS_OF[i * 3 + 1] = COL_UNITS + i % 9;
+			UNITS_OF[i * 3 + 2] = BOX_UNITS + (i / 27) * 3 + (i % 9) / 3;
+		}
+		int[] unit_sizes = new int[27];
+		for (int i = 0; i < 81; i++) {
+			for (int k = i * 3; k < i * 3 + 3; k++)
+				UNITS[UNITS_OF[k]][unit_sizes[UNITS_OF[k]]++] = i;
+		}
+		for (int i = 0; i < 81; i++) {
+			int peer_count = 0;
+			for (int j = 0; j < 81; j++) {
+				if (j != i && sees(i, j))
+					PEERS[i][peer_count++] = j;
+			}
+		}
+	}
+
 	// The main game grid, stores the numbers
 	private int[] grid;
-	// Helper grid the stores where given numbers can and can't be placed
-	private int[][] auxilary_grid;
+	// Masks of the numbers used in each unit, the rows, columns and sub squares
+	private int[] unit_masks;
 	// The amount of clues in the puzzle
 	private int number_of_clues;
+	// The seed the puzzle was generated from
+	private long seed;
 
 	/**
 	 * The constructor.
 	 */
 	public SudokuPuzzle() {
 		grid = new int[81];
-		auxilary_grid = new int[81][9];
+		unit_masks = new int[27];
 	}
 
 	/**
 	 * The inner constructor used by the clone() method.
 	 */
-	private SudokuPuzzle(int[] grid, int[][] auxilary_grid) {
+	private SudokuPuzzle(int[] grid, int[] unit_masks) {
 		this.grid = grid;
-		this.auxilary_grid = auxilary_grid;
+		this.unit_masks = unit_masks;
+	}
+
+	/**
+	 * Returns the 20 squares sharing a row, column or sub square with a
+	 * square, the array is shared and mustn't be modified.
+	 * @param square (int) position on the grid (x + y * 9)
+	 * @return (int[]) the peers in ascending order
+	 */
+	public static int[] getPeers(int square) {
+		return PEERS[square];
 	}
-	
+
+	/**
+	 * Returns the squares of a unit, the array is shared and mustn't be
+	 * modified.
+	 * @param unit (int) the rows from ROW_UNITS, the columns from COL_UNITS
+	 * and the sub squares from BOX_UNITS, 9 each
+	 * @return (int[]) the 9 squares in ascending order
+	 */
+	public static int[] getUnit(int unit) {
+		return UNITS[unit];
+	}
+
+	/**
+	 * Returns a unit of a square.
+	 * @param square (int) position on the grid (x + y * 9)
+	 * @param kind (int) 0 for the row, 1 for the column, 2 for the sub square
+	 * @return (int) the unit, see getUnit()
+	 */
+	public static int unitOf(int square, int kind) {
+		return UNITS_OF[square * 3 + kind];
+	}
+
+	/**
+	 * Checks whether two squares share a row, column or sub square.
+	 * @param a (int) a square
+	 * @param b (int) another square
+	 * @return (boolean) true if they're peers, or the same square
+	 */
+	public static boolean sees(int a, int b) {
+		return a / 9 == b / 9 || a % 9 == b % 9 || (a / 27 == b / 27 && (a % 9) / 3 == (b % 9) / 3);
+	}
+
+	/**
+	 * Creates a puzzle from the common one line format, 81 characters
+	 * row by row with the numbers 1 - 9 for clues and '.' or '0' for
+	 * empty squares.
+	 * @param line (CharSequence) the puzzle line
+	 * @return (SudokuPuzzle) the puzzle
+	 * @throws IllegalArgumentException if the line is malformed or two clues clash
+	 */
+	public static SudokuPuzzle fromString(CharSequence line) {
+		if (line.length() < 81)
+			throw new IllegalArgumentException("A puzzle line needs 81 characters");
+		SudokuPuzzle sudoku = new SudokuPuzzle();
+		int clues = 0;
+		for (int i = 0; i < 81; i++) {
+			char c = line.charAt(i);
+			if (c >= '1' && c <= '9') {
+				if (!sudoku.setSquare(i, c - '0'))
+					throw new IllegalArgumentException("Clue " + c + " at square " + i + " clashes");
+				clues += 1;
+			} else if (c != '.' && c != '0') {
+				throw new IllegalArgumentException("Unexpected character " + c + " at square " + i);
+			}
+		}
+		sudoku.setNumOfClues(clues);
+		return sudoku;
+	}
+
 	/**
 	 * Sets the number_of_clues variable in the sudoku puzzle.
-	 * @param number_of_clues (int) self explanatory really 
+	 * @param number_of_clues (int) self explanatory really
 	 */
 	public void setNumOfClues(int number_of_clues) {
 		this.number_of_clues = number_of_clues;
 	}
-	
+
 	/**
 	 * Returns the number_of_clues variable.
 	 * @return (int)
@@ -47,6 +160,23 @@ public class SudokuPuzzle {
 		return number_of_clues;
 	}
 
+	/**
+	 * Sets the seed the puzzle was generated from.
+	 * @param seed (long) the seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the seed the puzzle was generated from, SudokuGen gives
+	 * the same puzzle again when passed this seed.
+	 * @return (long)
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
 	/**
 	 * Attempts to add the passed number to the grid at the specified
 	 * coordinates.
@@ -57,9 +187,23 @@ public class SudokuPuzzle {
 	 *         returns false if it isn't
 	 */
 	public boolean setSquare(int x, int y, int val) {
-		if (auxilary_grid[x + y * 9][val - 1] == 0) {
-			grid[x + y * 9] = val;
-			tagRowsColumnsSquares(x, y, val);
+		return setSquare(x + y * 9, val);
+	}
+
+	/**
+	 * Attempts to add the passed number to the grid at the specified
+	 * position, the square has to be empty and the number can't already
+	 * be used in its row, column or sub square.
+	 * @param index (int) position on the grid (x + y * 9)
+	 * @param val (int) the number that is being added
+	 * @return (boolean) returns true if the number is successfully added
+	 *         returns false if it isn't
+	 */
+	public boolean setSquare(int index, int val) {
+		int bit = 1 << (val - 1);
+		if (grid[index] == 0 && (getCandidateMask(index) & bit) != 0) {
+			grid[index] = val;
+			tagRowsColumnsSquares(index, bit);
 			return true;
 		} else
 			return false;
@@ -72,9 +216,20 @@ public class SudokuPuzzle {
 	 * @return (int) the number at the given coordinates
 	 */
 	public int clearSquare(int x, int y) {
-		int out = grid[x + y * 9];
-		untagRowsColumnsSquares(x, y, out);
-		grid[x + y * 9] = 0;
+		return clearSquare(x + y * 9);
+	}
+
+	/**
+	 * Removes and returns the number at the specified position.
+	 * @param index (int) position on the grid (x + y * 9)
+	 * @return (int) the number at the given position
+	 */
+	public int clearSquare(int index) {
+		int out = grid[index];
+		if (out > 0) {
+			untagRowsColumnsSquares(index, 1 << (out - 1));
+			grid[index] = 0;
+		}
 		return out;
 	}
 
@@ -88,6 +243,15 @@ public class SudokuPuzzle {
 		return grid[x + y * 9];
 	}
 
+	/**
+	 * Returns the number at the specified position.
+	 * @param index (int) position on the grid (x + y * 9)
+	 * @return (int) the number at the given position, 0 if empty
+	 */
+	public int getNumberAt(int index) {
+		return grid[index];
+	}
+
 	/**
 	 * Clears the entire row of numbers.
 	 * @param y (int) the vertical coordinate
@@ -97,7 +261,7 @@ public class SudokuPuzzle {
 			clearSquare(i, y);
 		}
 	}
-	
+
 	/**
 	 * Retrieves a list of positions on the grid where there are
 	 * no numbers present.
@@ -112,6 +276,46 @@ public class SudokuPuzzle {
 		return out;
 	}
 
+	/**
+	 * Returns the mask of numbers that can be placed at the given position,
+	 * bit n - 1 is set when the number n isn't used in the square's row,
+	 * column or sub square.
+	 * @param index (int) position on the grid (x + y * 9)
+	 * @return (int) the candidate mask
+	 */
+	public int getCandidateMask(int index) {
+		int k = index * 3;
+		return ~(unit_masks[UNITS_OF[k]] | unit_masks[UNITS_OF[k + 1]] | unit_masks[UNITS_OF[k + 2]]) & ALL_CANDIDATES;
+	}
+
+	/**
+	 * Returns the amount of numbers that can be placed at the given position.
+	 * @param index (int) position on the grid (x + y * 9)
+	 * @return (int) the number of candidates
+	 */
+	public int getCandidateCount(int index) {
+		return Integer.bitCount(getCandidateMask(index));
+	}
+
+	/**
+	 * Returns the amount of numbers in a candidate mask.
+	 * @param mask (int) a candidate mask
+	 * @return (int) the number of candidates in the mask
+	 */
+	public static int countCandidates(int mask) {
+		return Integer.bitCount(mask);
+	}
+
+	/**
+	 * Returns the smallest number in a candidate mask, iterate over a
+	 * mask with: for (m = mask; m != 0; m &= m - 1) lowestCandidate(m).
+	 * @param mask (int) a non empty candidate mask
+	 * @return (int) the smallest number in the mask (1 - 9)
+	 */
+	public static int lowestCandidate(int mask) {
+		return Integer.numberOfTrailingZeros(mask) + 1;
+	}
+
 	/**
 	 * Creates and returns an array of numbers that can be placed at the given
 	 * coordinates.
@@ -121,18 +325,12 @@ public class SudokuPuzzle {
 	 *         coordinates
 	 */
 	public int[] getAllowedNums(int x, int y) {
-		int nums_count = 0;
-		for (int i = 0; i < 9; i++) {
-			if (auxilary_grid[x + y * 9][i] == 0)
-				nums_count += 1;
-		}
-		int[] allowed_nums = new int[nums_count];
+		int mask = getCandidateMask(x + y * 9);
+		int[] allowed_nums = new int[Integer.bitCount(mask)];
 		int array_ptr = 0;
-		for (int i = 0; i < 9; i++) {
-			if (auxilary_grid[x + y * 9][i] == 0) {
-				allowed_nums[array_ptr] = i + 1;
-				array_ptr += 1;
-			}
+		for (; mask != 0; mask &= mask - 1) {
+			allowed_nums[array_ptr] = lowestCandidate(mask);
+			array_ptr += 1;
 		}
 		return allowed_nums;
 	}
@@ -141,8 +339,8 @@ public class SudokuPuzzle {
 	 * Empties the entire puzzle of numbers.
 	 */
 	public void clear() {
-		grid = new int[81];
-		auxilary_grid = new int[81][9];
+		Arrays.fill(grid, 0);
+		Arrays.fill(unit_masks, 0);
 	}
 
 	/**
@@ -165,64 +363,50 @@ public class SudokuPuzzle {
 	}
 
 	/**
-	 * Marks the rows, columns, and sub squares in the puzzle that they are
+	 * Marks the row, column, and sub square of the given position as
 	 * being covered by a given number.
-	 * @param x (int) the horizontal coordinate
-	 * @param y (int) the vertical coordinate
-	 * @param val (int) the number that is doing the covering
-	 */
-	private void tagRowsColumnsSquares(int x, int y, int val) {
-		if (val > 0) {
-			// Tag Rows
-			for (int i = 0; i < 9; i++)
-				auxilary_grid[x + i * 9][val - 1] += 1;
-			// Tag Cols
-			for (int i = 0; i < 9; i++)
-				auxilary_grid[i + y * 9][val - 1] += 1;
-			// Tag Sqrs
-			for (int i = 0; i < 3; i++) {
-				for (int j = 0; j < 3; j++) {
-					auxilary_grid[((x / 3) * 3 + i) + ((y / 3) * 3 + j) * 9][val - 1] += 1;
-				}
-			}
-		}
+	 * @param index (int) position on the grid (x + y * 9)
+	 * @param bit (int) the mask bit of the number that is doing the covering
+	 */
+	private void tagRowsColumnsSquares(int index, int bit) {
+		int k = index * 3;
+		unit_masks[UNITS_OF[k]] |= bit;
+		unit_masks[UNITS_OF[k + 1]] |= bit;
+		unit_masks[UNITS_OF[k + 2]] |= bit;
 	}
 
 	/**
-	 * Unmarks the rows, columns, and sub squares in the puzzle that they are
+	 * Unmarks the row, column, and sub square of the given position as
 	 * being covered by a given number.
-	 * @param x (int) the horizontal coordinate
-	 * @param y (int) the vertical coordinate
-	 * @param val (int) the number that is doing the covering
-	 */
-	private void untagRowsColumnsSquares(int x, int y, int val) {
-		if (val > 0) {
-			// Untag Rows
-			for (int i = 0; i < 9; i++)
-				auxilary_grid[x + i * 9][val - 1] -= 1;
-			// Untag Cols
-			for (int i = 0; i < 9; i++)
-				auxilary_grid[i + y * 9][val - 1] -= 1;
-			// Untag Sqrs
-			for (int i = 0; i < 3; i++) {
-				for (int j = 0; j < 3; j++) {
-					auxilary_grid[((x / 3) * 3 + i) + ((y / 3) * 3 + j) * 9][val - 1] -= 1;
-				}
-			}
-		}
+	 * @param index (int) position on the grid (x + y * 9)
+	 * @param bit (int) the mask bit of the number that is doing the covering
+	 */
+	private void untagRowsColumnsSquares(int index, int bit) {
+		int k = index * 3;
+		unit_masks[UNITS_OF[k]] &= ~bit;
+		unit_masks[UNITS_OF[k + 1]] &= ~bit;
+		unit_masks[UNITS_OF[k + 2]] &= ~bit;
+	}
+
+	/**
+	 * Overwrites this puzzle with the contents of the passed one, unlike
+	 * clone() it doesn't allocate anything.
+	 * @param sudoku (SudokuPuzzle) the puzzle being copied
+	 */
+	public void copyFrom(SudokuPuzzle sudoku) {
+		System.arraycopy(sudoku.grid, 0, grid, 0, 81);
+		System.arraycopy(sudoku.unit_masks, 0, unit_masks, 0, 27);
+		number_of_clues = sudoku.number_of_clues;
+		seed = sudoku.seed;
 	}
 
 	/**
 	 * The clone method, returns a copy of this sudoku puzzle object.
 	 */
 	public SudokuPuzzle clone() {
-		int[][] aux_grid_copy = new int[81][9];
-		for (int i = 0; i < 81; i++) {
-			for (int j = 0; j < 9; j++) {
-				aux_grid_copy[i][j] = auxilary_grid[i][j];
-			}
-		}
-		SudokuPuzzle sudoku = new SudokuPuzzle(grid.clone(), aux_grid_copy);
+		SudokuPuzzle sudoku = new SudokuPuzzle(grid.clone(), unit_masks.clone());
+		sudoku.number_of_clues = number_of_clues;
+		sudoku.seed = seed;
 		return sudoku;
 	}
 }
@@ -0,0 +1,77 @@
+/**
+ * This interface is implemented by the solver engines, so the parts of
+ * the application that need solving can be given whichever engine
+ * is faster for their work. Engines keep working arrays between calls,
+ * so an engine object shouldn't be used by two threads at once.
+ * @author Piotr Woloszyn
+ *
+ */
+public interface SudokuSolver {
+
+	/**
+	 * Solves the passed puzzle.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved, it's not modified
+	 * @return (SudokuPuzzle) a solution, or null if there is none
+	 */
+	public SudokuPuzzle solve(SudokuPuzzle sudoku);
+
+	/**
+	 * Counts the solutions of the passed puzzle up to a limit, with a limit
+	 * of 2 it returns 0, 1 or 2 like SolverModule.specialSolver().
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved, it's not modified
+	 * @param limit (int) the number of solutions at which to stop
+	 * @return (int) the number of solutions found, at most limit
+	 */
+	public int countSolutions(SudokuPuzzle sudoku, int limit);
+
+	/**
+	 * Counts the solutions of the passed puzzle up to a limit that can go
+	 * past the int range, for puzzles with very many solutions. The default
+	 * is countSolutions() with the limit capped at Integer.MAX_VALUE.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved, it's not modified
+	 * @param limit (long) the number of solutions at which to stop
+	 * @return (long) the number of solutions found, at most limit
+	 */
+	public default long countAllSolutions(SudokuPuzzle sudoku, long limit) {
+		return countSolutions(sudoku, (int) Math.min(limit, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Passes the solutions of the passed puzzle to the listener one at a time,
+	 * until the limit is reached or the listener asks to stop.
+	 * @param sudoku (SudokuPuzzle) the puzzle to be solved, it's not modified
+	 * @param limit (int) the number of solutions at which to stop
+	 * @param listener (SolutionListener) receives the solutions
+	 * @return (int) the number of solutions passed to the listener
+	 */
+	public int enumerateSolutions(SudokuPuzzle sudoku, int limit, SolutionListener listener);
+
+	/**
+	 * Checks whether the passed puzzle has a solution that doesn't have the
+	 * given number on the given square. When the puzzle with the number on
+	 * the square has a single solution, this tells whether taking the number
+	 * away leaves the puzzle unique. The default goes through the solutions
+	 * with enumerateSolutions(), engines can search for one directly.
+	 * @param sudoku (SudokuPuzzle) the puzzle, it's not modified
+	 * @param square (int) position on the grid
+	 * @param num (int) the number the solution mustn't have on the square
+	 * @return (boolean) true if there is such a solution
+	 */
+	public default boolean hasOtherSolution(SudokuPuzzle sudoku, final int square, final int num) {
+		final boolean[] found = new boolean[1];
+		enumerateSolutions(sudoku, Integer.MAX_VALUE, new SolutionListener() {
+			public boolean solutionFound(SudokuPuzzle solution) {
+				found[0] = solution.getNumberAt(square) != num;
+				return !found[0];
+			}
+		});
+		return found[0];
+	}
+
+	/**
+	 * Sets the token the searches watch, once it's cancelled a search
+	 * returns as soon as possible with what it found so far.
+	 * @param cancellation_token (CancellationToken) the token, or null for none
+	 */
+	public void setCancellationToken(CancellationToken cancellation_token);
+}
@@ -8,6 +8,12 @@ import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
 
 import javax.swing.JButton;
 import javax.swing.JFormattedTextField;
@@ -16,10 +22,14 @@ import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 /**
  * The core class of the application where both the GUI
  * and the primary features are defined. 
+ * Generating, solving and validating run on a background thread so the
+ * window stays responsive, see BackgroundTask.
  * @author Piotr Woloszyn
  *
  */
@@ -45,13 +55,52 @@ public class SudokuWindow extends JFrame implements ActionListener {
 	
 	// This variable determines which Validator to use.
 	boolean generated_sudoku = false;
+	
+	// The solver engine used for solving and validating.
+	SudokuSolver solver;
+	
+	// Keeps generated puzzles ready so Generate doesn't have to wait.
+	PuzzlePool puzzle_pool;
+	
+	// Runs the requests one at a time, so the solver is never used by two threads.
+	ExecutorService background_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SudokuWindow background");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	// The request running in the background, only its result is shown.
+	BackgroundTask<?> current_task;
+	// Ticks every second while a request runs, shows the time taken and enforces the timeout.
+	Timer progress_timer = new Timer(1000, new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			updateProgress();
+		}
+	});
+	// Requests running longer than this are cancelled, 0 for no limit.
+	long timeout_millis = 30000;
 
 	/**
 	 * The constructor, just sets up the frame name and runs the
 	 * buildWindow() method.
 	 */
 	public SudokuWindow() {
+		this(BacktrackingSolver::new);
+	}
+
+	/**
+	 * The constructor, sets up the frame name, the solver engine
+	 * and the puzzle pool and runs the buildWindow() method.
+	 * @param solvers (Supplier<? extends SudokuSolver>) makes the solver engines,
+	 * one for solving and validating and more for generating
+	 */
+	public SudokuWindow(Supplier<? extends SudokuSolver> solvers) {
 		super("SUDOKU");
+		this.solver = solvers.get();
+		// Generate has always given any unique puzzle, grading would
+		// narrow it to the few that need chains
+		puzzle_pool = new PuzzlePool(4, 1, solvers, Difficulty.ANY);
 		buildWindow();
 	}
 
@@ -177,6 +226,13 @@ public class SudokuWindow extends JFrame implements ActionListener {
 		btn4.addActionListener(this);
 		btn4.setActionCommand("clear");
 		button_panel.add(btn4);
+
+		JButton btn5 = new JButton("Cancel");
+		btn5.setToolTipText("Stops the generating, solving or validating that is running");
+		btn5.setBackground(Color.WHITE);
+		btn5.addActionListener(this);
+		btn5.setActionCommand("cancel");
+		button_panel.add(btn5);
 		
 		message_field = new JTextField("...");
 		message_field.setForeground(Color.BLUE);
@@ -243,21 +299,32 @@ public class SudokuWindow extends JFrame implements ActionListener {
 	}
 	
 	/**
-	 * This method solves the given sudoku puzzle
-	 * 
+	 * This method solves the given sudoku puzzle in the background
+	 * and fills the empty cells with the solution when it's found.
 	 */
 	public void solveSudoku() {
-		SudokuPuzzle solved_sudoku = new SudokuPuzzle();
-		Pair<Integer, SudokuPuzzle> sudokupair = SolverModule.solver(sudoku.clone(), sudoku.getEmptySquares());
-		solved_sudoku = sudokupair.getValTwo();
-		for(int i=0; i<81; i++) {
-			JFormattedTextField txtfld = textfields.get(i);
-			if(txtfld.getText().isEmpty()) {
-				txtfld.setForeground(Color.BLUE);
-				txtfld.setEditable(true);
-				txtfld.setText(solved_sudoku.getNumberAt(i%9, i/9)+"");
+		final SudokuPuzzle puzzle = sudoku;
+		startTask(new BackgroundTask<SudokuPuzzle>("Solving\u2026") {
+			SudokuPuzzle compute() {
+				return solver.solve(puzzle);
 			}
-		}
+
+			void finish(SudokuPuzzle solved_sudoku) {
+				if (solved_sudoku == null) {
+					setMessageField(Color.RED, "No Valid Sudoku On The Grid");
+					return;
+				}
+				for(int i=0; i<81; i++) {
+					JFormattedTextField txtfld = textfields.get(i);
+					if(txtfld.getText().isEmpty()) {
+						txtfld.setForeground(Color.BLUE);
+						txtfld.setEditable(true);
+						txtfld.setText(solved_sudoku.getNumberAt(i%9, i/9)+"");
+					}
+				}
+				setMessageField(Color.BLUE, "Peace Of Cake");
+			}
+		});
 	}
 	
 	/**
@@ -273,44 +340,134 @@ public class SudokuWindow extends JFrame implements ActionListener {
 	}
 	
 	/**
-	 * Generates a valid sudoku puzzle.
+	 * Generates a valid sudoku puzzle in the background and puts
+	 * it on the grid when it's ready.
 	 */
 	public void generateSudoku() {
-		clearGrid();
-		SudokuGen sudoku_generator = new SudokuGen();
-		sudoku = sudoku_generator.generateSudokuPuzzle();
-		fillGrid();
-		generated_sudoku = true;
+		startTask(new BackgroundTask<SudokuPuzzle>("Generating\u2026") {
+			SudokuPuzzle compute() {
+				return puzzle_pool.take(Difficulty.ANY, token);
+			}
+
+			void finish(SudokuPuzzle generated) {
+				clearGrid();
+				sudoku = generated;
+				fillGrid();
+				generated_sudoku = true;
+				setMessageField(Color.BLACK, "Number Of Clues: "+sudoku.getNumOfClues());
+			}
+		});
 	}
 	
 	/**
-	 * This method checks to see if the inputed puzzle is valid.
-	 * @return (int) Returns 0 if puzzle is valid; 1 if it's invalid;
-	 * 2 if there is too few clues; 3 if there are multiple solutions.
+	 * This method checks to see if the inputed puzzle is valid, the
+	 * solutions are counted in the background and the outcome is
+	 * shown by showPuzzleStatus().
 	 */
-	public int validatePuzzle() {
-		SudokuPuzzle tmp_puzzle = new SudokuPuzzle();
-		ArrayList<Integer> empty_squares = new ArrayList<Integer>();
+	public void validatePuzzle() {
+		final SudokuPuzzle tmp_puzzle = new SudokuPuzzle();
 		int count = 0;
 		for(int i=0; i<81; i++) {
 			JFormattedTextField txtfld = textfields.get(i);
 			if(!txtfld.getText().isEmpty()) {
 				count += 1;
-				if(!tmp_puzzle.setSquare(i%9, i/9, Integer.parseInt(txtfld.getText())))
-					return 1;
-			} else {
-				empty_squares.add(i);
+				if(!tmp_puzzle.setSquare(i%9, i/9, Integer.parseInt(txtfld.getText()))) {
+					showPuzzleStatus(1);
+					return;
+				}
 			}
 		}
-		if(count < 17)
-			return 2;
-		int solutions = SolverModule.specialSolver(tmp_puzzle, empty_squares);
-		if(solutions == 1) {
-			sudoku = tmp_puzzle;
-			fillGrid();
-			return 0;
+		if(count < 17) {
+			showPuzzleStatus(2);
+			return;
+		}
+		startTask(new BackgroundTask<Integer>("Validating\u2026") {
+			Integer compute() {
+				return solver.countSolutions(tmp_puzzle, 2);
+			}
+
+			void finish(Integer solutions) {
+				if(solutions == 1) {
+					sudoku = tmp_puzzle;
+					fillGrid();
+					showPuzzleStatus(0);
+				} else {
+					showPuzzleStatus(3);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Shows the outcome of validatePuzzle() in the message field.
+	 * @param puzzlestatus (int) 0 if puzzle is valid; 1 if it's invalid;
+	 * 2 if there is too few clues; 3 if there are multiple solutions.
+	 */
+	public void showPuzzleStatus(int puzzlestatus) {
+		if(puzzlestatus == 0) {
+			setMessageField(Color.BLUE, "Puzzle Is Valid");
+		} else if (puzzlestatus == 1){
+			setMessageField(Color.RED, "Puzzle Is Invalid");
+		} else if (puzzlestatus == 2) {
+			setMessageField(Color.RED, "Puzzle Has Too Few Numbers");
+		} else {
+			setMessageField(Color.RED, "Puzzle Has Multiple Solutions");
+		}
+	}
+
+	/**
+	 * Sets how long a background request may run before it's cancelled.
+	 * @param timeout_millis (long) the time limit in milliseconds, 0 for no limit
+	 */
+	public void setTimeout(long timeout_millis) {
+		this.timeout_millis = timeout_millis;
+	}
+
+	/**
+	 * Starts a request in the background, cancelling the one that
+	 * is running so only the latest request's result is shown.
+	 * @param task (BackgroundTask<?>) the request
+	 */
+	public void startTask(BackgroundTask<?> task) {
+		cancelCurrentTask();
+		current_task = task;
+		setMessageField(Color.BLACK, task.progress_message);
+		progress_timer.restart();
+		background_executor.execute(task);
+	}
+
+	/**
+	 * Cancels the request running in the background, its result is dropped.
+	 * @return (boolean) true if there was a request to cancel
+	 */
+	public boolean cancelCurrentTask() {
+		progress_timer.stop();
+		if (current_task == null)
+			return false;
+		// Cleared first, cancel() runs done() straight away on this thread
+		BackgroundTask<?> task = current_task;
+		current_task = null;
+		task.token.cancel();
+		task.cancel(false);
+		return true;
+	}
+
+	/**
+	 * Shows how long the background request has been running,
+	 * and cancels it once it runs past the timeout.
+	 */
+	public void updateProgress() {
+		if (current_task == null) {
+			progress_timer.stop();
+			return;
+		}
+		long elapsed = System.currentTimeMillis() - current_task.start_time;
+		if (timeout_millis > 0 && elapsed >= timeout_millis) {
+			cancelCurrentTask();
+			setMessageField(Color.RED, "Timed Out");
+		} else {
+			setMessageField(Color.BLACK, current_task.progress_message + " " + elapsed / 1000 + "s");
 		}
-		return 3;
 	}
 	
 	/**
@@ -376,14 +533,12 @@ public class SudokuWindow extends JFrame implements ActionListener {
 		// and display it on the frame.
 		if (inp == "generate") {
 			generateSudoku();
-			setMessageField(Color.BLACK, "Number Of Clues: "+sudoku.getNumOfClues());
 		// If the 'Solve' button is pressed solve
 		// the puzzle displayed and fill in the
 		// empty spaces with numbers from the solution.
 		} else if (inp == "solve") {
 			if(generated_sudoku) {
 				solveSudoku();
-				setMessageField(Color.BLUE, "Peace Of Cake");
 			} else {
 				setMessageField(Color.RED, "No Valid Sudoku On The Grid");
 			}
@@ -392,16 +547,7 @@ public class SudokuWindow extends JFrame implements ActionListener {
 			// If a puzzle has already been generated, check if
 			// the inputed numbers are in valid locations.
 			if(!generated_sudoku) {
-				int puzzlestatus = validatePuzzle();
-				if(puzzlestatus == 0) {
-					setMessageField(Color.BLUE, "Puzzle Is Valid");
-				} else if (puzzlestatus == 1){
-					setMessageField(Color.RED, "Puzzle Is Invalid");
-				} else if (puzzlestatus == 2) {
-					setMessageField(Color.RED, "Puzzle Has Too Few Numbers");
-				} else {
-					setMessageField(Color.RED, "Puzzle Has Multiple Solutions");
-				}
+				validatePuzzle();
 			// If a puzzle has not been generated yet, check if
 			// the current set of number on the grid constitutes
 			// a valid puzzle, if it does convert the numbers into
@@ -418,6 +564,7 @@ public class SudokuWindow extends JFrame implements ActionListener {
 			}
 		// If the 'Validate' button is pressed do one of two things.
 		} else if (inp == "clear") {
+			cancelCurrentTask();
 			setMessageField(Color.BLUE, "...");
 			// If there are input numbers present (blue),
 			// clear only them.
@@ -425,6 +572,76 @@ public class SudokuWindow extends JFrame implements ActionListener {
 				// Else remove all numbers from the grid.
 				clearGrid();
 			}
+		// If the 'Cancel' button is pressed stop the background request.
+		} else if (inp == "cancel") {
+			if(cancelCurrentTask())
+				setMessageField(Color.RED, "Cancelled");
+		}
+	}
+
+	/**
+	 * A request run on the background executor. The result is handed
+	 * to finish() on the event dispatch thread, unless the request was
+	 * cancelled or replaced by a newer one in the meantime.
+	 * @param <T> the type of the result
+	 */
+	abstract class BackgroundTask<T> extends SwingWorker<T, Void> {
+
+		// What the message field shows while the request runs
+		final String progress_message;
+		// Cancelled along with the request, stops the solver's search
+		final CancellationToken token = new CancellationToken();
+		// When the request was made
+		final long start_time = System.currentTimeMillis();
+
+		/**
+		 * The constructor.
+		 * @param progress_message (String) shown while the request runs
+		 */
+		BackgroundTask(String progress_message) {
+			this.progress_message = progress_message;
+		}
+
+		/**
+		 * Does the work of the request on the background thread.
+		 * @return (T) the result
+		 */
+		abstract T compute();
+
+		/**
+		 * Shows the result on the event dispatch thread.
+		 * @param result (T) the result of compute()
+		 */
+		abstract void finish(T result);
+
+		@Override
+		protected T doInBackground() {
+			if (token.isCancelled())
+				return null;
+			solver.setCancellationToken(token);
+			try {
+				return compute();
+			} finally {
+				solver.setCancellationToken(null);
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (current_task != this || isCancelled())
+				return;
+			current_task = null;
+			progress_timer.stop();
+			try {
+				finish(get());
+			} catch (CancellationException e) {
+				// Dropped like the result of any cancelled request
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				setMessageField(Color.RED, "Something Went Wrong");
+				e.getCause().printStackTrace();
+			}
 		}
 	}
 }
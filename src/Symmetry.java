@@ -0,0 +1,38 @@
+/**
+ * The symmetries the generator can keep while it trims clues. Every
+ * symmetry pairs each square with a partner, and the two are removed
+ * together, so the clues of the puzzle form the symmetric pattern.
+ * @author Piotr Woloszyn
+ *
+ */
+public enum Symmetry {
+
+	// Squares are removed one at a time
+	NONE,
+	// Turning the grid half way round keeps the pattern
+	ROTATIONAL,
+	// Reflecting the grid over the diagonal from the top left keeps the pattern
+	DIAGONAL,
+	// Reflecting the grid over the middle column keeps the pattern
+	MIRROR;
+
+	/**
+	 * Returns the square removed together with the passed one.
+	 * @param square (int) position on the grid
+	 * @return (int) the partner, the square itself if it lies on the axis
+	 */
+	public int partnerOf(int square) {
+		int row = square / 9;
+		int col = square % 9;
+		switch (this) {
+		case ROTATIONAL:
+			return 80 - square;
+		case DIAGONAL:
+			return col * 9 + row;
+		case MIRROR:
+			return row * 9 + 8 - col;
+		default:
+			return square;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * This class is a fixed size table of solution counts for the grids the
+ * counting search has already explored, so a grid reached again through
+ * a different order of assignments isn't searched twice. A grid is
+ * identified by its Zobrist hash, the XOR of a random key for every
+ * number on it, which the search updates as it places and takes back
+ * numbers. A count only depends on the numbers on the grid, so the
+ * entries stay valid between puzzles, like the puzzles of one generation
+ * run that differ by a clue.
+ * Counts are kept capped at 2: 0 and 1 are exact, 2 means at least 2.
+ * Every entry also keeps the amount of nodes its subtree took, which is
+ * what a hit saves. The table has buckets of two slots, the first keeps
+ * the entry that took the most work and the second always takes the
+ * newest one.
+ * A table isn't thread safe, it belongs to a single solver.
+ * @author Piotr Woloszyn
+ *
+ */
+public class TranspositionTable {
+
+	// The count meaning at least 2 solutions
+	public static final int AT_LEAST_TWO = 2;
+	// The bytes taken by an entry, the hash and the data
+	private static final int ENTRY_SIZE = 16;
+	// Marks a used slot in the data, so an empty slot is 0
+	private static final long USED = 1L << 62;
+	// The work of an entry is kept in the data above the count
+	private static final int WORK_SHIFT = 2;
+	private static final long MAX_WORK = (USED >>> WORK_SHIFT) - 1;
+
+	// A random key for every number (1 - 9) of every square, 0 marks an
+	// empty square the search doesn't fill
+	private static final long[][] KEYS = new long[81][10];
+
+	static {
+		SplittableRandom random = new SplittableRandom(0x5EEDL);
+		for (int i = 0; i < 81; i++) {
+			for (int num = 0; num < 10; num++)
+				KEYS[i][num] = random.nextLong();
+		}
+	}
+
+	// The hashes and data of the slots, slots 2n and 2n + 1 make bucket n
+	private final long[] hashes;
+	private final long[] data;
+	// Picks the bucket from a hash
+	private final int bucket_mask;
+	// The statistics
+	private long probes;
+	private long hits;
+	private long stores;
+	private long replacements;
+	private long saved_nodes;
+
+	/**
+	 * The constructor.
+	 * @param memory_budget (long) the most bytes the table may take, at least 32
+	 */
+	public TranspositionTable(long memory_budget) {
+		long buckets = Long.highestOneBit(Math.max(memory_budget / (2 * ENTRY_SIZE), 1));
+		buckets = Math.min(buckets, 1 << 29);
+		hashes = new long[(int) buckets * 2];
+		data = new long[(int) buckets * 2];
+		bucket_mask = (int) buckets - 1;
+	}
+
+	/**
+	 * Returns the Zobrist key of a number on a square.
+	 * @param square (int) position on the grid
+	 * @param num (int) the number, 0 for an empty square the search doesn't fill
+	 * @return (long) the key
+	 */
+	public static long key(int square, int num) {
+		return KEYS[square][num];
+	}
+
+	/**
+	 * Looks up the count of a grid.
+	 * @param hash (long) the Zobrist hash of the grid
+	 * @param limit (int) the number of solutions the search stops at
+	 * @return (int) the count, at most limit, or -1 if the table can't answer it
+	 */
+	public int probe(long hash, int limit) {
+		probes += 1;
+		int slot = ((int) hash & bucket_mask) << 1;
+		for (int i = slot; i < slot + 2; i++) {
+			long entry = data[i];
+			if (entry != 0 && hashes[i] == hash) {
+				int count = (int) entry & 3;
+				if (count == AT_LEAST_TWO && limit > AT_LEAST_TWO)
+					return -1;
+				hits += 1;
+				saved_nodes += workOf(entry);
+				return Math.min(count, limit);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Stores the count of a grid whose subtree was searched to the end.
+	 * @param hash (long) the Zobrist hash of the grid
+	 * @param count (int) the number of solutions found
+	 * @param limit (int) the number of solutions the search stopped at
+	 * @param work (long) the nodes the subtree took
+	 */
+	public void store(long hash, int count, int limit, long work) {
+		// A count that reached the limit is only a lower bound
+		if (count >= limit && count < AT_LEAST_TWO)
+			return;
+		long entry = USED | Math.min(work, MAX_WORK) << WORK_SHIFT | Math.min(count, AT_LEAST_TWO);
+		int slot = ((int) hash & bucket_mask) << 1;
+		stores += 1;
+		if (data[slot] != 0 && hashes[slot] == hash) {
+			data[slot] = entry;
+			return;
+		}
+		if (data[slot + 1] != 0 && hashes[slot + 1] == hash)
+			data[slot + 1] = 0;
+		if (data[slot] == 0 || work >= workOf(data[slot])) {
+			if (data[slot] != 0)
+				replaceSecond(slot + 1, hashes[slot], data[slot]);
+			hashes[slot] = hash;
+			data[slot] = entry;
+		} else {
+			replaceSecond(slot + 1, hash, entry);
+		}
+	}
+
+	/**
+	 * Drops every entry, the statistics are kept.
+	 */
+	public void clear() {
+		Arrays.fill(data, 0);
+	}
+
+	/**
+	 * Sets the statistics back to 0.
+	 */
+	public void resetStatistics() {
+		probes = 0;
+		hits = 0;
+		stores = 0;
+		replacements = 0;
+		saved_nodes = 0;
+	}
+
+	/**
+	 * Returns the amount of entries the table can hold.
+	 * @return (int) the capacity
+	 */
+	public int getCapacity() {
+		return data.length;
+	}
+
+	/**
+	 * Returns the bytes taken by the entries.
+	 * @return (long) the size of the table
+	 */
+	public long getMemoryUsage() {
+		return (long) data.length * ENTRY_SIZE;
+	}
+
+	public long getProbeCount() {
+		return probes;
+	}
+
+	public long getHitCount() {
+		return hits;
+	}
+
+	public long getStoreCount() {
+		return stores;
+	}
+
+	/**
+	 * Returns the amount of entries that were overwritten by other grids.
+	 * @return (long) the replacement count
+	 */
+	public long getReplacementCount() {
+		return replacements;
+	}
+
+	/**
+	 * Returns the search nodes the hits saved, the work their subtrees
+	 * took when they were first searched.
+	 * @return (long) the saved nodes
+	 */
+	public long getSavedNodes() {
+		return saved_nodes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d probes, %d hits (%.1f%%), %d stores, %d replaced, %d nodes saved", probes, hits,
+				(probes > 0) ? 100.0 * hits / probes : 0.0, stores, replacements, saved_nodes);
+	}
+
+	/**
+	 * Puts an entry into the second slot of its bucket.
+	 * @param slot (int) the second slot
+	 * @param hash (long) the Zobrist hash of the grid
+	 * @param entry (long) the data of the entry
+	 */
+	private void replaceSecond(int slot, long hash, long entry) {
+		if (data[slot] != 0)
+			replacements += 1;
+		hashes[slot] = hash;
+		data[slot] = entry;
+	}
+
+	/**
+	 * Returns the nodes the subtree of an entry took.
+	 * @param entry (long) the data of the entry
+	 * @return (long) the work
+	 */
+	private static long workOf(long entry) {
+		return (entry & ~USED) >>> WORK_SHIFT;
+	}
+}